@@ -0,0 +1,157 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.atris.thunderbolt.benchmarks;
+
+import io.github.atris.thunderbolt.MutableFst;
+import io.github.atris.thunderbolt.operations.ArcSort;
+import io.github.atris.thunderbolt.operations.Compose;
+import io.github.atris.thunderbolt.operations.Connect;
+import io.github.atris.thunderbolt.operations.Determinize;
+import io.github.atris.thunderbolt.operations.NShortestPaths;
+import io.github.atris.thunderbolt.operations.Project;
+import io.github.atris.thunderbolt.operations.ProjectType;
+import io.github.atris.thunderbolt.operations.RemoveEpsilon;
+import io.github.atris.thunderbolt.operations.Reverse;
+import io.github.atris.thunderbolt.operations.ShortestDistance;
+import io.github.atris.thunderbolt.semiring.Semiring;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and average time of the core operations over synthetic FSTs (see {@link SyntheticFsts}).
+ *
+ * Operations that modify their input (Compose, Connect, ArcSort) get fresh copies for every invocation; the copies
+ * are made in an invocation level setup, so they don't count towards the measured time.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OperationBenchmarks {
+
+  @State(Scope.Benchmark)
+  public static class Input {
+
+    @Param({"1000", "10000"})
+    public int states;
+
+    @Param({"4"})
+    public int fanOut;
+
+    @Param({"0.0", "0.2"})
+    public double epsilonDensity;
+
+    @Param({"tropical", "log"})
+    public String semiring;
+
+    MutableFst fst;
+    MutableFst other;
+    // determinizing a random transducer mostly measures how long the delayed output strings get, so determinize
+    // runs on the acceptor of the input labels instead
+    MutableFst acceptor;
+    // the same fst without incoming state tracking, so its copies are built without it too
+    MutableFst untracked;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      Semiring ring = SyntheticFsts.semiringNamed(semiring);
+      fst = SyntheticFsts.generate(states, fanOut, epsilonDensity, ring, 1);
+      other = SyntheticFsts.generate(states, fanOut, epsilonDensity, ring, 2);
+      acceptor = MutableFst.copyFrom(fst);
+      Project.apply(acceptor, ProjectType.INPUT);
+      untracked = MutableFst.copyFrom(fst);
+      untracked.stopTrackingIncomingStates();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Copies {
+
+    MutableFst fst;
+    MutableFst other;
+
+    @Setup(Level.Invocation)
+    public void setUp(Input input) {
+      fst = MutableFst.copyFrom(input.fst);
+      other = MutableFst.copyFrom(input.other);
+    }
+  }
+
+  @Benchmark
+  public MutableFst copy(Input input) {
+    return MutableFst.copyFrom(input.fst);
+  }
+
+  @Benchmark
+  public MutableFst copyWithoutIncomingStates(Input input) {
+    return MutableFst.copyFrom(input.untracked);
+  }
+
+  @Benchmark
+  public MutableFst compose(Copies copies) {
+    return Compose.compose(copies.fst, copies.other, copies.fst.getSemiring());
+  }
+
+  @Benchmark
+  public MutableFst determinize(Input input) {
+    return new Determinize(Determinize.DeterminizeMode.DISAMBIGUATE).compute(input.acceptor);
+  }
+
+  @Benchmark
+  public MutableFst nShortestPaths(Input input) {
+    return NShortestPaths.apply(input.fst, 10);
+  }
+
+  @Benchmark
+  public double[] shortestDistance(Input input) {
+    return ShortestDistance.backward(input.fst);
+  }
+
+  @Benchmark
+  public MutableFst removeEpsilon(Input input) {
+    return RemoveEpsilon.remove(input.fst);
+  }
+
+  @Benchmark
+  public MutableFst connect(Copies copies) {
+    Connect.apply(copies.fst);
+    return copies.fst;
+  }
+
+  @Benchmark
+  public MutableFst arcSort(Copies copies) {
+    ArcSort.sortByInput(copies.fst);
+    return copies.fst;
+  }
+
+  @Benchmark
+  public MutableFst reverse(Input input) {
+    return Reverse.reverse(input.fst);
+  }
+}
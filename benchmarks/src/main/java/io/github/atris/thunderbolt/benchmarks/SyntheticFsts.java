@@ -0,0 +1,109 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.atris.thunderbolt.benchmarks;
+
+import io.github.atris.thunderbolt.Fst;
+import io.github.atris.thunderbolt.MutableFst;
+import io.github.atris.thunderbolt.MutableState;
+import io.github.atris.thunderbolt.MutableSymbolTable;
+import io.github.atris.thunderbolt.semiring.LogSemiring;
+import io.github.atris.thunderbolt.semiring.ProbabilitySemiring;
+import io.github.atris.thunderbolt.semiring.Semiring;
+import io.github.atris.thunderbolt.semiring.TropicalSemiring;
+
+import java.util.Random;
+
+/**
+ * Generates random FSTs with a given shape for the benchmarks. Arcs only ever go forward (to a state with a larger
+ * id, at most `WINDOW` states ahead) so the FSTs are acyclic: every operation terminates on them, determinization
+ * can't blow up without bound and epsilon removal doesn't have to deal with epsilon cycles. The last states are final
+ * and every state has an arc to the next one, so all states are on a successful path.
+ */
+public class SyntheticFsts {
+
+  public static final int WINDOW = 8;
+  public static final int LABELS = 64;
+
+  /**
+   * Builds a random FST; the same arguments always give the same FST
+   * @param states the number of states
+   * @param fanOut the number of arcs leaving each (non final) state
+   * @param epsilonDensity the fraction of the input and output labels that are epsilons
+   * @param semiring the semiring of the weights
+   * @param seed the random seed
+   * @return the generated FST, with one symbol table shared by the input and output labels
+   */
+  public static MutableFst generate(int states, int fanOut, double epsilonDensity, Semiring semiring, long seed) {
+    Random random = new Random(seed);
+    MutableSymbolTable symbols = new MutableSymbolTable();
+    symbols.put(Fst.EPS, 0);
+    for (int i = 1; i <= LABELS; i++) {
+      symbols.put("l" + i, i);
+    }
+    MutableFst fst = new MutableFst(states, semiring);
+    fst.setInputSymbolsAsCopy(symbols);
+    fst.setOutputSymbolsAsCopy(symbols);
+
+    MutableState[] created = new MutableState[states];
+    for (int i = 0; i < states; i++) {
+      created[i] = (i == 0 ? fst.newStartState() : fst.newState());
+    }
+    int firstFinal = Math.max(1, states - WINDOW);
+    for (int i = firstFinal; i < states; i++) {
+      created[i].setFinalWeight(weight(random, semiring));
+    }
+    for (int i = 0; i < states - 1; i++) {
+      for (int j = 0; j < fanOut; j++) {
+        int next = (j == 0) ? i + 1 : Math.min(states - 1, i + 1 + random.nextInt(WINDOW));
+        fst.addArc(created[i], label(random, epsilonDensity), label(random, epsilonDensity), created[next],
+                   weight(random, semiring));
+      }
+    }
+    return fst;
+  }
+
+  private static int label(Random random, double epsilonDensity) {
+    if (random.nextDouble() < epsilonDensity) {
+      return 0;
+    }
+    return 1 + random.nextInt(LABELS);
+  }
+
+  private static double weight(Random random, Semiring semiring) {
+    double cost = random.nextInt(100) / 10.0;
+    if (semiring instanceof ProbabilitySemiring) {
+      return Math.exp(-cost);
+    }
+    return cost;
+  }
+
+  /**
+   * @param name tropical, log or probability
+   * @return the semiring with that name
+   */
+  public static Semiring semiringNamed(String name) {
+    switch (name) {
+      case "tropical":
+        return TropicalSemiring.INSTANCE;
+      case "log":
+        return LogSemiring.INSTANCE;
+      case "probability":
+        return ProbabilitySemiring.INSTANCE;
+      default:
+        throw new IllegalArgumentException("unknown semiring " + name);
+    }
+  }
+}
@@ -0,0 +1,310 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt;
+
+import io.github.atris.thunderbolt.semiring.Semiring;
+import io.github.atris.thunderbolt.utils.FstUtils;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Base class for read-only FSTs that keep their arcs in a compressed sparse row (CSR) layout: the arcs of state `s`
+ * are the arc indexes in the range `[getArcStart(s), getArcEnd(s))`. Subclasses only decide where the primitive
+ * values live (heap arrays, a memory mapped file, ...); the {@link State} and {@link Arc} instances handed out are
+ * lightweight views that are created on demand.
+ *
+ * Use the primitive accessors (`getArcStart`, `getIlabel`, ...) in hot loops to avoid creating the views at all.
+ */
+public abstract class AbstractCompactFst implements Fst {
+
+  private final Semiring semiring;
+  private final int startId;
+  private final ImmutableSymbolTable itable;
+  private final ImmutableSymbolTable otable;
+  private final ImmutableSymbolTable stable;
+
+  protected AbstractCompactFst(Semiring semiring, int startId, ImmutableSymbolTable itable,
+                               ImmutableSymbolTable otable, @Nullable ImmutableSymbolTable stable) {
+    this.semiring = semiring;
+    this.startId = startId;
+    this.itable = itable;
+    this.otable = otable;
+    this.stable = stable;
+  }
+
+  /**
+   * The index of the first arc of the given state in the primitive arc arrays
+   * @param stateId
+   * @return
+   */
+  public abstract int getArcStart(int stateId);
+
+  /**
+   * The index one past the last arc of the given state in the primitive arc arrays
+   * @param stateId
+   * @return
+   */
+  public abstract int getArcEnd(int stateId);
+
+  /**
+   * Total number of arcs in this FST
+   * @return
+   */
+  public abstract int getArcCount();
+
+  public abstract int getIlabel(int arcIndex);
+
+  public abstract int getOlabel(int arcIndex);
+
+  public abstract int getNextStateId(int arcIndex);
+
+  public abstract double getWeight(int arcIndex);
+
+  public abstract double getFinalWeight(int stateId);
+
+  @Override
+  public CompactState getStartState() {
+    return new CompactState(this, startId);
+  }
+
+  @Override
+  public Semiring getSemiring() {
+    return semiring;
+  }
+
+  @Override
+  public CompactState getState(int index) {
+    Preconditions.checkElementIndex(index, getStateCount());
+    return new CompactState(this, index);
+  }
+
+  @Override
+  public State getState(String name) {
+    Preconditions.checkState(stable != null, "cant use get by name if not using state symols");
+    return getState(stable.get(name));
+  }
+
+  @Override
+  public ImmutableSymbolTable getInputSymbols() {
+    return itable;
+  }
+
+  @Override
+  public ImmutableSymbolTable getOutputSymbols() {
+    return otable;
+  }
+
+  @Nullable
+  @Override
+  public ImmutableSymbolTable getStateSymbols() {
+    return stable;
+  }
+
+  @Override
+  public int getInputSymbolCount() {
+    return itable.size();
+  }
+
+  @Override
+  public int getOutputSymbolCount() {
+    return otable.size();
+  }
+
+  @Override
+  public int lookupInputSymbol(String symbol) {
+    return itable.get(symbol);
+  }
+
+  @Override
+  public int lookupOutputSymbol(String symbol) {
+    return otable.get(symbol);
+  }
+
+  @Override
+  public boolean isUsingStateSymbols() {
+    return stable != null;
+  }
+
+  @Override
+  public void throwIfInvalid() {
+    // cant even construct an invalid compact fst
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return FstUtils.fstEquals(this, obj);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = semiring != null ? semiring.hashCode() : 0;
+    for (int i = 0; i < getStateCount(); i++) {
+      long temp = Double.doubleToLongBits(getFinalWeight(i));
+      result = 31 * result + (int) (temp ^ (temp >>> 32));
+    }
+    for (int i = 0; i < getArcCount(); i++) {
+      result = 31 * result + getIlabel(i);
+      result = 31 * result + getOlabel(i);
+      result = 31 * result + getNextStateId(i);
+    }
+    result = 31 * result + startId;
+    result = 31 * result + (itable != null ? itable.hashCode() : 0);
+    result = 31 * result + (otable != null ? otable.hashCode() : 0);
+    return result;
+  }
+
+  /**
+   * View of a single state of a compact FST; equality is by value as with the other state implementations
+   */
+  public static class CompactState implements State {
+
+    private final AbstractCompactFst fst;
+    private final int id;
+
+    CompactState(AbstractCompactFst fst, int id) {
+      this.fst = fst;
+      this.id = id;
+    }
+
+    @Override
+    public double getFinalWeight() {
+      return fst.getFinalWeight(id);
+    }
+
+    @Override
+    public int getId() {
+      return id;
+    }
+
+    @Override
+    public int getArcCount() {
+      return fst.getArcEnd(id) - fst.getArcStart(id);
+    }
+
+    @Override
+    public CompactArc getArc(int index) {
+      Preconditions.checkElementIndex(index, getArcCount());
+      return new CompactArc(fst, fst.getArcStart(id) + index);
+    }
+
+    @Override
+    public List<CompactArc> getArcs() {
+      return new AbstractList<CompactArc>() {
+        @Override
+        public CompactArc get(int index) {
+          return getArc(index);
+        }
+
+        @Override
+        public int size() {
+          return getArcCount();
+        }
+      };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return FstUtils.stateEquals(this, o);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = id;
+      long temp = getFinalWeight() != +0.0 ? Double.doubleToLongBits(getFinalWeight()) : 0;
+      result = 31 * result * ((int) (temp ^ (temp >>> 32)));
+      result = 31 * result + getArcCount();
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "CompactState{" +
+             "id=" + id +
+             ", finalWeight=" + getFinalWeight() +
+             ", arcs=" + getArcs() +
+             '}';
+    }
+  }
+
+  /**
+   * View of a single arc of a compact FST
+   */
+  public static class CompactArc implements Arc {
+
+    private final AbstractCompactFst fst;
+    private final int index;
+
+    CompactArc(AbstractCompactFst fst, int index) {
+      this.fst = fst;
+      this.index = index;
+    }
+
+    @Override
+    public double getWeight() {
+      return fst.getWeight(index);
+    }
+
+    @Override
+    public int getIlabel() {
+      return fst.getIlabel(index);
+    }
+
+    @Override
+    public int getOlabel() {
+      return fst.getOlabel(index);
+    }
+
+    @Override
+    public CompactState getNextState() {
+      return new CompactState(fst, fst.getNextStateId(index));
+    }
+
+    public int getNextStateId() {
+      return fst.getNextStateId(index);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return FstUtils.arcEquals(this, o);
+    }
+
+    @Override
+    public int hashCode() {
+      int result;
+      long temp;
+      temp = Double.doubleToLongBits(getWeight());
+      result = (int) (temp ^ (temp >>> 32));
+      result = 31 * result + getIlabel();
+      result = 31 * result + getOlabel();
+      result = 31 * result + getNextStateId();
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "CompactArc{" +
+             "ilabel=" + getIlabel() +
+             ", olabel=" + getOlabel() +
+             ", weight=" + getWeight() +
+             ", nextStateId=" + getNextStateId() +
+             '}';
+    }
+  }
+}
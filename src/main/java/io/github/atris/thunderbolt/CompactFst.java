@@ -0,0 +1,160 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Read-only FST that stores all of its arcs in a compressed sparse row (CSR) layout: the arcs of state `s` live in
+ * the index range `[arcOffsets[s], arcOffsets[s + 1])` of a handful of primitive arrays. Compared to
+ * {@link ImmutableFst} there is no object per state or arc on the heap.
+ *
+ * The weights can optionally be stored with single precision, which halves their memory; they are still handed out
+ * (and computed with) as doubles, and the semiring zero and one survive the conversion exactly for the registered
+ * semirings.
+ *
+ * NOTE: this class is thread safe
+ */
+public class CompactFst extends AbstractCompactFst {
+
+  private final int numStates;
+  private final int[] arcOffsets;
+  private final int[] ilabels;
+  private final int[] olabels;
+  private final int[] nextStates;
+  // exactly one of the double and float pairs is set
+  private final double[] finalWeights;
+  private final double[] weights;
+  private final float[] floatFinalWeights;
+  private final float[] floatWeights;
+
+  /**
+   * Creates a compact copy of the given FST; the given FST may be any implementation (mutable, immutable, etc.)
+   * @param copyFrom
+   */
+  public CompactFst(Fst copyFrom) {
+    this(copyFrom, false);
+  }
+
+  /**
+   * Creates a compact copy of the given FST
+   * @param copyFrom the fst to copy; may be any implementation (mutable, immutable, etc.)
+   * @param useFloatWeights whether to store the weights with single precision
+   */
+  public CompactFst(Fst copyFrom, boolean useFloatWeights) {
+    super(copyFrom.getSemiring(), startIdOf(copyFrom), new ImmutableSymbolTable(copyFrom.getInputSymbols()),
+          new ImmutableSymbolTable(copyFrom.getOutputSymbols()),
+          copyFrom.isUsingStateSymbols() ? new ImmutableSymbolTable(copyFrom.getStateSymbols()) : null);
+
+    this.numStates = copyFrom.getStateCount();
+    this.finalWeights = useFloatWeights ? null : new double[numStates];
+    this.floatFinalWeights = useFloatWeights ? new float[numStates] : null;
+    this.arcOffsets = new int[numStates + 1];
+    int numArcs = 0;
+    for (int i = 0; i < numStates; i++) {
+      State state = copyFrom.getState(i);
+      Preconditions.checkState(state.getId() == i, "state id %s must match its index %s", state.getId(), i);
+      if (useFloatWeights) {
+        floatFinalWeights[i] = (float) state.getFinalWeight();
+      } else {
+        finalWeights[i] = state.getFinalWeight();
+      }
+      arcOffsets[i] = numArcs;
+      numArcs += state.getArcCount();
+    }
+    arcOffsets[numStates] = numArcs;
+
+    this.ilabels = new int[numArcs];
+    this.olabels = new int[numArcs];
+    this.nextStates = new int[numArcs];
+    this.weights = useFloatWeights ? null : new double[numArcs];
+    this.floatWeights = useFloatWeights ? new float[numArcs] : null;
+    for (int i = 0; i < numStates; i++) {
+      State state = copyFrom.getState(i);
+      int offset = arcOffsets[i];
+      int arcCount = state.getArcCount();
+      for (int j = 0; j < arcCount; j++) {
+        Arc arc = state.getArc(j);
+        ilabels[offset + j] = arc.getIlabel();
+        olabels[offset + j] = arc.getOlabel();
+        nextStates[offset + j] = arc.getNextState().getId();
+        if (useFloatWeights) {
+          floatWeights[offset + j] = (float) arc.getWeight();
+        } else {
+          weights[offset + j] = arc.getWeight();
+        }
+      }
+    }
+  }
+
+  private static int startIdOf(Fst fst) {
+    Preconditions.checkNotNull(fst.getStartState(), "cant compact an fst without a start state");
+    return fst.getStartState().getId();
+  }
+
+  /**
+   * @return whether the weights are stored with single precision
+   */
+  public boolean isUsingFloatWeights() {
+    return floatWeights != null;
+  }
+
+  @Override
+  public int getArcStart(int stateId) {
+    return arcOffsets[stateId];
+  }
+
+  @Override
+  public int getArcEnd(int stateId) {
+    return arcOffsets[stateId + 1];
+  }
+
+  @Override
+  public int getArcCount() {
+    return ilabels.length;
+  }
+
+  @Override
+  public int getIlabel(int arcIndex) {
+    return ilabels[arcIndex];
+  }
+
+  @Override
+  public int getOlabel(int arcIndex) {
+    return olabels[arcIndex];
+  }
+
+  @Override
+  public int getNextStateId(int arcIndex) {
+    return nextStates[arcIndex];
+  }
+
+  @Override
+  public double getWeight(int arcIndex) {
+    return weights != null ? weights[arcIndex] : floatWeights[arcIndex];
+  }
+
+  @Override
+  public double getFinalWeight(int stateId) {
+    return finalWeights != null ? finalWeights[stateId] : floatFinalWeights[stateId];
+  }
+
+  @Override
+  public int getStateCount() {
+    return numStates;
+  }
+}
@@ -16,24 +16,42 @@
 
 package io.github.atris.thunderbolt;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableBiMap;
 import com.google.common.io.ByteSink;
 import com.google.common.io.ByteSource;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
 import com.google.common.io.Files;
 
 import com.carrotsearch.hppc.cursors.ObjectIntCursor;
+import com.carrotsearch.hppc.sorting.IndirectComparator;
+import com.carrotsearch.hppc.sorting.IndirectSort;
+import io.github.atris.thunderbolt.semiring.LogSemiring;
+import io.github.atris.thunderbolt.semiring.ProbabilitySemiring;
 import io.github.atris.thunderbolt.semiring.Semiring;
+import io.github.atris.thunderbolt.semiring.TropicalSemiring;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.IdentityHashMap;
-import java.util.Map;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -50,14 +68,28 @@ public class FstInputOutput {
   private static final int FIRST_VERSION = 42;
   private static final int CURRENT_VERSION = 42;
 
+  private static final int COMPACT_MAGIC = 0x54424346; // "TBCF"
+  private static final int COMPACT_VERSION = 1;
+  private static final int COMPACT_FLOAT_WEIGHTS = 1;
+  private static final int COMPACT_STATE_SYMBOLS = 2;
+
+  private static final int MAPPED_MAGIC = 0x54424d46; // "TBMF"
+  private static final int MAPPED_VERSION = 2; // version 1 had no float weights flag
+  private static final int MAPPED_ALIGNMENT = 8;
+
+  private static final ImmutableBiMap<String, Semiring> SEMIRING_NAMES = ImmutableBiMap.of(
+      "tropical", TropicalSemiring.INSTANCE,
+      "log", LogSemiring.INSTANCE,
+      "probability", ProbabilitySemiring.INSTANCE
+  );
+
   /**
-   * Deserializes a symbol map from an java.io.ObjectInput
+   * Deserializes a symbol map from an java.io.DataInput
    *
-   * @param in the java.io.ObjectInput. It should be already be initialized by the caller.
+   * @param in the java.io.DataInput. It should be already be initialized by the caller.
    * @return the deserialized symbol map
    */
-  public static MutableSymbolTable readStringMap(ObjectInput in)
-      throws IOException, ClassNotFoundException {
+  public static MutableSymbolTable readStringMap(DataInput in) throws IOException {
 
     int mapSize = in.readInt();
     MutableSymbolTable syms = new MutableSymbolTable();
@@ -70,7 +102,7 @@ public class FstInputOutput {
   }
 
   /**
-   * Deserializes an Fst from an ObjectInput
+   * Deserializes an Fst from an ObjectInput, in the format that predates the compact one
    *
    * @param in the ObjectInput. It should be already be initialized by the caller.
    */
@@ -148,28 +180,137 @@ public class FstInputOutput {
   private static MutableFst loadModelFromSource(ByteSource bs) {
     try (PushbackInputStream pis = new PushbackInputStream(bs.openBufferedStream(), 2)) {
       // gzip or not?
-      ObjectInputStream ois;
+      InputStream in;
       byte[] signature = new byte[2];
       int len = pis.read(signature); //read the signature
       pis.unread(signature, 0, len); //push back the signature to the stream
       if (signature[0] == (byte) 0x1f && signature[1] == (byte) 0x8b) {
-        ois = new ObjectInputStream(new GZIPInputStream(pis));
+        in = new BufferedInputStream(new GZIPInputStream(pis));
       } else {
-        ois = new ObjectInputStream(pis);
+        in = new BufferedInputStream(pis);
+      }
+      // files written before the compact format start with the java serialization stream magic
+      in.mark(2);
+      int first = in.read();
+      int second = in.read();
+      in.reset();
+      if (first == 0xAC && second == 0xED) {
+        return readFstFromBinaryStream(new ObjectInputStream(in));
       }
-      return readFstFromBinaryStream(ois);
+      return readFstFromCompactStream(new DataInputStream(in));
     } catch (Exception e) {
       throw Throwables.propagate(e);
     }
   }
 
   /**
-   * Serializes a symbol map to an ObjectOutput
+   * Deserializes an Fst written by {@link #writeFstToCompactStream(Fst, DataOutput, boolean)}
+   *
+   * @param in the DataInput. It should be already be initialized by the caller.
+   */
+  public static MutableFst readFstFromCompactStream(DataInput in) throws IOException {
+    if (in.readInt() != COMPACT_MAGIC) {
+      throw new IllegalArgumentException("Not a compact fst stream");
+    }
+    int version = in.readInt();
+    if (version != COMPACT_VERSION) {
+      throw new IllegalArgumentException("cant read version compact fst model " + version);
+    }
+    String semiringName = in.readUTF();
+    Semiring semiring = SEMIRING_NAMES.get(semiringName);
+    if (semiring == null) {
+      throw new IllegalArgumentException("Unknown semiring " + semiringName);
+    }
+    int flags = in.readUnsignedByte();
+    boolean floatWeights = (flags & COMPACT_FLOAT_WEIGHTS) != 0;
+    MutableSymbolTable is = readCompactStringMap(in);
+    MutableSymbolTable os = readCompactStringMap(in);
+    MutableSymbolTable ss = null;
+    if ((flags & COMPACT_STATE_SYMBOLS) != 0) {
+      ss = readCompactStringMap(in);
+    }
+
+    int startId = readVarInt(in);
+    int numStates = readVarInt(in);
+    MutableFst res = new MutableFst(new ArrayList<MutableState>(numStates), semiring, is, os);
+    if (ss != null) {
+      res.useStateSymbols(ss);
+    }
+    boolean trackIncoming = res.isTrackingIncomingStates();
+    int[] arcCounts = new int[numStates];
+    for (int i = 0; i < numStates; i++) {
+      arcCounts[i] = readVarInt(in);
+      MutableState state = new MutableState(arcCounts[i]);
+      state.setFinalWeight(readWeight(in, floatWeights, semiring));
+      res.setState(i, state);
+    }
+    res.setStart(res.getState(startId));
+
+    for (int i = 0; i < numStates; i++) {
+      MutableState state = res.getState(i);
+      int iLabel = 0;
+      int oLabel = 0;
+      for (int j = 0; j < arcCounts[i]; j++) {
+        iLabel += readSignedVarInt(in);
+        oLabel += readSignedVarInt(in);
+        MutableState next = res.getState(i + readSignedVarInt(in));
+        state.addArc(iLabel, oLabel, readWeight(in, floatWeights, semiring), next);
+        if (trackIncoming) {
+          next.addIncomingState(state);
+        }
+      }
+    }
+    return res;
+  }
+
+  private static MutableSymbolTable readCompactStringMap(DataInput in) throws IOException {
+    int mapSize = readVarInt(in);
+    MutableSymbolTable syms = new MutableSymbolTable();
+    int id = 0;
+    for (int i = 0; i < mapSize; i++) {
+      String sym = in.readUTF();
+      id += readSignedVarInt(in);
+      syms.put(sym, id);
+    }
+    return syms;
+  }
+
+  // maps the semiring zero and one to the exact instances, so float weights don't drift off them
+  private static double readWeight(DataInput in, boolean floatWeights, Semiring semiring) throws IOException {
+    double weight = floatWeights ? in.readFloat() : in.readDouble();
+    if (weight == semiring.zero()) {
+      return semiring.zero();
+    }
+    if (weight == semiring.one()) {
+      return semiring.one();
+    }
+    return weight;
+  }
+
+  private static int readVarInt(DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.readByte();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint in compact fst stream");
+  }
+
+  private static int readSignedVarInt(DataInput in) throws IOException {
+    int zigzag = readVarInt(in);
+    return (zigzag >>> 1) ^ -(zigzag & 1);
+  }
+
+  /**
+   * Serializes a symbol map to a DataOutput
    *
    * @param map the symbol map to serialize
-   * @param out the ObjectOutput. It should be already be initialized by the caller.
+   * @param out the DataOutput. It should be already be initialized by the caller.
    */
-  private static void writeStringMap(SymbolTable map, ObjectOutput out)
+  private static void writeStringMap(SymbolTable map, DataOutput out)
       throws IOException {
     out.writeInt(map.size());
     for (ObjectIntCursor<String> cursor : map) {
@@ -179,7 +320,7 @@ public class FstInputOutput {
   }
 
   /**
-   * Serializes the current Fst instance to an ObjectOutput
+   * Serializes the current Fst instance to an ObjectOutput, in the format that predates the compact one
    *
    * @param out the ObjectOutput. It should be already be initialized by the caller.
    */
@@ -196,13 +337,11 @@ public class FstInputOutput {
     out.writeObject(fst.getSemiring());
     out.writeInt(fst.getStateCount());
 
-    Map<State, Integer> stateMap = new IdentityHashMap<>(fst.getStateCount());
     for (int i = 0; i < fst.getStateCount(); i++) {
       State s = fst.getState(i);
       out.writeInt(s.getArcCount());
       out.writeDouble(s.getFinalWeight());
       out.writeInt(s.getId());
-      stateMap.put(s, i);
     }
 
     int numStates = fst.getStateCount();
@@ -214,15 +353,299 @@ public class FstInputOutput {
         out.writeInt(a.getIlabel());
         out.writeInt(a.getOlabel());
         out.writeDouble(a.getWeight());
-        out.writeInt(stateMap.get(a.getNextState()));
+        out.writeInt(a.getNextState().getId());
       }
     }
   }
 
+  /**
+   * Serializes the fst in the compact format of {@link #writeFstToCompactStream(Fst, DataOutput, boolean)} with double
+   * weights, gzipped; see {@link #writeFstToBinaryFile(Fst, File, boolean)}
+   */
   public static void writeFstToBinaryFile(Fst fst, File file) throws IOException {
+    writeFstToBinaryFile(fst, file, false);
+  }
+
+  /**
+   * Serializes the fst in the compact format, gzipped, optionally with single precision weights. The compact format
+   * only knows the registered semirings (tropical, log and probability), so an fst over any other semiring is written
+   * in the format that predates it (with double weights), which serializes the semiring itself;
+   * {@link #readFstFromBinaryFile(File)} reads either.
+   */
+  public static void writeFstToBinaryFile(Fst fst, File file, boolean floatWeights) throws IOException {
+    // decided before the sink truncates the file
+    boolean compact = SEMIRING_NAMES.containsValue(fst.getSemiring());
+    ByteSink bs = Files.asByteSink(file);
+    if (!compact) {
+      try (ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(bs.openBufferedStream()))) {
+        writeFstToBinaryStream(fst, out);
+      }
+      return;
+    }
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(bs.openStream())))) {
+      writeFstToCompactStream(fst, out, floatWeights);
+    }
+  }
+
+  public static void writeFstToCompactStream(Fst fst, DataOutput out) throws IOException {
+    writeFstToCompactStream(fst, out, false);
+  }
+
+  /**
+   * Serializes the fst without java serialization: the semiring is written by its registered name (tropical, log or
+   * probability), labels and symbol ids as varint deltas from the previous one, next states as varint deltas from the
+   * state the arc leaves and weights as doubles or, if asked for, floats. States are written first with their arc
+   * counts so the reader can size everything up front.
+   *
+   * @param fst the fst to write
+   * @param out the DataOutput. It should be already be initialized by the caller.
+   * @param floatWeights whether to write the weights with single precision
+   */
+  public static void writeFstToCompactStream(Fst fst, DataOutput out, boolean floatWeights) throws IOException {
+    String semiringName = SEMIRING_NAMES.inverse().get(fst.getSemiring());
+    if (semiringName == null) {
+      throw new IllegalArgumentException("No registered name for semiring " + fst.getSemiring());
+    }
+    out.writeInt(COMPACT_MAGIC);
+    out.writeInt(COMPACT_VERSION);
+    out.writeUTF(semiringName);
+    int flags = (floatWeights ? COMPACT_FLOAT_WEIGHTS : 0) | (fst.isUsingStateSymbols() ? COMPACT_STATE_SYMBOLS : 0);
+    out.writeByte(flags);
+    writeCompactStringMap(fst.getInputSymbols(), out);
+    writeCompactStringMap(fst.getOutputSymbols(), out);
+    if (fst.isUsingStateSymbols()) {
+      writeCompactStringMap(fst.getStateSymbols(), out);
+    }
+
+    int numStates = fst.getStateCount();
+    writeVarInt(out, fst.getStartState().getId());
+    writeVarInt(out, numStates);
+    for (int i = 0; i < numStates; i++) {
+      State s = fst.getState(i);
+      writeVarInt(out, s.getArcCount());
+      writeWeight(out, s.getFinalWeight(), floatWeights);
+    }
+    for (int i = 0; i < numStates; i++) {
+      State s = fst.getState(i);
+      int iLabel = 0;
+      int oLabel = 0;
+      for (int j = 0; j < s.getArcCount(); j++) {
+        Arc a = s.getArc(j);
+        writeSignedVarInt(out, a.getIlabel() - iLabel);
+        writeSignedVarInt(out, a.getOlabel() - oLabel);
+        writeSignedVarInt(out, a.getNextState().getId() - i);
+        writeWeight(out, a.getWeight(), floatWeights);
+        iLabel = a.getIlabel();
+        oLabel = a.getOlabel();
+      }
+    }
+  }
+
+  // the entries are written in id order so the ids are small positive deltas
+  private static void writeCompactStringMap(SymbolTable map, DataOutput out) throws IOException {
+    final String[] symbols = new String[map.size()];
+    final int[] ids = new int[map.size()];
+    int next = 0;
+    for (ObjectIntCursor<String> cursor : map) {
+      symbols[next] = cursor.key;
+      ids[next] = cursor.value;
+      next += 1;
+    }
+    int[] order = IndirectSort.mergesort(0, next, new IndirectComparator() {
+      @Override
+      public int compare(int a, int b) {
+        return Integer.compare(ids[a], ids[b]);
+      }
+    });
+    writeVarInt(out, next);
+    int previous = 0;
+    for (int index : order) {
+      out.writeUTF(symbols[index]);
+      writeSignedVarInt(out, ids[index] - previous);
+      previous = ids[index];
+    }
+  }
+
+  private static void writeWeight(DataOutput out, double weight, boolean floatWeights) throws IOException {
+    if (floatWeights) {
+      out.writeFloat((float) weight);
+    } else {
+      out.writeDouble(weight);
+    }
+  }
+
+  private static void writeVarInt(DataOutput out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private static void writeSignedVarInt(DataOutput out, int value) throws IOException {
+    writeVarInt(out, (value << 1) ^ (value >> 31));
+  }
+
+  /**
+   * Writes the fst in the memory mappable layout read by {@link #readFstFromMappedFile(File)}. The file consists of
+   * a small header (symbol tables included) followed by the aligned primitive sections of a {@link CompactFst}:
+   * final weights, arc offsets, input labels, output labels, next state ids and arc weights.
+   *
+   * Only the registered semirings (tropical, log and probability) can be written.
+   *
+   * @param fst the fst to write
+   * @param file the destination file; it is overwritten if it exists
+   */
+  public static void writeFstToMappedFile(Fst fst, File file) throws IOException {
+    writeFstToMappedFile(fst, file, false);
+  }
+
+  /**
+   * Writes the fst in the memory mappable layout, optionally with single precision weights, which halves the weight
+   * sections of the file and of the page cache it is served from
+   *
+   * @param fst the fst to write
+   * @param file the destination file; it is overwritten if it exists
+   * @param floatWeights whether to write the weights with single precision
+   */
+  public static void writeFstToMappedFile(Fst fst, File file, boolean floatWeights) throws IOException {
+    String semiringName = SEMIRING_NAMES.inverse().get(fst.getSemiring());
+    if (semiringName == null) {
+      throw new IllegalArgumentException("No registered name for semiring " + fst.getSemiring());
+    }
+    int numStates = fst.getStateCount();
+    long numArcs = 0;
+    for (int i = 0; i < numStates; i++) {
+      numArcs += fst.getState(i).getArcCount();
+    }
+    Preconditions.checkArgument(numArcs <= Integer.MAX_VALUE, "too many arcs to write a mapped fst: %s", numArcs);
+
     ByteSink bs = Files.asByteSink(file);
-    try (ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(bs.openBufferedStream()))) {
-      writeFstToBinaryStream(fst, oos);
+    try (CountingOutputStream cos = new CountingOutputStream(bs.openBufferedStream());
+         DataOutputStream out = new DataOutputStream(cos)) {
+      out.writeInt(MAPPED_MAGIC);
+      out.writeInt(MAPPED_VERSION);
+      out.writeUTF(semiringName);
+      out.writeInt(fst.getStartState().getId());
+      out.writeInt(numStates);
+      out.writeInt((int) numArcs);
+      writeStringMap(fst.getInputSymbols(), out);
+      writeStringMap(fst.getOutputSymbols(), out);
+      out.writeBoolean(fst.isUsingStateSymbols());
+      if (fst.isUsingStateSymbols()) {
+        writeStringMap(fst.getStateSymbols(), out);
+      }
+      out.writeBoolean(floatWeights);
+
+      writeAlignment(out, cos);
+      for (int i = 0; i < numStates; i++) {
+        writeWeight(out, fst.getState(i).getFinalWeight(), floatWeights);
+      }
+      int offset = 0;
+      for (int i = 0; i < numStates; i++) {
+        out.writeInt(offset);
+        offset += fst.getState(i).getArcCount();
+      }
+      out.writeInt(offset);
+      for (int i = 0; i < numStates; i++) {
+        for (Arc arc : fst.getState(i).getArcs()) {
+          out.writeInt(arc.getIlabel());
+        }
+      }
+      for (int i = 0; i < numStates; i++) {
+        for (Arc arc : fst.getState(i).getArcs()) {
+          out.writeInt(arc.getOlabel());
+        }
+      }
+      for (int i = 0; i < numStates; i++) {
+        for (Arc arc : fst.getState(i).getArcs()) {
+          out.writeInt(arc.getNextState().getId());
+        }
+      }
+      writeAlignment(out, cos);
+      for (int i = 0; i < numStates; i++) {
+        for (Arc arc : fst.getState(i).getArcs()) {
+          writeWeight(out, arc.getWeight(), floatWeights);
+        }
+      }
+    }
+  }
+
+  /**
+   * Opens a file written by {@link #writeFstToMappedFile(Fst, File)} as a read-only Fst view. Only the header and
+   * the symbol tables are read eagerly; all of the states and arcs are served straight out of the mapped file.
+   *
+   * @param file the mapped fst file
+   */
+  public static MappedFst readFstFromMappedFile(File file) {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+         CountingInputStream cis = new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel)))) {
+      DataInputStream in = new DataInputStream(cis);
+      if (in.readInt() != MAPPED_MAGIC) {
+        throw new IllegalArgumentException("Not a mapped fst file " + file);
+      }
+      int version = in.readInt();
+      if (version < 1 || version > MAPPED_VERSION) {
+        throw new IllegalArgumentException("cant read version mapped fst model " + version);
+      }
+      String semiringName = in.readUTF();
+      Semiring semiring = SEMIRING_NAMES.get(semiringName);
+      if (semiring == null) {
+        throw new IllegalArgumentException("Unknown semiring " + semiringName);
+      }
+      int startId = in.readInt();
+      int numStates = in.readInt();
+      int numArcs = in.readInt();
+      ImmutableSymbolTable is = new ImmutableSymbolTable(readStringMap(in));
+      ImmutableSymbolTable os = new ImmutableSymbolTable(readStringMap(in));
+      ImmutableSymbolTable ss = null;
+      if (in.readBoolean()) {
+        ss = new ImmutableSymbolTable(readStringMap(in));
+      }
+      boolean floatWeights = version >= 2 && in.readBoolean();
+      int weightBytes = floatWeights ? 4 : 8;
+
+      long position = align(cis.getCount());
+      ByteBuffer finalWeights = map(channel, position, (long) weightBytes * numStates);
+      position += (long) weightBytes * numStates;
+      ByteBuffer arcOffsets = map(channel, position, 4L * (numStates + 1));
+      position += 4L * (numStates + 1);
+      ByteBuffer ilabels = map(channel, position, 4L * numArcs);
+      position += 4L * numArcs;
+      ByteBuffer olabels = map(channel, position, 4L * numArcs);
+      position += 4L * numArcs;
+      ByteBuffer nextStates = map(channel, position, 4L * numArcs);
+      position = align(position + 4L * numArcs);
+      ByteBuffer weights = map(channel, position, (long) weightBytes * numArcs);
+
+      return new MappedFst(semiring, startId, is, os, ss, numStates, numArcs, finalWeights,
+                           arcOffsets.asIntBuffer(), ilabels.asIntBuffer(), olabels.asIntBuffer(),
+                           nextStates.asIntBuffer(), weights, floatWeights);
+    } catch (Exception e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Mapped fst section is too large: " + size);
+    }
+    if (position + size > channel.size()) {
+      throw new IllegalArgumentException("Mapped fst file is truncated");
+    }
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+  }
+
+  private static long align(long position) {
+    long remainder = position % MAPPED_ALIGNMENT;
+    return remainder == 0 ? position : position + MAPPED_ALIGNMENT - remainder;
+  }
+
+  private static void writeAlignment(DataOutputStream out, CountingOutputStream cos) throws IOException {
+    out.flush();
+    long padding = align(cos.getCount()) - cos.getCount();
+    for (long i = 0; i < padding; i++) {
+      out.writeByte(0);
     }
   }
 }
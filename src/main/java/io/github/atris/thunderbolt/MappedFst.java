@@ -0,0 +1,117 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt;
+
+import io.github.atris.thunderbolt.semiring.Semiring;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Read-only FST served directly from a memory mapped file written by
+ * {@link FstInputOutput#writeFstToMappedFile}; see {@link FstInputOutput#readFstFromMappedFile}.
+ * States and arcs are never deserialized: every accessor reads straight out of the mapped pages, so opening a model
+ * costs the same regardless of its size and all processes mapping the same file share one copy in the page cache.
+ *
+ * NOTE: this class is thread safe
+ */
+public class MappedFst extends AbstractCompactFst {
+
+  private final int numStates;
+  private final int numArcs;
+  private final IntBuffer arcOffsets;
+  private final IntBuffer ilabels;
+  private final IntBuffer olabels;
+  private final IntBuffer nextStates;
+  // exactly one of the double and float pairs is set, depending on how the file was written
+  private final DoubleBuffer finalWeights;
+  private final DoubleBuffer weights;
+  private final FloatBuffer floatFinalWeights;
+  private final FloatBuffer floatWeights;
+
+  MappedFst(Semiring semiring, int startId, ImmutableSymbolTable itable, ImmutableSymbolTable otable,
+            @Nullable ImmutableSymbolTable stable, int numStates, int numArcs, ByteBuffer finalWeights,
+            IntBuffer arcOffsets, IntBuffer ilabels, IntBuffer olabels, IntBuffer nextStates,
+            ByteBuffer weights, boolean useFloatWeights) {
+    super(semiring, startId, itable, otable, stable);
+    this.numStates = numStates;
+    this.numArcs = numArcs;
+    this.arcOffsets = arcOffsets;
+    this.ilabels = ilabels;
+    this.olabels = olabels;
+    this.nextStates = nextStates;
+    this.finalWeights = useFloatWeights ? null : finalWeights.asDoubleBuffer();
+    this.weights = useFloatWeights ? null : weights.asDoubleBuffer();
+    this.floatFinalWeights = useFloatWeights ? finalWeights.asFloatBuffer() : null;
+    this.floatWeights = useFloatWeights ? weights.asFloatBuffer() : null;
+  }
+
+  /**
+   * @return whether the file stores the weights with single precision
+   */
+  public boolean isUsingFloatWeights() {
+    return floatWeights != null;
+  }
+
+  @Override
+  public int getArcStart(int stateId) {
+    return arcOffsets.get(stateId);
+  }
+
+  @Override
+  public int getArcEnd(int stateId) {
+    return arcOffsets.get(stateId + 1);
+  }
+
+  @Override
+  public int getArcCount() {
+    return numArcs;
+  }
+
+  @Override
+  public int getIlabel(int arcIndex) {
+    return ilabels.get(arcIndex);
+  }
+
+  @Override
+  public int getOlabel(int arcIndex) {
+    return olabels.get(arcIndex);
+  }
+
+  @Override
+  public int getNextStateId(int arcIndex) {
+    return nextStates.get(arcIndex);
+  }
+
+  @Override
+  public double getWeight(int arcIndex) {
+    return weights != null ? weights.get(arcIndex) : floatWeights.get(arcIndex);
+  }
+
+  @Override
+  public double getFinalWeight(int stateId) {
+    return finalWeights != null ? finalWeights.get(stateId) : floatFinalWeights.get(stateId);
+  }
+
+  @Override
+  public int getStateCount() {
+    return numStates;
+  }
+}
@@ -22,28 +22,21 @@ import io.github.atris.thunderbolt.utils.FstUtils;
 /**
  * A mutable FST's arc implementation.
  *
+ * This is a view of one arc of a {@link MutableState}, which keeps the values of all of its arcs in primitive arrays;
+ * reads and writes go straight to those arrays. The view is attached to the index of the arc, so after the arcs of
+ * the state are sorted or some of them are deleted it refers to whichever arc is at that index then.
+ *
  * @author John Salatas jsalatas@users.sourceforge.net
  */
 public class MutableArc implements Arc {
 
-  private double weight;
-  private int iLabel;
-  private int oLabel;
-  private MutableState nextState;
+  private final MutableState state;
+  // not final so sorting can reuse a view for every comparison
+  int index;
 
-  /**
-   * Arc Constructor
-   *
-   * @param iLabel    the input label's id
-   * @param oLabel    the output label's id
-   * @param weight    the arc's weight
-   * @param nextState the arc's next state
-   */
-  public MutableArc(int iLabel, int oLabel, double weight, MutableState nextState) {
-    this.weight = weight;
-    this.iLabel = iLabel;
-    this.oLabel = oLabel;
-    this.nextState = nextState;
+  MutableArc(MutableState state, int index) {
+    this.state = state;
+    this.index = index;
   }
 
   /**
@@ -51,14 +44,14 @@ public class MutableArc implements Arc {
    */
   @Override
   public double getWeight() {
-    return weight;
+    return state.getWeight(index);
   }
 
   /**
    * Set the arc's weight
    */
   public void setWeight(double weight) {
-    this.weight = weight;
+    state.setWeight(index, weight);
   }
 
   /**
@@ -66,7 +59,7 @@ public class MutableArc implements Arc {
    */
   @Override
   public int getIlabel() {
-    return iLabel;
+    return state.getIlabel(index);
   }
 
   /**
@@ -75,7 +68,7 @@ public class MutableArc implements Arc {
    * @param iLabel the input label's id to set
    */
   public void setIlabel(int iLabel) {
-    this.iLabel = iLabel;
+    state.setIlabel(index, iLabel);
   }
 
   /**
@@ -83,7 +76,7 @@ public class MutableArc implements Arc {
    */
   @Override
   public int getOlabel() {
-    return oLabel;
+    return state.getOlabel(index);
   }
 
   /**
@@ -92,7 +85,7 @@ public class MutableArc implements Arc {
    * @param oLabel the output label's id to set
    */
   public void setOlabel(int oLabel) {
-    this.oLabel = oLabel;
+    state.setOlabel(index, oLabel);
   }
 
   /**
@@ -100,7 +93,7 @@ public class MutableArc implements Arc {
    */
   @Override
   public MutableState getNextState() {
-    return nextState;
+    return state.getNextState(index);
   }
 
   /**
@@ -109,7 +102,7 @@ public class MutableArc implements Arc {
    * @param nextState the next state to set
    */
   public void setNextState(MutableState nextState) {
-    this.nextState = nextState;
+    state.setNextState(index, nextState);
   }
 
   @Override
@@ -121,17 +114,18 @@ public class MutableArc implements Arc {
   public int hashCode() {
     int result;
     long temp;
-    temp = Double.doubleToLongBits(weight);
+    temp = Double.doubleToLongBits(getWeight());
     result = (int) (temp ^ (temp >>> 32));
-    result = 31 * result + iLabel;
-    result = 31 * result + oLabel;
+    result = 31 * result + getIlabel();
+    result = 31 * result + getOlabel();
+    MutableState nextState = getNextState();
     result = 31 * result + (nextState != null ? nextState.getId() : 0);
     return result;
   }
 
   @Override
   public String toString() {
-    return "(" + iLabel + ", " + oLabel + ", " + weight + ", " + nextState
+    return "(" + getIlabel() + ", " + getOlabel() + ", " + getWeight() + ", " + getNextState()
            + ")";
   }
 }
@@ -16,6 +16,7 @@
 
 package io.github.atris.thunderbolt;
 
+import com.carrotsearch.hppc.BitSet;
 import io.github.atris.thunderbolt.semiring.TropicalSemiring;
 import io.github.atris.thunderbolt.semiring.Semiring;
 import io.github.atris.thunderbolt.utils.FstUtils;
@@ -27,7 +28,6 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
@@ -53,11 +53,13 @@ public class MutableFst implements Fst {
   /**
    * Make a deep copy of the given FST. The symbol tables are "effectively deep copied" meaning that they will
    * take advantage of any immutable tables (using the UnionSymbolTable) to avoid doing a large deep copy.
+   * The copy of a MutableFst that doesn't track incoming states doesn't track them either.
    * @param fst
    * @return
    */
   public static MutableFst copyFrom(Fst fst) {
     MutableFst copy = emptyWithCopyOfSymbols(fst);
+    copy.trackIncomingStates = tracksIncomingStates(fst);
     // build up states
     for (int i = 0; i < fst.getStateCount(); i++) {
       State source = fst.getState(i);
@@ -72,8 +74,10 @@ public class MutableFst implements Fst {
       for (int j = 0; j < source.getArcCount(); j++) {
         Arc sarc = source.getArc(j);
         MutableState nextTargetState = copy.getState(sarc.getNextState().getId());
-        MutableArc tarc = new MutableArc(sarc.getIlabel(), sarc.getOlabel(), sarc.getWeight(), nextTargetState);
-        target.addArc(tarc);
+        target.addArc(sarc.getIlabel(), sarc.getOlabel(), sarc.getWeight(), nextTargetState);
+        if (copy.trackIncomingStates) {
+          nextTargetState.addIncomingState(target);
+        }
       }
     }
     MutableState newStart = copy.getState(fst.getStartState().getId());
@@ -98,6 +102,7 @@ public class MutableFst implements Fst {
     SymbolTable.InvertedSymbolTable origInput = fst.getInputSymbols().invert();
     SymbolTable.InvertedSymbolTable origOutput = fst.getOutputSymbols().invert();
     MutableFst copy = new MutableFst(fst.getSemiring(), newInputSymbols, newOutputSymbols);
+    copy.trackIncomingStates = tracksIncomingStates(fst);
     if (fst.isUsingStateSymbols()) {
       copy.useStateSymbols(new MutableSymbolTable(fst.getStateSymbols()));
     }
@@ -117,12 +122,14 @@ public class MutableFst implements Fst {
         MutableState nextTargetState = copy.getState(sarc.getNextState().getId());
         String origInputSymbol = origInput.keyForId(sarc.getIlabel());
         String origOutputSymbol = origOutput.keyForId(sarc.getOlabel());
-        MutableArc tarc = new MutableArc(newInputSymbols.getOrAdd(origInputSymbol),
+        target.addArc(newInputSymbols.getOrAdd(origInputSymbol),
             newOutputSymbols.getOrAdd(origOutputSymbol),
             sarc.getWeight(),
             nextTargetState
         );
-        target.addArc(tarc);
+        if (copy.trackIncomingStates) {
+          nextTargetState.addIncomingState(target);
+        }
       }
     }
     MutableState newStart = copy.getState(fst.getStartState().getId());
@@ -130,12 +137,20 @@ public class MutableFst implements Fst {
     return copy;
   }
 
+  private static boolean tracksIncomingStates(Fst fst) {
+    return !(fst instanceof MutableFst) || ((MutableFst) fst).trackIncomingStates;
+  }
+
+  // the id of a state that is being deleted, which is also the id of a state that isn't in any fst
+  private static final int DELETED = -1;
+
   private final Semiring semiring;
   private final ArrayList<MutableState> states;
   private MutableState start;
   private WriteableSymbolTable inputSymbols;
   private WriteableSymbolTable outputSymbols;
   private MutableSymbolTable stateSymbols;
+  private boolean trackIncomingStates = true;
 
   public MutableFst() {
     this(makeDefaultRing(), new MutableSymbolTable(), new MutableSymbolTable());
@@ -224,6 +239,46 @@ public class MutableFst implements Fst {
     this.stateSymbols = null;
   }
 
+  /**
+   * Indicates that this FST will not keep track of the incoming states of each state. Building (adding arcs) is then
+   * cheaper, as no state allocates a set of incoming states and no arc inserts into one; operations that need the
+   * incoming arcs compute them on demand instead. Any incoming states already tracked are dropped.
+   */
+  public void stopTrackingIncomingStates() {
+    this.trackIncomingStates = false;
+    for (MutableState state : states) {
+      if (state != null) {
+        state.clearIncomingStates();
+      }
+    }
+  }
+
+  /**
+   * Indicates that this FST will keep track of the incoming states of each state (the default); if it wasn't, the
+   * incoming states are rebuilt from the arcs
+   */
+  public void trackIncomingStates() {
+    if (trackIncomingStates) {
+      return;
+    }
+    this.trackIncomingStates = true;
+    for (MutableState state : states) {
+      if (state == null) {
+        continue;
+      }
+      for (int i = 0; i < state.getArcCount(); i++) {
+        state.getNextState(i).addIncomingState(state);
+      }
+    }
+  }
+
+  /**
+   * @return true if the states of this FST keep their incoming states; see `stopTrackingIncomingStates`
+   */
+  public boolean isTrackingIncomingStates() {
+    return trackIncomingStates;
+  }
+
   /**
    * Get the initial states
    */
@@ -393,13 +448,11 @@ public class MutableFst implements Fst {
   public MutableArc addArc(MutableState startState, int inSymbolId, int outSymbolId, MutableState endState, double weight) {
     checkArgument(this.states.get(startState.getId()) == startState, "cant pass state that doesnt exist in fst");
     checkArgument(this.states.get(endState.getId()) == endState, "cant pass end state that doesnt exist in fst");
-    MutableArc newArc = new MutableArc(inSymbolId,
-                                        outSymbolId,
-                                        weight,
-                                        endState);
-    startState.addArc(newArc);
-    endState.addIncomingState(startState);
-    return newArc;
+    int index = startState.addArc(inSymbolId, outSymbolId, weight, endState);
+    if (trackIncomingStates) {
+      endState.addIncomingState(startState);
+    }
+    return new MutableArc(startState, index);
   }
 
   @Override
@@ -488,71 +541,68 @@ public class MutableFst implements Fst {
   }
 
   /**
-   * Deletes the given states and remaps the existing state ids
+   * Deletes the given states and remaps the existing state ids. The states are only marked as deleted first, then a
+   * single sweep drops the arcs to them, compacts the states and remaps the state ids (and state symbols), so this is
+   * O(V + E) no matter how many states are deleted
    */
   public void deleteStates(Collection<MutableState> statesToDelete) {
     if (statesToDelete.isEmpty()) {
       return;
     }
     for (MutableState state : statesToDelete) {
-      deleteState(state);
+      if (state.getId() == this.start.getId()) {
+        throw new IllegalArgumentException("Cannot delete start state.");
+      }
+      checkArgument(state.getId() >= 0 && state.getId() < states.size() && states.get(state.getId()) == state,
+                    "cant delete state that doesnt exist in fst");
+    }
+    for (MutableState state : statesToDelete) {
+      state.id = DELETED;
     }
-    remapStateIds();
+    sweepDeletedStates();
   }
 
   /**
-   * Deletes a state;
-   *
-   * @param state the state to delete
+   * Deletes every state that isn't in the given set and remaps the existing state ids, in the same single sweep as
+   * `deleteStates`
+   * @param statesToKeep the ids of the states to keep; must contain the start state
    */
-  private void deleteState(MutableState state) {
-    if (state.getId() == this.start.getId()) {
-      throw new IllegalArgumentException("Cannot delete start state.");
-    }
-    // we're going to "compact" all of the nulls out and remap state ids at the end
-    this.states.set(state.getId(), null);
-    if (isUsingStateSymbols()) {
-      stateSymbols.remove(state.getId());
-    }
-
-    // this state won't be incoming to any of its arc's targets anymore
-    for (MutableArc mutableArc : state.getArcs()) {
-      mutableArc.getNextState().removeIncomingState(state);
-    }
-
-    // delete arc's with nextstate equal to stateid
-    for (MutableState inState : state.getIncomingStates()) {
-      Iterator<MutableArc> iter = inState.getArcs().iterator();
-      while (iter.hasNext()) {
-        MutableArc arc = iter.next();
-        if (arc.getNextState() == state) {
-          iter.remove();
-        }
+  public void retainStates(BitSet statesToKeep) {
+    checkArgument(statesToKeep.get(start.getId()), "Cannot delete start state.");
+    int numStates = states.size();
+    boolean deletedAny = false;
+    for (int i = 0; i < numStates; i++) {
+      if (!statesToKeep.get(i)) {
+        states.get(i).id = DELETED;
+        deletedAny = true;
       }
     }
+    if (deletedAny) {
+      sweepDeletedStates();
+    }
   }
 
-  private void remapStateIds() {
-    // clear all of the nulls out
-
-    compactNulls(states);
+  // drops the states marked as DELETED (and every arc to them), then compacts the remaining states and gives them
+  // their new ids
+  private void sweepDeletedStates() {
     int numStates = states.size();
-    ArrayList<IndexPair> toRemap = null;
-    if (isUsingStateSymbols()) {
-      toRemap = Lists.newArrayList();
-    }
+    int[] newIds = new int[numStates];
+    int nextId = 0;
     for (int i = 0; i < numStates; i++) {
-      MutableState mutableState = states.get(i);
-      if (mutableState.id != i) {
-        if (isUsingStateSymbols()) {
-          toRemap.add(new IndexPair(mutableState.getId(), i));
-        }
-        mutableState.id = i;
+      MutableState state = states.get(i);
+      if (state.id == DELETED) {
+        states.set(i, null);
+        newIds[i] = DELETED;
+        continue;
       }
+      state.dropDeletedStates();
+      state.id = nextId;
+      newIds[i] = nextId;
+      nextId += 1;
     }
+    compactNulls(states);
     if (isUsingStateSymbols()) {
-      stateSymbols.remapAll(toRemap);
-      stateSymbols.trimIds();
+      stateSymbols.renumber(newIds);
     }
   }
 
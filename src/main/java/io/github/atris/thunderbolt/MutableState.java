@@ -16,36 +16,52 @@
 
 package io.github.atris.thunderbolt;
 
+import com.carrotsearch.hppc.sorting.IndirectComparator;
+import com.carrotsearch.hppc.sorting.IndirectSort;
 import io.github.atris.thunderbolt.utils.FstUtils;
-import com.google.common.collect.Lists;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
 /**
  * The fst's mutable state implementation.
  *
- * Holds its outgoing {@link MutableArc} objects in an ArrayList allowing additions/deletions
+ * Holds its outgoing arcs in growable parallel primitive arrays (input label, output label, weight and next state)
+ * allowing additions/deletions without an object per arc. The {@link MutableArc} instances handed out by `getArc`
+ * and `getArcs` are lightweight views of one position in those arrays; use the index based accessors
+ * (`getIlabel(int)`, `setOlabel(int, int)`, ...) in hot loops to avoid creating the views at all.
  *
  * @author John Salatas jsalatas@users.sourceforge.net
  */
 public class MutableState implements State {
 
+  private static final int[] NO_LABELS = new int[0];
+  private static final double[] NO_WEIGHTS = new double[0];
+  private static final MutableState[] NO_STATES = new MutableState[0];
+
   // State's Id
   protected int id = -1;
 
   // Final weight
   private double finalWeight = Double.NaN;
 
-  // Outgoing arcs
-  private final ArrayList<MutableArc> arcs;
+  // Outgoing arcs; the first arcCount positions of each array are used
+  private int[] ilabels;
+  private int[] olabels;
+  private double[] weights;
+  private MutableState[] nextStates;
+  private int arcCount = 0;
 
-  // Incoming arcs (at least states with arcs that are incoming to us)
-  private final Set<MutableState> incomingStates = Sets.newIdentityHashSet();
+  // Incoming arcs (at least states with arcs that are incoming to us); only maintained while the fst tracks incoming
+  // states, and allocated on the first incoming arc
+  private Set<MutableState> incomingStates = null;
 
   // initial number of arcs; this is only used during deserialization and should be ignored otherwise
   protected int initialNumArcs = -1;
@@ -54,31 +70,115 @@ public class MutableState implements State {
    * Default Constructor
    */
   public MutableState() {
-    arcs = Lists.newArrayList();
+    this(0);
+    this.initialNumArcs = -1;
   }
 
   /**
    * Constructor specifying the state's final weight
    */
   public MutableState(double finalWeight) {
+    this();
     this.finalWeight = finalWeight;
-    this.arcs = Lists.newArrayList();
   }
 
   /**
-   * Constructor specifying the initial capacity of the arc's ArrayList (this is an optimization used in various
+   * Constructor specifying the initial capacity of the arc arrays (this is an optimization used in various
    * operations)
    */
   public MutableState(int initialNumArcs) {
     this.initialNumArcs = initialNumArcs;
-    arcs = Lists.newArrayListWithCapacity(initialNumArcs);
+    if (initialNumArcs > 0) {
+      ilabels = new int[initialNumArcs];
+      olabels = new int[initialNumArcs];
+      weights = new double[initialNumArcs];
+      nextStates = new MutableState[initialNumArcs];
+    } else {
+      ilabels = NO_LABELS;
+      olabels = NO_LABELS;
+      weights = NO_WEIGHTS;
+      nextStates = NO_STATES;
+    }
   }
 
+  // states with at most this many arcs are sorted in place by insertion sort
+  private static final int INSERTION_SORT_THRESHOLD = 32;
+
   /**
-   * Shorts the arc's ArrayList based on the provided Comparator
+   * Sorts the arcs based on the provided Comparator; the sort is stable, and the comparator is handed two reused arc
+   * views so no arc objects are created
    */
   public void arcSort(Comparator<Arc> cmp) {
-    Collections.sort(arcs, cmp);
+    if (arcCount < 2) {
+      return;
+    }
+    MutableArc left = new MutableArc(this, 0);
+    MutableArc right = new MutableArc(this, 0);
+    if (arcCount <= INSERTION_SORT_THRESHOLD) {
+      for (int i = 1; i < arcCount; i++) {
+        for (int j = i; j > 0; j--) {
+          left.index = j - 1;
+          right.index = j;
+          if (cmp.compare(left, right) <= 0) {
+            break;
+          }
+          swapArcs(j - 1, j);
+        }
+      }
+      return;
+    }
+    int[] order = IndirectSort.mergesort(0, arcCount, new ArcComparator(cmp, left, right));
+    int[] sortedIlabels = new int[ilabels.length];
+    int[] sortedOlabels = new int[olabels.length];
+    double[] sortedWeights = new double[weights.length];
+    MutableState[] sortedNextStates = new MutableState[nextStates.length];
+    for (int i = 0; i < arcCount; i++) {
+      int from = order[i];
+      sortedIlabels[i] = ilabels[from];
+      sortedOlabels[i] = olabels[from];
+      sortedWeights[i] = weights[from];
+      sortedNextStates[i] = nextStates[from];
+    }
+    ilabels = sortedIlabels;
+    olabels = sortedOlabels;
+    weights = sortedWeights;
+    nextStates = sortedNextStates;
+  }
+
+  private void swapArcs(int a, int b) {
+    int label = ilabels[a];
+    ilabels[a] = ilabels[b];
+    ilabels[b] = label;
+    label = olabels[a];
+    olabels[a] = olabels[b];
+    olabels[b] = label;
+    double weight = weights[a];
+    weights[a] = weights[b];
+    weights[b] = weight;
+    MutableState nextState = nextStates[a];
+    nextStates[a] = nextStates[b];
+    nextStates[b] = nextState;
+  }
+
+  // compares arcs by index through two reused views
+  private static final class ArcComparator implements IndirectComparator {
+
+    private final Comparator<Arc> cmp;
+    private final MutableArc left;
+    private final MutableArc right;
+
+    ArcComparator(Comparator<Arc> cmp, MutableArc left, MutableArc right) {
+      this.cmp = cmp;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public int compare(int a, int b) {
+      left.index = a;
+      right.index = b;
+      return cmp.compare(left, right);
+    }
   }
 
   /**
@@ -115,24 +215,82 @@ public class MutableState implements State {
    */
   @Override
   public int getArcCount() {
-    return this.arcs.size();
+    return this.arcCount;
   }
 
   /**
-   * Get an arc based on it's index the arcs ArrayList
+   * Get a view of the arc at the given index; the view stays attached to that index, so it refers to another arc
+   * after the arcs of this state are sorted or deleted
    *
    * @param index the arc's index
    * @return the arc
    */
   @Override
   public MutableArc getArc(int index) {
-    return this.arcs.get(index);
+    Preconditions.checkElementIndex(index, arcCount);
+    return new MutableArc(this, index);
   }
 
-
+  /**
+   * Get a view of all of the arcs; views of the arcs are created as they are read
+   */
   @Override
   public List<MutableArc> getArcs() {
-    return this.arcs;
+    return new AbstractList<MutableArc>() {
+      @Override
+      public MutableArc get(int index) {
+        return getArc(index);
+      }
+
+      @Override
+      public int size() {
+        return arcCount;
+      }
+    };
+  }
+
+  public int getIlabel(int index) {
+    Preconditions.checkElementIndex(index, arcCount);
+    return ilabels[index];
+  }
+
+  public void setIlabel(int index, int ilabel) {
+    Preconditions.checkElementIndex(index, arcCount);
+    ilabels[index] = ilabel;
+  }
+
+  public int getOlabel(int index) {
+    Preconditions.checkElementIndex(index, arcCount);
+    return olabels[index];
+  }
+
+  public void setOlabel(int index, int olabel) {
+    Preconditions.checkElementIndex(index, arcCount);
+    olabels[index] = olabel;
+  }
+
+  public double getWeight(int index) {
+    Preconditions.checkElementIndex(index, arcCount);
+    return weights[index];
+  }
+
+  public void setWeight(int index, double weight) {
+    Preconditions.checkElementIndex(index, arcCount);
+    weights[index] = weight;
+  }
+
+  public MutableState getNextState(int index) {
+    Preconditions.checkElementIndex(index, arcCount);
+    return nextStates[index];
+  }
+
+  /**
+   * Changes the next state of an arc; like any change made directly to a state (and not through the fst) this does
+   * not update the incoming states
+   */
+  public void setNextState(int index, MutableState nextState) {
+    Preconditions.checkElementIndex(index, arcCount);
+    nextStates[index] = nextState;
   }
 
   @Override
@@ -142,21 +300,79 @@ public class MutableState implements State {
 
   /* friend methods to let the fst maintain state's state */
 
-  // adds an arc but should only be used by MutableFst
-  void addArc(MutableArc arc) {
-      this.arcs.add(arc);
+  // adds an arc but should only be used by MutableFst; returns the index of the new arc
+  int addArc(int ilabel, int olabel, double weight, MutableState nextState) {
+    if (arcCount == ilabels.length) {
+      int capacity = Math.max(4, arcCount + (arcCount >> 1));
+      ilabels = Arrays.copyOf(ilabels, capacity);
+      olabels = Arrays.copyOf(olabels, capacity);
+      weights = Arrays.copyOf(weights, capacity);
+      // Arrays.copyOf on a MutableState[] goes through reflection to create the new array, so copy by hand
+      MutableState[] grown = new MutableState[capacity];
+      System.arraycopy(nextStates, 0, grown, 0, arcCount);
+      nextStates = grown;
     }
+    ilabels[arcCount] = ilabel;
+    olabels[arcCount] = olabel;
+    weights[arcCount] = weight;
+    nextStates[arcCount] = nextState;
+    return arcCount++;
+  }
 
   void addIncomingState(MutableState inState) {
     if (inState == this) return;
+    if (this.incomingStates == null) {
+      this.incomingStates = Sets.newIdentityHashSet();
+    }
     this.incomingStates.add(inState);
   }
 
   void removeIncomingState(MutableState inState) {
-    this.incomingStates.remove(inState);
+    if (this.incomingStates != null) {
+      this.incomingStates.remove(inState);
+    }
+  }
+
+  void clearIncomingStates() {
+    this.incomingStates = null;
+  }
+
+  // drops the arcs to (and the incoming states from) the states that the fst is deleting, whose ids are -1; this
+  // runs in the fst's sweep of all of the states, so the ids of the other states may be old or new
+  void dropDeletedStates() {
+    int nextGood = 0;
+    for (int i = 0; i < arcCount; i++) {
+      if (nextStates[i].getId() >= 0) {
+        if (i != nextGood) {
+          ilabels[nextGood] = ilabels[i];
+          olabels[nextGood] = olabels[i];
+          weights[nextGood] = weights[i];
+          nextStates[nextGood] = nextStates[i];
+        }
+        nextGood += 1;
+      }
+    }
+    Arrays.fill(nextStates, nextGood, arcCount, null);
+    arcCount = nextGood;
+    if (incomingStates == null) {
+      return;
+    }
+    Iterator<MutableState> iter = incomingStates.iterator();
+    while (iter.hasNext()) {
+      if (iter.next().getId() < 0) {
+        iter.remove();
+      }
+    }
   }
 
+  /**
+   * Get the states with arcs to this state; always empty if the fst isn't tracking incoming states
+   * @see MutableFst#isTrackingIncomingStates()
+   */
   public Iterable<MutableState> getIncomingStates() {
+    if (this.incomingStates == null) {
+      return Collections.emptySet();
+    }
     return this.incomingStates;
   }
 
@@ -171,7 +387,7 @@ public class MutableState implements State {
     int result = id;
     long temp = finalWeight != +0.0 ? Double.doubleToLongBits(finalWeight) : 0;
     result = 31 * result * ((int) (temp ^ (temp >>> 32)));
-    result = 31 * result + (arcs != null ? arcs.hashCode() : 0);
+    result = 31 * result + getArcs().hashCode();
     return result;
   }
 }
@@ -128,6 +128,35 @@ public class MutableSymbolTable extends AbstractSymbolTable implements Writeable
     }
   }
 
+  /**
+   * Renumbers every id in one pass: the symbol of id i moves to newIds[i], and is removed if that is negative or i is
+   * past the end of newIds. The next id is one past the largest remaining id afterwards
+   * @param newIds the new id of each old id
+   */
+  void renumber(int[] newIds) {
+    String[] symbols = new String[idToSymbol.size()];
+    int[] ids = new int[idToSymbol.size()];
+    int count = 0;
+    for (IntObjectCursor<String> cursor : idToSymbol) {
+      ids[count] = cursor.key;
+      symbols[count] = cursor.value;
+      count += 1;
+    }
+    idToSymbol.clear();
+    symbolToId.clear();
+    int max = -1;
+    for (int i = 0; i < count; i++) {
+      int newId = ids[i] < newIds.length ? newIds[ids[i]] : -1;
+      if (newId < 0) {
+        continue;
+      }
+      idToSymbol.put(newId, symbols[i]);
+      symbolToId.put(symbols[i], newId);
+      max = Math.max(max, newId);
+    }
+    nextId = max + 1;
+  }
+
   @Override
   public int getOrAdd(String symbol) {
     int thisId = nextId;
@@ -27,25 +27,29 @@ import io.github.atris.thunderbolt.Arc;
 import io.github.atris.thunderbolt.Fst;
 import io.github.atris.thunderbolt.MutableState;
 import io.github.atris.thunderbolt.SymbolTable;
+import io.github.atris.thunderbolt.WriteableSymbolTable;
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
-import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
 import com.google.common.io.CharSource;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
 import org.apache.commons.lang3.StringUtils;
 
+import javax.annotation.Nullable;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.HashMap;
+import java.util.concurrent.Executor;
 
-import static com.google.common.io.Resources.asCharSource;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
 /**
@@ -66,7 +70,9 @@ public class Convert {
 
   // if true, then expect the tokens in the text format to be integer symbol ids and not the symbols themselves
   private static boolean useSymbolIdsInText = false;
-  private static String regexToSplitOn = "\\t";
+  private static final String TAB_REGEX = "\\t";
+
+  private static String regexToSplitOn = TAB_REGEX;
   private static boolean omitZeroStates = true;
 
   /**
@@ -154,56 +160,46 @@ public class Convert {
    * @param filename the openfst's fst.txt filename
    */
   private static void exportFst(Fst fst, String filename) {
-    FileWriter file;
-    try {
-      file = new FileWriter(filename);
-      PrintWriter out = new PrintWriter(file);
-
-      // print start first
-      State start = fst.getStartState();
-      out.println(start.getId() + "\t" + start.getFinalWeight());
-
-      // print all states
-      int numStates = fst.getStateCount();
-      for (int i = 0; i < numStates; i++) {
-        State s = fst.getState(i);
-        if (s.getId() == fst.getStartState().getId()) {
-          continue;
-        }
-        if (fst.getSemiring().isNotZero(s.getFinalWeight()) || !omitZeroStates) {
-          out.println(s.getId() + "\t" + s.getFinalWeight());
-        }
-      }
-
-      MutableSymbolTable.InvertedSymbolTable inputIds = fst.getInputSymbols().invert();
-      MutableSymbolTable.InvertedSymbolTable outputIds = fst.getOutputSymbols().invert();
-      numStates = fst.getStateCount();
-      for (int i = 0; i < numStates; i++) {
-        State s = fst.getState(i);
-        int numArcs = s.getArcCount();
-        for (int j = 0; j < numArcs; j++) {
-          Arc arc = s.getArc(j);
-          String isym;
-          String osym;
-          if (useSymbolIdsInText) {
-            isym = Integer.toString(arc.getIlabel());
-            osym = Integer.toString(arc.getOlabel());
-          } else {
-            isym = inputIds.keyForId(arc.getIlabel());
-            osym = outputIds.keyForId(arc.getOlabel());
-          }
-
-          out.println(s.getId() + "\t" + arc.getNextState().getId()
-            + "\t" + isym + "\t" + osym + "\t"
-            + arc.getWeight());
-        }
-      }
-
-      out.close();
+    try (OutputStream out = new FileOutputStream(filename)) {
+      exportFst(fst, out, null);
     } catch (IOException e) {
       throw Throwables.propagate(e);
     }
+  }
 
+  /**
+   * Writes the fst.txt part of the openfst text format (no symbol files) to the given stream
+   *
+   * @param fst the fst to export
+   * @param out the stream to write to; it is not closed, so it can be a pipe or a compressing stream
+   */
+  public static void exportFst(Fst fst, OutputStream out) throws IOException {
+    exportFst(fst, out, null);
+  }
+
+  /**
+   * Writes the fst.txt part of the openfst text format (no symbol files) to the given channel
+   *
+   * @param fst     the fst to export
+   * @param channel the channel to write to; it is not closed
+   */
+  public static void exportFst(Fst fst, WritableByteChannel channel) throws IOException {
+    exportFst(fst, Channels.newOutputStream(channel), null);
+  }
+
+  /**
+   * Writes the fst.txt part of the openfst text format (no symbol files) to the given stream, formatting blocks of
+   * states on the given executor while the calling thread writes them out in order. The fst is read from several
+   * threads at once, and no thread may modify it during the export, so only a MutableFst, an ImmutableFst or a compact
+   * fst is exported in parallel; any other fst (e.g. a lazy ComposeFst or DeterminizeFst, whose state cache changes
+   * on every read) is exported on the calling thread.
+   *
+   * @param fst      the fst to export
+   * @param out      the stream to write to; it is not closed
+   * @param executor formats the arcs; if null everything runs on the calling thread
+   */
+  public static void exportFst(Fst fst, OutputStream out, @Nullable Executor executor) throws IOException {
+    new TextExport(fst, useSymbolIdsInText, omitZeroStates).write(out, executor);
   }
 
   /**
@@ -217,15 +213,20 @@ public class Convert {
       return;
     }
 
-    try (PrintWriter out = new PrintWriter(new FileWriter(filename))) {
-      for (ObjectIntCursor<String> sym : syms) {
-        out.println(sym.key + "\t" + sym.value);
-      }
+    try (OutputStream out = new FileOutputStream(filename)) {
+      exportSymbols(syms, out);
     } catch (IOException e) {
       throw Throwables.propagate(e);
     }
   }
 
+  /**
+   * Writes a symbols' map in the openfst text format to the given stream, which is not closed
+   */
+  public static void exportSymbols(SymbolTable syms, OutputStream out) throws IOException {
+    TextExport.writeSymbols(syms, out);
+  }
+
   /**
    * Imports an openfst's symbols file
    *
@@ -240,33 +241,18 @@ public class Convert {
     } catch (IllegalArgumentException e) {
       return Optional.absent();
     }
-    return importSymbolsFrom(asCharSource(resource, Charsets.UTF_8));
+    return importSymbolsFrom(Resources.asByteSource(resource), null);
   }
 
-  private static Optional<MutableSymbolTable> importSymbols(File maybeFile) {
+  private static Optional<MutableSymbolTable> importSymbols(File maybeFile, @Nullable Executor executor) {
     if (maybeFile.exists()) {
-      return importSymbolsFrom(Files.asCharSource(maybeFile, Charsets.UTF_8));
+      return importSymbolsFrom(Files.asByteSource(maybeFile), executor);
     }
     return Optional.absent();
   }
 
-  private static Optional<MutableSymbolTable> importSymbolsFrom(CharSource cs) {
-    try {
-      ImmutableList<String> lines = cs.readLines();
-      MutableSymbolTable newTable = new MutableSymbolTable();
-      for (String line : lines) {
-        if (isBlank(line)) {
-          continue;
-        }
-        String[] tokens = line.split("\\s+");
-        String sym = tokens[0];
-        Integer index = Integer.parseInt(tokens[1]);
-        newTable.put(sym, index);
-      }
-      return Optional.of(newTable);
-    } catch (IOException e1) {
-      throw Throwables.propagate(e1);
-    }
+  private static Optional<MutableSymbolTable> importSymbolsFrom(ByteSource source, @Nullable Executor executor) {
+    return Optional.of(new TextImport(source, executor, TextImport.DEFAULT_CHUNK_SIZE).importSymbols());
   }
 
   public static MutableFst importFst(String basename) {
@@ -286,17 +272,29 @@ public class Convert {
    * @param semiring  the fst's semiring
    */
   public static MutableFst importFst(File fileToFst, Semiring semiring) {
+    return importFst(fileToFst, semiring, null);
+  }
+
+  /**
+   * Imports an openfst text format like {@link #importFst(File, Semiring)}, parsing the files in large chunks on the
+   * given executor while the calling thread reads ahead and assembles the fst. The result is the same as that of a
+   * sequential import.
+   *
+   * @param fileToFst the path to the fst.txt file
+   * @param semiring  the fst's semiring
+   * @param executor  parses the chunks; if null everything runs on the calling thread
+   */
+  public static MutableFst importFst(File fileToFst, Semiring semiring, @Nullable Executor executor) {
     Preconditions.checkArgument(fileToFst.exists(), "File to the fst.txt openfst output doesnt exist", fileToFst);
     Preconditions.checkArgument(fileToFst.getName().endsWith(FST_TXT), "fst.txt path must end in .fst.txt", fileToFst);
     String basepath = fileToFst.getAbsolutePath();
     basepath = StringUtils.removeEnd(basepath, FST_TXT);
-    CharSource cs = Files.asCharSource(fileToFst, Charsets.UTF_8);
 
-    Optional<MutableSymbolTable> maybeInputs = importSymbols(new File(basepath + INPUT_SYMS));
-    Optional<MutableSymbolTable> maybeOutputs = importSymbols(new File(basepath + OUTPUT_SYMS));
-    Optional<MutableSymbolTable> maybeStates = importSymbols(new File(basepath + STATES_SYMS));
+    Optional<MutableSymbolTable> maybeInputs = importSymbols(new File(basepath + INPUT_SYMS), executor);
+    Optional<MutableSymbolTable> maybeOutputs = importSymbols(new File(basepath + OUTPUT_SYMS), executor);
+    Optional<MutableSymbolTable> maybeStates = importSymbols(new File(basepath + STATES_SYMS), executor);
 
-    return convertFrom(cs, maybeInputs, maybeOutputs, maybeStates, semiring);
+    return convertFrom(Files.asByteSource(fileToFst), maybeInputs, maybeOutputs, maybeStates, semiring, executor);
   }
 
   /**
@@ -319,14 +317,26 @@ public class Convert {
     Optional<MutableSymbolTable> maybeInputs = importSymbols(basename + INPUT_SYMS);
     Optional<MutableSymbolTable> maybeOutputs = importSymbols(basename + OUTPUT_SYMS);
     Optional<MutableSymbolTable> maybeStates = importSymbols(basename + STATES_SYMS);
-    CharSource cs = asCharSource(Resources.getResource(basename + FST_TXT), Charsets.UTF_8);
+    ByteSource source = Resources.asByteSource(Resources.getResource(basename + FST_TXT));
 
-    return convertFrom(cs, maybeInputs, maybeOutputs, maybeStates, semiring);
+    return convertFrom(source, maybeInputs, maybeOutputs, maybeStates, semiring, null);
   }
 
-  private static MutableFst convertFrom(CharSource fstSource, Optional<MutableSymbolTable> maybeInputs,
+  private static MutableFst convertFrom(ByteSource fstSource, Optional<MutableSymbolTable> maybeInputs,
                                         Optional<MutableSymbolTable> maybeOutputs,
-                                        Optional<MutableSymbolTable> maybeStates, Semiring semiring) {
+                                        Optional<MutableSymbolTable> maybeStates, Semiring semiring,
+                                        @Nullable Executor executor) {
+    MutableFst fst = newFst(maybeInputs, maybeOutputs, maybeStates, semiring);
+    if (!TAB_REGEX.equals(regexToSplitOn)) {
+      // a custom separator can only be honored by splitting each line with the regex
+      return convertLinesFrom(fstSource.asCharSource(Charsets.UTF_8), fst);
+    }
+    new TextImport(fstSource, executor, TextImport.DEFAULT_CHUNK_SIZE).importFst(fst, useSymbolIdsInText);
+    return fst;
+  }
+
+  private static MutableFst newFst(Optional<MutableSymbolTable> maybeInputs, Optional<MutableSymbolTable> maybeOutputs,
+                                   Optional<MutableSymbolTable> maybeStates, Semiring semiring) {
     MutableSymbolTable isyms;
     if (maybeInputs.isPresent()) {
       isyms = maybeInputs.get();
@@ -344,12 +354,17 @@ public class Convert {
     }
 
     MutableFst fst = new MutableFst(semiring, isyms, osyms);
-    MutableSymbolTable ssyms = null;
     if (maybeStates.isPresent()) {
-      ssyms = maybeStates.get();
-      fst.useStateSymbols(ssyms);
+      fst.useStateSymbols(maybeStates.get());
     }
+    return fst;
+  }
 
+  private static MutableFst convertLinesFrom(CharSource fstSource, MutableFst fst) {
+    Semiring semiring = fst.getSemiring();
+    WriteableSymbolTable isyms = fst.getInputSymbols();
+    WriteableSymbolTable osyms = fst.getOutputSymbols();
+    WriteableSymbolTable ssyms = fst.isUsingStateSymbols() ? fst.getStateSymbols() : null;
     try (BufferedReader br = fstSource.openBufferedStream()) {
       boolean firstLine = true;
       String line;
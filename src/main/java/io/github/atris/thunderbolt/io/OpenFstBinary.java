@@ -0,0 +1,461 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.io;
+
+import com.carrotsearch.hppc.cursors.ObjectIntCursor;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableBiMap;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.LittleEndianDataInputStream;
+import com.google.common.io.LittleEndianDataOutputStream;
+import io.github.atris.thunderbolt.Arc;
+import io.github.atris.thunderbolt.Fst;
+import io.github.atris.thunderbolt.ImmutableSymbolTable;
+import io.github.atris.thunderbolt.MutableFst;
+import io.github.atris.thunderbolt.MutableState;
+import io.github.atris.thunderbolt.MutableSymbolTable;
+import io.github.atris.thunderbolt.State;
+import io.github.atris.thunderbolt.SymbolTable;
+import io.github.atris.thunderbolt.semiring.LogSemiring;
+import io.github.atris.thunderbolt.semiring.Semiring;
+import io.github.atris.thunderbolt.semiring.TropicalSemiring;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes the binary formats of OpenFst (as written by fstcompile, fstconvert, etc.) for the `vector` and
+ * `const` fst types:
+ * <ul>
+ * <li>a header: magic number, fst type, arc type, version, flags, properties, start state, state and arc counts,
+ * followed by the input and output symbol tables if the flags say so</li>
+ * <li>vector: for each state its final weight, its arc count and its arcs (input label, output label, weight, next
+ * state)</li>
+ * <li>const: a fixed size record per state (final weight, first arc, arc count, epsilon counts) followed by a fixed
+ * size record per arc, optionally aligned; this layout is mapped straight into an {@link OpenFstConstFst}</li>
+ * </ul>
+ * Everything is little endian (OpenFst writes in native byte order). The supported arc types are the tropical and
+ * log arcs with float ("standard", "log") or double ("tropical64", "log64") weights. OpenFst has no state symbols, so
+ * state symbol tables are not written.
+ */
+public final class OpenFstBinary {
+
+  static final int FST_MAGIC = 2125659606;
+  static final int SYMBOL_TABLE_MAGIC = 2125658996;
+
+  static final int HAS_INPUT_SYMBOLS = 0x1;
+  static final int HAS_OUTPUT_SYMBOLS = 0x2;
+  static final int IS_ALIGNED = 0x4;
+
+  static final long EXPANDED = 0x1L;
+  static final long MUTABLE = 0x2L;
+
+  static final int VECTOR_VERSION = 2;
+  static final int CONST_VERSION = 2;
+  // const fsts of this version are always aligned, whatever their flags say
+  static final int CONST_ALIGNED_VERSION = 1;
+  static final int ALIGNMENT = 16;
+
+  private static final ImmutableBiMap<String, Semiring> FLOAT_ARC_TYPES = ImmutableBiMap.<String, Semiring>of(
+      "standard", TropicalSemiring.INSTANCE,
+      "log", LogSemiring.INSTANCE
+  );
+  private static final ImmutableBiMap<String, Semiring> DOUBLE_ARC_TYPES = ImmutableBiMap.<String, Semiring>of(
+      "tropical64", TropicalSemiring.INSTANCE,
+      "log64", LogSemiring.INSTANCE
+  );
+
+  private OpenFstBinary() {
+  }
+
+  /**
+   * Reads an OpenFst binary file: vector fsts are read into a MutableFst and const fsts are memory mapped
+   *
+   * @param file the fst file
+   */
+  public static Fst read(File file) {
+    Header header;
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+      header = Header.read(new LittleEndianDataInputStream(in));
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+    if ("const".equals(header.fstType)) {
+      return readConstFst(file);
+    }
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+      return readVectorFst(in);
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  /**
+   * Reads an OpenFst binary vector fst
+   *
+   * @param in the stream to read from; it is not closed
+   */
+  public static MutableFst readVectorFst(InputStream in) throws IOException {
+    DataInput data = new LittleEndianDataInputStream(in);
+    Header header = Header.read(data);
+    Preconditions.checkArgument("vector".equals(header.fstType), "Not a vector fst: %s", header.fstType);
+    Preconditions.checkArgument(header.version >= VECTOR_VERSION, "cant read version vector fst %s", header.version);
+    boolean doubleWeights = isDoubleArcType(header.arcType);
+    Semiring semiring = semiringOf(header.arcType);
+    MutableSymbolTable isyms = readSymbolsIfPresent(data, header.flags, HAS_INPUT_SYMBOLS);
+    MutableSymbolTable osyms = readSymbolsIfPresent(data, header.flags, HAS_OUTPUT_SYMBOLS);
+
+    MutableFst fst = new MutableFst(semiring, isyms, osyms);
+    // an unknown state count means reading states until the end of the stream
+    long numStates = header.numStates;
+    for (long s = 0; numStates < 0 || s < numStates; s++) {
+      double finalWeight;
+      try {
+        finalWeight = readWeight(data, doubleWeights);
+      } catch (EOFException e) {
+        if (numStates < 0) {
+          break;
+        }
+        throw e;
+      }
+      long numArcs = data.readLong();
+      Preconditions.checkArgument(numArcs >= 0 && numArcs <= Integer.MAX_VALUE, "bad arc count %s", numArcs);
+      MutableState state = stateOf(fst, s);
+      state.setFinalWeight(finalWeight);
+      for (int i = 0; i < numArcs; i++) {
+        int ilabel = data.readInt();
+        int olabel = data.readInt();
+        double weight = readWeight(data, doubleWeights);
+        int nextState = data.readInt();
+        fst.addArc(state, ilabel, olabel, stateOf(fst, nextState), weight);
+      }
+    }
+    if (header.start >= 0) {
+      fst.setStart(fst.getState((int) header.start));
+    }
+    fst.throwIfAnyNullStates();
+    return fst;
+  }
+
+  // arcs can point at states that haven't been read yet
+  private static MutableState stateOf(MutableFst fst, long id) {
+    Preconditions.checkArgument(id >= 0 && id < Integer.MAX_VALUE, "bad state id %s", id);
+    if (id < fst.getStateCount() && fst.getState((int) id) != null) {
+      return fst.getState((int) id);
+    }
+    return fst.setState((int) id, new MutableState(fst.getSemiring().zero()));
+  }
+
+  /**
+   * Maps an OpenFst binary const fst into a read-only Fst; only the header and the symbol tables are read eagerly
+   *
+   * @param file the const fst file
+   */
+  public static OpenFstConstFst readConstFst(File file) {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+         CountingInputStream cis = new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel)))) {
+      DataInput data = new LittleEndianDataInputStream(cis);
+      Header header = Header.read(data);
+      Preconditions.checkArgument("const".equals(header.fstType), "Not a const fst: %s", header.fstType);
+      Preconditions.checkArgument(header.version == CONST_VERSION || header.version == CONST_ALIGNED_VERSION,
+                                  "cant read version const fst %s", header.version);
+      boolean doubleWeights = isDoubleArcType(header.arcType);
+      Semiring semiring = semiringOf(header.arcType);
+      MutableSymbolTable isyms = readSymbolsIfPresent(data, header.flags, HAS_INPUT_SYMBOLS);
+      MutableSymbolTable osyms = readSymbolsIfPresent(data, header.flags, HAS_OUTPUT_SYMBOLS);
+      Preconditions.checkArgument(header.start >= 0, "cant map a const fst without a start state");
+      Preconditions.checkArgument(header.numStates >= 0 && header.numStates < Integer.MAX_VALUE,
+                                  "bad state count %s", header.numStates);
+      Preconditions.checkArgument(header.numArcs >= 0 && header.numArcs < Integer.MAX_VALUE,
+                                  "bad arc count %s", header.numArcs);
+
+      boolean aligned = header.version == CONST_ALIGNED_VERSION || (header.flags & IS_ALIGNED) != 0;
+      int stateSize = OpenFstConstFst.stateSize(doubleWeights);
+      int arcSize = OpenFstConstFst.arcSize(doubleWeights);
+      long position = aligned ? align(cis.getCount()) : cis.getCount();
+      ByteBuffer states = map(channel, position, header.numStates * stateSize);
+      position += header.numStates * stateSize;
+      if (aligned) {
+        position = align(position);
+      }
+      ByteBuffer arcs = map(channel, position, header.numArcs * arcSize);
+
+      return new OpenFstConstFst(semiring, (int) header.start, new ImmutableSymbolTable(isyms),
+                                 new ImmutableSymbolTable(osyms), (int) header.numStates, (int) header.numArcs,
+                                 states, arcs, doubleWeights);
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  public static void writeVectorFst(Fst fst, OutputStream out) throws IOException {
+    writeVectorFst(fst, out, false);
+  }
+
+  /**
+   * Writes the fst as an OpenFst binary vector fst
+   *
+   * @param fst the fst to write; its semiring has to be the tropical or the log semiring
+   * @param out the stream to write to; it is flushed but not closed
+   * @param doubleWeights whether to write a double weight arc type (e.g. "tropical64") instead of a float one
+   */
+  public static void writeVectorFst(Fst fst, OutputStream out, boolean doubleWeights) throws IOException {
+    BufferedOutputStream buffered = new BufferedOutputStream(out, 1 << 16);
+    DataOutput data = new LittleEndianDataOutputStream(buffered);
+    writeHeader(fst, data, "vector", VECTOR_VERSION, EXPANDED | MUTABLE, doubleWeights);
+    for (int s = 0; s < fst.getStateCount(); s++) {
+      State state = fst.getState(s);
+      writeWeight(data, state.getFinalWeight(), doubleWeights);
+      data.writeLong(state.getArcCount());
+      for (int i = 0; i < state.getArcCount(); i++) {
+        Arc arc = state.getArc(i);
+        data.writeInt(arc.getIlabel());
+        data.writeInt(arc.getOlabel());
+        writeWeight(data, arc.getWeight(), doubleWeights);
+        data.writeInt(arc.getNextState().getId());
+      }
+    }
+    buffered.flush();
+  }
+
+  public static void writeConstFst(Fst fst, OutputStream out) throws IOException {
+    writeConstFst(fst, out, false);
+  }
+
+  /**
+   * Writes the fst as an unaligned OpenFst binary const fst, which {@link #readConstFst(File)} maps without parsing
+   *
+   * @param fst the fst to write; its semiring has to be the tropical or the log semiring
+   * @param out the stream to write to; it is flushed but not closed
+   * @param doubleWeights whether to write a double weight arc type (e.g. "tropical64") instead of a float one
+   */
+  public static void writeConstFst(Fst fst, OutputStream out, boolean doubleWeights) throws IOException {
+    BufferedOutputStream buffered = new BufferedOutputStream(out, 1 << 16);
+    DataOutput data = new LittleEndianDataOutputStream(buffered);
+    writeHeader(fst, data, "const", CONST_VERSION, EXPANDED, doubleWeights);
+    int position = 0;
+    for (int s = 0; s < fst.getStateCount(); s++) {
+      State state = fst.getState(s);
+      int inputEpsilons = 0;
+      int outputEpsilons = 0;
+      for (int i = 0; i < state.getArcCount(); i++) {
+        Arc arc = state.getArc(i);
+        inputEpsilons += arc.getIlabel() == 0 ? 1 : 0;
+        outputEpsilons += arc.getOlabel() == 0 ? 1 : 0;
+      }
+      writeWeight(data, state.getFinalWeight(), doubleWeights);
+      data.writeInt(position);
+      data.writeInt(state.getArcCount());
+      data.writeInt(inputEpsilons);
+      data.writeInt(outputEpsilons);
+      position += state.getArcCount();
+    }
+    for (int s = 0; s < fst.getStateCount(); s++) {
+      State state = fst.getState(s);
+      for (int i = 0; i < state.getArcCount(); i++) {
+        Arc arc = state.getArc(i);
+        data.writeInt(arc.getIlabel());
+        data.writeInt(arc.getOlabel());
+        writeWeight(data, arc.getWeight(), doubleWeights);
+        data.writeInt(arc.getNextState().getId());
+        if (doubleWeights) {
+          // the arc struct is padded to the alignment of its double weight
+          data.writeInt(0);
+        }
+      }
+    }
+    buffered.flush();
+  }
+
+  private static void writeHeader(Fst fst, DataOutput data, String fstType, int version, long properties,
+                                  boolean doubleWeights) throws IOException {
+    String arcType = (doubleWeights ? DOUBLE_ARC_TYPES : FLOAT_ARC_TYPES).inverse().get(fst.getSemiring());
+    if (arcType == null) {
+      throw new IllegalArgumentException("No OpenFst arc type for semiring " + fst.getSemiring());
+    }
+    long numArcs = 0;
+    for (int s = 0; s < fst.getStateCount(); s++) {
+      numArcs += fst.getState(s).getArcCount();
+    }
+    Header header = new Header();
+    header.fstType = fstType;
+    header.arcType = arcType;
+    header.version = version;
+    header.flags = HAS_INPUT_SYMBOLS | HAS_OUTPUT_SYMBOLS;
+    header.properties = properties;
+    header.start = fst.getStartState() == null ? -1 : fst.getStartState().getId();
+    header.numStates = fst.getStateCount();
+    header.numArcs = numArcs;
+    header.write(data);
+    writeSymbols(data, fst.getInputSymbols());
+    writeSymbols(data, fst.getOutputSymbols());
+  }
+
+  private static boolean isDoubleArcType(String arcType) {
+    return DOUBLE_ARC_TYPES.containsKey(arcType);
+  }
+
+  private static Semiring semiringOf(String arcType) {
+    Semiring semiring = FLOAT_ARC_TYPES.containsKey(arcType) ? FLOAT_ARC_TYPES.get(arcType)
+                                                             : DOUBLE_ARC_TYPES.get(arcType);
+    if (semiring == null) {
+      throw new IllegalArgumentException("Unsupported OpenFst arc type " + arcType);
+    }
+    return semiring;
+  }
+
+  private static double readWeight(DataInput data, boolean doubleWeights) throws IOException {
+    return doubleWeights ? data.readDouble() : data.readFloat();
+  }
+
+  private static void writeWeight(DataOutput data, double weight, boolean doubleWeights) throws IOException {
+    if (doubleWeights) {
+      data.writeDouble(weight);
+    } else {
+      data.writeFloat((float) weight);
+    }
+  }
+
+  // without a symbol table there are only label ids; epsilon still gets its usual name
+  private static MutableSymbolTable readSymbolsIfPresent(DataInput data, int flags, int flag) throws IOException {
+    if ((flags & flag) != 0) {
+      return readSymbols(data);
+    }
+    MutableSymbolTable symbols = new MutableSymbolTable();
+    symbols.put(Fst.EPS, 0);
+    return symbols;
+  }
+
+  private static MutableSymbolTable readSymbols(DataInput data) throws IOException {
+    if (data.readInt() != SYMBOL_TABLE_MAGIC) {
+      throw new IllegalArgumentException("Not an OpenFst symbol table");
+    }
+    readString(data); // name
+    data.readLong(); // available key
+    long size = data.readLong();
+    MutableSymbolTable symbols = new MutableSymbolTable();
+    for (long i = 0; i < size; i++) {
+      String symbol = readString(data);
+      long key = data.readLong();
+      Preconditions.checkArgument(key >= 0 && key <= Integer.MAX_VALUE, "symbol id out of range %s", key);
+      symbols.put(symbol, (int) key);
+    }
+    return symbols;
+  }
+
+  private static void writeSymbols(DataOutput data, SymbolTable symbols) throws IOException {
+    long availableKey = 0;
+    for (ObjectIntCursor<String> cursor : symbols) {
+      availableKey = Math.max(availableKey, cursor.value + 1L);
+    }
+    data.writeInt(SYMBOL_TABLE_MAGIC);
+    writeString(data, "");
+    data.writeLong(availableKey);
+    data.writeLong(symbols.size());
+    for (ObjectIntCursor<String> cursor : symbols) {
+      writeString(data, cursor.key);
+      data.writeLong(cursor.value);
+    }
+  }
+
+  private static String readString(DataInput data) throws IOException {
+    int length = data.readInt();
+    Preconditions.checkArgument(length >= 0, "bad string length %s", length);
+    byte[] bytes = new byte[length];
+    data.readFully(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  private static void writeString(DataOutput data, String value) throws IOException {
+    byte[] bytes = value.getBytes(Charsets.UTF_8);
+    data.writeInt(bytes.length);
+    data.write(bytes);
+  }
+
+  private static long align(long position) {
+    long remainder = position % ALIGNMENT;
+    return remainder == 0 ? position : position + ALIGNMENT - remainder;
+  }
+
+  private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Const fst section is too large: " + size);
+    }
+    if (position + size > channel.size()) {
+      throw new IllegalArgumentException("Const fst file is truncated");
+    }
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * The header that starts every OpenFst binary fst
+   */
+  private static final class Header {
+
+    String fstType;
+    String arcType;
+    int version;
+    int flags;
+    long properties;
+    long start;
+    long numStates;
+    long numArcs;
+
+    static Header read(DataInput data) throws IOException {
+      if (data.readInt() != FST_MAGIC) {
+        throw new IllegalArgumentException("Not an OpenFst binary fst");
+      }
+      Header header = new Header();
+      header.fstType = readString(data);
+      header.arcType = readString(data);
+      header.version = data.readInt();
+      header.flags = data.readInt();
+      header.properties = data.readLong();
+      header.start = data.readLong();
+      header.numStates = data.readLong();
+      header.numArcs = data.readLong();
+      return header;
+    }
+
+    void write(DataOutput data) throws IOException {
+      data.writeInt(FST_MAGIC);
+      writeString(data, fstType);
+      writeString(data, arcType);
+      data.writeInt(version);
+      data.writeInt(flags);
+      data.writeLong(properties);
+      data.writeLong(start);
+      data.writeLong(numStates);
+      data.writeLong(numArcs);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.io;
+
+import io.github.atris.thunderbolt.AbstractCompactFst;
+import io.github.atris.thunderbolt.ImmutableSymbolTable;
+import io.github.atris.thunderbolt.semiring.Semiring;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only FST served directly from a memory mapped OpenFst binary const fst; see
+ * {@link OpenFstBinary#readConstFst}. The state and arc records are read in place, with the layout of OpenFst's
+ * `ConstState` and `Arc` structs:
+ * <ul>
+ * <li>state: final weight, first arc, arc count, input epsilon count, output epsilon count</li>
+ * <li>arc: input label, output label, weight, next state (padded to 24 bytes with double weights)</li>
+ * </ul>
+ *
+ * NOTE: this class is thread safe
+ */
+public class OpenFstConstFst extends AbstractCompactFst {
+
+  private final int numStates;
+  private final int numArcs;
+  private final ByteBuffer states;
+  private final ByteBuffer arcs;
+  private final boolean doubleWeights;
+  private final int stateSize;
+  private final int arcSize;
+  private final int weightSize;
+
+  OpenFstConstFst(Semiring semiring, int startId, ImmutableSymbolTable itable, ImmutableSymbolTable otable,
+                  int numStates, int numArcs, ByteBuffer states, ByteBuffer arcs, boolean doubleWeights) {
+    super(semiring, startId, itable, otable, null);
+    this.numStates = numStates;
+    this.numArcs = numArcs;
+    this.states = states;
+    this.arcs = arcs;
+    this.doubleWeights = doubleWeights;
+    this.stateSize = stateSize(doubleWeights);
+    this.arcSize = arcSize(doubleWeights);
+    this.weightSize = doubleWeights ? 8 : 4;
+  }
+
+  static int stateSize(boolean doubleWeights) {
+    return doubleWeights ? 24 : 20;
+  }
+
+  static int arcSize(boolean doubleWeights) {
+    return doubleWeights ? 24 : 16;
+  }
+
+  /**
+   * @return whether the file stores the weights with double precision (e.g. a "tropical64" arc type)
+   */
+  public boolean isUsingDoubleWeights() {
+    return doubleWeights;
+  }
+
+  @Override
+  public int getArcStart(int stateId) {
+    return states.getInt(stateId * stateSize + weightSize);
+  }
+
+  @Override
+  public int getArcEnd(int stateId) {
+    int offset = stateId * stateSize + weightSize;
+    return states.getInt(offset) + states.getInt(offset + 4);
+  }
+
+  @Override
+  public int getArcCount() {
+    return numArcs;
+  }
+
+  @Override
+  public int getIlabel(int arcIndex) {
+    return arcs.getInt(arcIndex * arcSize);
+  }
+
+  @Override
+  public int getOlabel(int arcIndex) {
+    return arcs.getInt(arcIndex * arcSize + 4);
+  }
+
+  @Override
+  public int getNextStateId(int arcIndex) {
+    return arcs.getInt(arcIndex * arcSize + 8 + weightSize);
+  }
+
+  @Override
+  public double getWeight(int arcIndex) {
+    int offset = arcIndex * arcSize + 8;
+    return doubleWeights ? arcs.getDouble(offset) : arcs.getFloat(offset);
+  }
+
+  @Override
+  public double getFinalWeight(int stateId) {
+    int offset = stateId * stateSize;
+    return doubleWeights ? states.getDouble(offset) : states.getFloat(offset);
+  }
+
+  @Override
+  public int getStateCount() {
+    return numStates;
+  }
+}
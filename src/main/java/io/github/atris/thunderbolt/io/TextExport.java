@@ -0,0 +1,340 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.io;
+
+import com.carrotsearch.hppc.cursors.ObjectIntCursor;
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import io.github.atris.thunderbolt.AbstractCompactFst;
+import io.github.atris.thunderbolt.Arc;
+import io.github.atris.thunderbolt.Fst;
+import io.github.atris.thunderbolt.ImmutableFst;
+import io.github.atris.thunderbolt.MutableFst;
+import io.github.atris.thunderbolt.State;
+import io.github.atris.thunderbolt.SymbolTable;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Writes the openfst text format through a reusable byte buffer: symbols are encoded once up front and numbers are
+ * formatted straight into the buffer. With an executor the arcs are formatted in blocks of states on several threads
+ * and written in order by the calling thread.
+ *
+ * The output is the same as that of the line by line exporter, except that weights are written with the fewest
+ * decimals that read back to the same double (e.g. 1.0E-4 becomes 0.0001); every weight still reads back exactly.
+ */
+final class TextExport {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final int ARCS_PER_BLOCK = 1 << 16;
+
+  private static final byte[] INFINITY = "Infinity".getBytes(Charsets.US_ASCII);
+  private static final byte[] NEGATIVE_INFINITY = "-Infinity".getBytes(Charsets.US_ASCII);
+  private static final byte[] NAN = "NaN".getBytes(Charsets.US_ASCII);
+
+  // doubles below this have an integral mantissa of at most 15 digits at every scale tried below
+  private static final double MAX_PLAIN_DOUBLE = 1e15;
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+  };
+
+  private final Fst fst;
+  private final boolean omitZeroStates;
+  // the encoded symbols by id, or null to write the ids themselves
+  @Nullable
+  private final byte[][] inputSymbols;
+  @Nullable
+  private final byte[][] outputSymbols;
+
+  TextExport(Fst fst, boolean useSymbolIds, boolean omitZeroStates) {
+    this.fst = fst;
+    this.omitZeroStates = omitZeroStates;
+    this.inputSymbols = useSymbolIds ? null : encode(fst.getInputSymbols());
+    this.outputSymbols = useSymbolIds ? null : encode(fst.getOutputSymbols());
+  }
+
+  private static byte[][] encode(SymbolTable symbols) {
+    int maxId = -1;
+    for (ObjectIntCursor<String> cursor : symbols) {
+      maxId = Math.max(maxId, cursor.value);
+    }
+    byte[][] encoded = new byte[maxId + 1][];
+    for (ObjectIntCursor<String> cursor : symbols) {
+      if (cursor.value >= 0) {
+        encoded[cursor.value] = cursor.key.getBytes(Charsets.UTF_8);
+      }
+    }
+    return encoded;
+  }
+
+  /**
+   * Writes the fst: the start state, the final states and then the arcs of every state
+   *
+   * @param out the stream to write to; it is not closed
+   * @param executor formats the arcs; if null, or if the fst can't be read from several threads at once (e.g. the
+   *                 lazy fsts cache states on access), everything runs on the calling thread
+   */
+  void write(OutputStream out, @Nullable Executor executor) throws IOException {
+    ByteWriter writer = new ByteWriter(out);
+    State start = fst.getStartState();
+    writeState(writer, start);
+    int numStates = fst.getStateCount();
+    for (int i = 0; i < numStates; i++) {
+      State s = fst.getState(i);
+      if (s.getId() == start.getId()) {
+        continue;
+      }
+      if (fst.getSemiring().isNotZero(s.getFinalWeight()) || !omitZeroStates) {
+        writeState(writer, s);
+      }
+    }
+
+    if (executor == null || !isSafeToReadConcurrently(fst)) {
+      writeArcs(writer, 0, numStates);
+      writer.flush();
+      return;
+    }
+    writer.flush();
+    ArrayDeque<CompletableFuture<ByteWriter>> pending = new ArrayDeque<>();
+    int maxBlocksInFlight = Runtime.getRuntime().availableProcessors() + 1;
+    try {
+      int blockStart = 0;
+      while (blockStart < numStates) {
+        int blockEnd = blockStart;
+        int arcs = 0;
+        while (blockEnd < numStates && arcs < ARCS_PER_BLOCK) {
+          arcs += fst.getState(blockEnd).getArcCount();
+          blockEnd += 1;
+        }
+        final int from = blockStart;
+        final int to = blockEnd;
+        pending.addLast(CompletableFuture.supplyAsync(new Supplier<ByteWriter>() {
+          @Override
+          public ByteWriter get() {
+            ByteWriter block = new ByteWriter(null);
+            writeArcs(block, from, to);
+            return block;
+          }
+        }, executor));
+        if (pending.size() >= maxBlocksInFlight) {
+          pending.removeFirst().join().writeTo(out);
+        }
+        blockStart = blockEnd;
+      }
+      while (!pending.isEmpty()) {
+        pending.removeFirst().join().writeTo(out);
+      }
+    } catch (CompletionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  // only fsts whose reads never mutate anything can be shared by the formatting threads
+  private static boolean isSafeToReadConcurrently(Fst fst) {
+    return fst instanceof MutableFst || fst instanceof ImmutableFst || fst instanceof AbstractCompactFst;
+  }
+
+  private void writeState(ByteWriter writer, State state) {
+    writer.writeInt(state.getId());
+    writer.writeByte('\t');
+    writer.writeDouble(state.getFinalWeight());
+    writer.writeByte('\n');
+  }
+
+  private void writeArcs(ByteWriter writer, int fromState, int toState) {
+    for (int i = fromState; i < toState; i++) {
+      State s = fst.getState(i);
+      int numArcs = s.getArcCount();
+      for (int j = 0; j < numArcs; j++) {
+        Arc arc = s.getArc(j);
+        writer.writeInt(s.getId());
+        writer.writeByte('\t');
+        writer.writeInt(arc.getNextState().getId());
+        writer.writeByte('\t');
+        writeLabel(writer, arc.getIlabel(), inputSymbols);
+        writer.writeByte('\t');
+        writeLabel(writer, arc.getOlabel(), outputSymbols);
+        writer.writeByte('\t');
+        writer.writeDouble(arc.getWeight());
+        writer.writeByte('\n');
+      }
+    }
+  }
+
+  private static void writeLabel(ByteWriter writer, int label, @Nullable byte[][] symbols) {
+    if (symbols == null) {
+      writer.writeInt(label);
+      return;
+    }
+    if (label < 0 || label >= symbols.length || symbols[label] == null) {
+      throw new IllegalArgumentException("No key exists for id " + label);
+    }
+    writer.writeBytes(symbols[label]);
+  }
+
+  /**
+   * Writes a symbol table as lines of symbol and id separated by a tab
+   */
+  static void writeSymbols(SymbolTable symbols, OutputStream out) throws IOException {
+    ByteWriter writer = new ByteWriter(out);
+    for (ObjectIntCursor<String> cursor : symbols) {
+      writer.writeBytes(cursor.key.getBytes(Charsets.UTF_8));
+      writer.writeByte('\t');
+      writer.writeInt(cursor.value);
+      writer.writeByte('\n');
+    }
+    writer.flush();
+  }
+
+  /**
+   * A byte buffer that is either drained to a stream whenever it fills up or, without a stream, grows to hold
+   * everything written to it
+   */
+  private static final class ByteWriter {
+
+    @Nullable
+    private final OutputStream out;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int size = 0;
+
+    ByteWriter(@Nullable OutputStream out) {
+      this.out = out;
+    }
+
+    private void ensure(int length) {
+      if (size + length <= buffer.length) {
+        return;
+      }
+      if (out != null && length <= buffer.length) {
+        try {
+          flush();
+        } catch (IOException e) {
+          throw Throwables.propagate(e);
+        }
+      } else {
+        buffer = Arrays.copyOf(buffer, Math.max(size + length, buffer.length * 2));
+      }
+    }
+
+    void writeByte(int b) {
+      ensure(1);
+      buffer[size++] = (byte) b;
+    }
+
+    void writeBytes(byte[] bytes) {
+      ensure(bytes.length);
+      System.arraycopy(bytes, 0, buffer, size, bytes.length);
+      size += bytes.length;
+    }
+
+    void writeInt(int value) {
+      writeLong(value);
+    }
+
+    // only called with ints and mantissas below 10^15, so the negation can't overflow
+    private void writeLong(long value) {
+      ensure(20);
+      if (value < 0) {
+        buffer[size++] = '-';
+        value = -value;
+      }
+      int digits = 1;
+      for (long rest = value / 10; rest > 0; rest /= 10) {
+        digits += 1;
+      }
+      for (int i = size + digits - 1; i >= size; i--) {
+        buffer[i] = (byte) ('0' + value % 10);
+        value /= 10;
+      }
+      size += digits;
+    }
+
+    /**
+     * Writes the shortest plain decimal with at most 15 fractional digits that reads back to exactly this double,
+     * and falls back to `Double.toString` for everything else (very large or small magnitudes, long expansions)
+     */
+    void writeDouble(double value) {
+      if (Double.isNaN(value)) {
+        writeBytes(NAN);
+        return;
+      }
+      if (Double.isInfinite(value)) {
+        writeBytes(value > 0 ? INFINITY : NEGATIVE_INFINITY);
+        return;
+      }
+      double magnitude = Math.abs(value);
+      if (magnitude < MAX_PLAIN_DOUBLE) {
+        for (int scale = 0; scale < POWERS_OF_TEN.length; scale++) {
+          double scaled = magnitude * POWERS_OF_TEN[scale];
+          if (scaled >= MAX_PLAIN_DOUBLE) {
+            break;
+          }
+          long mantissa = Math.round(scaled);
+          // both operands are exact, so this is the double that the decimal mantissa * 10^-scale reads back as
+          if (mantissa / POWERS_OF_TEN[scale] == magnitude) {
+            writePlain(Double.doubleToRawLongBits(value) < 0, mantissa, scale);
+            return;
+          }
+        }
+      }
+      writeBytes(Double.toString(value).getBytes(Charsets.US_ASCII));
+    }
+
+    private void writePlain(boolean negative, long mantissa, int scale) {
+      ensure(40);
+      if (negative) {
+        buffer[size++] = '-';
+      }
+      if (scale == 0) {
+        writeLong(mantissa);
+        buffer[size++] = '.';
+        buffer[size++] = '0';
+        return;
+      }
+      long integral = mantissa;
+      for (int i = 0; i < scale; i++) {
+        integral /= 10;
+      }
+      writeLong(integral);
+      buffer[size++] = '.';
+      for (int i = size + scale - 1; i >= size; i--) {
+        buffer[i] = (byte) ('0' + mantissa % 10);
+        mantissa /= 10;
+      }
+      size += scale;
+    }
+
+    void flush() throws IOException {
+      if (out != null && size > 0) {
+        out.write(buffer, 0, size);
+        size = 0;
+      }
+    }
+
+    void writeTo(OutputStream target) throws IOException {
+      target.write(buffer, 0, size);
+    }
+  }
+}
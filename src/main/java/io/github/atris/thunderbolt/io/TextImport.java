@@ -0,0 +1,728 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.io;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import io.github.atris.thunderbolt.MutableFst;
+import io.github.atris.thunderbolt.MutableState;
+import io.github.atris.thunderbolt.MutableSymbolTable;
+import io.github.atris.thunderbolt.SymbolTable;
+import io.github.atris.thunderbolt.WriteableSymbolTable;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Imports the openfst text format (and symbol files) without lines, strings or regular expressions: the input is read
+ * in large byte chunks that end on a line boundary, each chunk is tokenized on the raw bytes and parsed into primitive
+ * arrays, and the parsed chunks are merged in file order. With an executor several chunks are parsed at once while
+ * the calling thread reads ahead and merges.
+ *
+ * Symbols are interned per chunk and only given ids when their chunk is merged, in the order they first appear, so
+ * the result is exactly that of a sequential, line by line import.
+ */
+final class TextImport {
+
+  static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+  private static final byte[] EMPTY = new byte[0];
+
+  // doubles with at most this many significant digits and a small enough exponent are parsed exactly by one
+  // multiplication or division of two exactly representable values
+  private static final int MAX_EXACT_DIGITS = 15;
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19,
+      1e20, 1e21, 1e22
+  };
+
+  private final ByteSource source;
+  @Nullable
+  private final Executor executor;
+  private final int chunkSize;
+  private final int maxChunksInFlight;
+
+  /**
+   * @param source the text to import
+   * @param executor parses the chunks; if null they are parsed on the calling thread
+   * @param chunkSize the number of bytes to read at a time; chunks grow to hold lines that are longer than this
+   */
+  TextImport(ByteSource source, @Nullable Executor executor, int chunkSize) {
+    this.source = source;
+    this.executor = executor;
+    this.chunkSize = chunkSize;
+    this.maxChunksInFlight = Runtime.getRuntime().availableProcessors() + 1;
+  }
+
+  /**
+   * Adds the states and arcs of the text to the given fst, which must be empty and already have its symbol tables
+   * (state symbols included, if the text uses them)
+   *
+   * @param fst the fst to fill in
+   * @param useSymbolIds whether the labels in the text are symbol ids instead of symbols
+   */
+  void importFst(MutableFst fst, boolean useSymbolIds) {
+    run(new FstHandler(fst, useSymbolIds));
+    fst.throwIfAnyNullStates();
+  }
+
+  /**
+   * Reads a symbol file of whitespace separated symbol, id pairs
+   */
+  MutableSymbolTable importSymbols() {
+    SymbolHandler handler = new SymbolHandler();
+    run(handler);
+    return handler.table;
+  }
+
+  /**
+   * Parses each chunk (on any thread) and merges the parsed chunks in order on the calling thread
+   */
+  private interface ChunkHandler<T> {
+
+    T parse(byte[] bytes, int length);
+
+    void merge(T parsed);
+  }
+
+  private <T> void run(final ChunkHandler<T> handler) {
+    ArrayDeque<CompletableFuture<T>> pending = new ArrayDeque<>();
+    try (InputStream in = source.openStream()) {
+      ChunkReader reader = new ChunkReader(in, chunkSize);
+      while (reader.next()) {
+        if (executor == null) {
+          handler.merge(handler.parse(reader.bytes, reader.length));
+          continue;
+        }
+        final byte[] bytes = reader.bytes;
+        final int length = reader.length;
+        pending.addLast(CompletableFuture.supplyAsync(new Supplier<T>() {
+          @Override
+          public T get() {
+            return handler.parse(bytes, length);
+          }
+        }, executor));
+        if (pending.size() >= maxChunksInFlight) {
+          handler.merge(pending.removeFirst().join());
+        }
+      }
+      while (!pending.isEmpty()) {
+        handler.merge(pending.removeFirst().join());
+      }
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    } catch (CompletionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Reads the input in runs of whole lines; every chunk gets its own array so it can be parsed while the next one is
+   * read. Only the last line of the input may lack its line feed.
+   */
+  private static final class ChunkReader {
+
+    private final InputStream in;
+    private final int chunkSize;
+    private byte[] carry = EMPTY;
+    private boolean eof = false;
+
+    byte[] bytes;
+    int length;
+
+    ChunkReader(InputStream in, int chunkSize) {
+      this.in = in;
+      this.chunkSize = chunkSize;
+    }
+
+    boolean next() throws IOException {
+      byte[] buffer = new byte[Math.max(chunkSize, carry.length * 2)];
+      System.arraycopy(carry, 0, buffer, 0, carry.length);
+      int filled = carry.length;
+      carry = EMPTY;
+      while (true) {
+        if (!eof) {
+          int wanted = buffer.length - filled;
+          int read = ByteStreams.read(in, buffer, filled, wanted);
+          filled += read;
+          eof = read < wanted;
+        }
+        if (eof) {
+          bytes = buffer;
+          length = filled;
+          return filled > 0;
+        }
+        int end = filled - 1;
+        while (end >= 0 && buffer[end] != '\n') {
+          end -= 1;
+        }
+        if (end >= 0) {
+          carry = Arrays.copyOfRange(buffer, end + 1, filled);
+          bytes = buffer;
+          length = end + 1;
+          return true;
+        }
+        // a single line longer than the whole chunk
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+    }
+  }
+
+  /**
+   * The states, arcs and final weights of one chunk, in file order. State ids are final; labels are ids into the
+   * chunk's own symbol lists unless the text uses symbol ids.
+   */
+  private static final class ParsedFst {
+
+    int lineCount = 0;
+    boolean hasFirstState = false;
+    int firstState;
+
+    int arcCount = 0;
+    int[] arcSources;
+    int[] arcTargets;
+    int[] arcIlabels;
+    int[] arcOlabels;
+    double[] arcWeights;
+
+    int finalCount = 0;
+    int[] finalStates = new int[16];
+    double[] finalWeights = new double[16];
+
+    String[] inputSymbols;
+    String[] outputSymbols;
+
+    int errorLine;
+    String errorText;
+    RuntimeException error;
+
+    ParsedFst(int expectedArcs) {
+      arcSources = new int[expectedArcs];
+      arcTargets = new int[expectedArcs];
+      arcIlabels = new int[expectedArcs];
+      arcOlabels = new int[expectedArcs];
+      arcWeights = new double[expectedArcs];
+    }
+
+    void addArc(int source, int target, int ilabel, int olabel, double weight) {
+      if (arcCount == arcSources.length) {
+        int capacity = Math.max(16, arcCount + (arcCount >> 1));
+        arcSources = Arrays.copyOf(arcSources, capacity);
+        arcTargets = Arrays.copyOf(arcTargets, capacity);
+        arcIlabels = Arrays.copyOf(arcIlabels, capacity);
+        arcOlabels = Arrays.copyOf(arcOlabels, capacity);
+        arcWeights = Arrays.copyOf(arcWeights, capacity);
+      }
+      arcSources[arcCount] = source;
+      arcTargets[arcCount] = target;
+      arcIlabels[arcCount] = ilabel;
+      arcOlabels[arcCount] = olabel;
+      arcWeights[arcCount] = weight;
+      arcCount += 1;
+    }
+
+    void addFinal(int state, double weight) {
+      if (finalCount == finalStates.length) {
+        int capacity = finalCount + (finalCount >> 1);
+        finalStates = Arrays.copyOf(finalStates, capacity);
+        finalWeights = Arrays.copyOf(finalWeights, capacity);
+      }
+      finalStates[finalCount] = state;
+      finalWeights[finalCount] = weight;
+      finalCount += 1;
+    }
+  }
+
+  private static final class FstHandler implements ChunkHandler<ParsedFst> {
+
+    private final MutableFst fst;
+    private final boolean useSymbolIds;
+    private final WriteableSymbolTable inputSymbols;
+    private final WriteableSymbolTable outputSymbols;
+    @Nullable
+    private final SymbolTable stateSymbols;
+    private final double one;
+    private final double zero;
+
+    private MutableState[] states = new MutableState[16];
+    private boolean started = false;
+    private int linesMerged = 0;
+
+    FstHandler(MutableFst fst, boolean useSymbolIds) {
+      this.fst = fst;
+      this.useSymbolIds = useSymbolIds;
+      this.inputSymbols = fst.getInputSymbols();
+      this.outputSymbols = fst.getOutputSymbols();
+      this.stateSymbols = fst.isUsingStateSymbols() ? fst.getStateSymbols() : null;
+      this.one = fst.getSemiring().one();
+      this.zero = fst.getSemiring().zero();
+    }
+
+    // the state symbol table is only read here, so chunks can resolve state ids concurrently
+    @Override
+    public ParsedFst parse(byte[] bytes, int length) {
+      ParsedFst parsed = new ParsedFst(length / 16);
+      Interner inputs = new Interner(bytes);
+      Interner outputs = new Interner(bytes);
+      Interner states = stateSymbols == null ? null : new Interner(bytes);
+      int[] stateIds = new int[16];
+      // start and end of the first five fields of a line
+      int[] fields = new int[10];
+
+      int lineStart = 0;
+      while (lineStart < length) {
+        int lineEnd = lineStart;
+        while (lineEnd < length && bytes[lineEnd] != '\n') {
+          lineEnd += 1;
+        }
+        int next = lineEnd + 1;
+        if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') {
+          lineEnd -= 1;
+        }
+        parsed.lineCount += 1;
+        if (isBlank(bytes, lineStart, lineEnd)) {
+          lineStart = next;
+          continue;
+        }
+        try {
+          // split on tabs, dropping trailing empty fields like String.split does
+          int fieldCount = 0;
+          int nonEmptyCount = 0;
+          int fieldStart = lineStart;
+          for (int i = lineStart; i <= lineEnd; i++) {
+            if (i == lineEnd || bytes[i] == '\t') {
+              if (fieldCount < 5) {
+                fields[2 * fieldCount] = fieldStart;
+                fields[2 * fieldCount + 1] = i;
+              }
+              fieldCount += 1;
+              if (i > fieldStart) {
+                nonEmptyCount = fieldCount;
+              }
+              fieldStart = i + 1;
+            }
+          }
+          fieldCount = nonEmptyCount;
+
+          if (states != null && states.size() + 2 > stateIds.length) {
+            stateIds = Arrays.copyOf(stateIds, stateIds.length * 2);
+          }
+          int source = stateId(bytes, fields[0], fields[1], states, stateIds);
+          if (!parsed.hasFirstState) {
+            parsed.hasFirstState = true;
+            parsed.firstState = source;
+          }
+          if (fieldCount > 2) {
+            if (fieldCount < 4) {
+              throw new IllegalArgumentException("an arc needs a source, a target, an input and an output label");
+            }
+            int target = stateId(bytes, fields[2], fields[3], states, stateIds);
+            int ilabel;
+            int olabel;
+            if (useSymbolIds) {
+              ilabel = parseInt(bytes, fields[4], fields[5]);
+              olabel = parseInt(bytes, fields[6], fields[7]);
+            } else {
+              ilabel = inputs.intern(fields[4], fields[5]);
+              olabel = outputs.intern(fields[6], fields[7]);
+            }
+            double weight = fieldCount >= 5 ? parseDouble(bytes, fields[8], fields[9]) : one;
+            parsed.addArc(source, target, ilabel, olabel, weight);
+          } else {
+            double weight = fieldCount >= 2 ? parseDouble(bytes, fields[2], fields[3]) : one;
+            parsed.addFinal(source, weight);
+          }
+        } catch (RuntimeException e) {
+          parsed.errorLine = parsed.lineCount;
+          parsed.errorText = new String(bytes, lineStart, lineEnd - lineStart, Charsets.UTF_8);
+          parsed.error = e;
+          return parsed;
+        }
+        lineStart = next;
+      }
+      parsed.inputSymbols = inputs.symbols();
+      parsed.outputSymbols = outputs.symbols();
+      return parsed;
+    }
+
+    private int stateId(byte[] bytes, int from, int to, @Nullable Interner states, int[] stateIds) {
+      if (states == null) {
+        int id = parseInt(bytes, from, to);
+        if (id < 0) {
+          throw new IllegalArgumentException("state ids cant be negative: " + id);
+        }
+        return id;
+      }
+      int size = states.size();
+      int local = states.intern(from, to);
+      if (local == size) {
+        stateIds[local] = stateSymbols.get(states.symbol(local));
+      }
+      return stateIds[local];
+    }
+
+    @Override
+    public void merge(ParsedFst parsed) {
+      if (parsed.error != null) {
+        throw new RuntimeException("Problem converting and parsing line " + (linesMerged + parsed.errorLine) +
+                                   " from FST input file. Line: " + parsed.errorText, parsed.error);
+      }
+      linesMerged += parsed.lineCount;
+      if (!started && parsed.hasFirstState) {
+        started = true;
+        fst.setStart(state(parsed.firstState));
+      }
+      for (int i = 0; i < parsed.finalCount; i++) {
+        state(parsed.finalStates[i]).setFinalWeight(parsed.finalWeights[i]);
+      }
+      int[] inputIds = useSymbolIds ? null : globalIds(parsed.inputSymbols, inputSymbols);
+      int[] outputIds = useSymbolIds ? null : globalIds(parsed.outputSymbols, outputSymbols);
+      for (int i = 0; i < parsed.arcCount; i++) {
+        int ilabel = useSymbolIds ? parsed.arcIlabels[i] : inputIds[parsed.arcIlabels[i]];
+        int olabel = useSymbolIds ? parsed.arcOlabels[i] : outputIds[parsed.arcOlabels[i]];
+        fst.addArc(state(parsed.arcSources[i]), ilabel, olabel, state(parsed.arcTargets[i]), parsed.arcWeights[i]);
+      }
+    }
+
+    private static int[] globalIds(String[] symbols, WriteableSymbolTable table) {
+      int[] ids = new int[symbols.length];
+      for (int i = 0; i < symbols.length; i++) {
+        ids[i] = table.getOrAdd(symbols[i]);
+      }
+      return ids;
+    }
+
+    private MutableState state(int id) {
+      if (id >= states.length) {
+        states = Arrays.copyOf(states, Math.max(id + 1, states.length + (states.length >> 1)));
+      }
+      MutableState state = states[id];
+      if (state == null) {
+        state = new MutableState(zero);
+        fst.setState(id, state);
+        states[id] = state;
+      }
+      return state;
+    }
+  }
+
+  private static final class ParsedSymbols {
+
+    int lineCount = 0;
+    int size = 0;
+    String[] symbols = new String[16];
+    int[] ids = new int[16];
+
+    int errorLine;
+    String errorText;
+    RuntimeException error;
+  }
+
+  private static final class SymbolHandler implements ChunkHandler<ParsedSymbols> {
+
+    private final MutableSymbolTable table = new MutableSymbolTable();
+    private int linesMerged = 0;
+
+    @Override
+    public ParsedSymbols parse(byte[] bytes, int length) {
+      ParsedSymbols parsed = new ParsedSymbols();
+      int lineStart = 0;
+      while (lineStart < length) {
+        int lineEnd = lineStart;
+        while (lineEnd < length && bytes[lineEnd] != '\n') {
+          lineEnd += 1;
+        }
+        parsed.lineCount += 1;
+        int symbolStart = skipWhitespace(bytes, lineStart, lineEnd);
+        if (symbolStart < lineEnd) {
+          try {
+            int symbolEnd = skipToWhitespace(bytes, symbolStart, lineEnd);
+            int idStart = skipWhitespace(bytes, symbolEnd, lineEnd);
+            int idEnd = skipToWhitespace(bytes, idStart, lineEnd);
+            if (idStart == lineEnd) {
+              throw new IllegalArgumentException("a symbol needs an id");
+            }
+            if (parsed.size == parsed.symbols.length) {
+              parsed.symbols = Arrays.copyOf(parsed.symbols, parsed.size * 2);
+              parsed.ids = Arrays.copyOf(parsed.ids, parsed.size * 2);
+            }
+            parsed.ids[parsed.size] = parseInt(bytes, idStart, idEnd);
+            parsed.symbols[parsed.size] = new String(bytes, symbolStart, symbolEnd - symbolStart, Charsets.UTF_8);
+            parsed.size += 1;
+          } catch (RuntimeException e) {
+            parsed.errorLine = parsed.lineCount;
+            parsed.errorText = new String(bytes, lineStart, lineEnd - lineStart, Charsets.UTF_8);
+            parsed.error = e;
+            return parsed;
+          }
+        }
+        lineStart = lineEnd + 1;
+      }
+      return parsed;
+    }
+
+    @Override
+    public void merge(ParsedSymbols parsed) {
+      if (parsed.error != null) {
+        throw new RuntimeException("Problem parsing line " + (linesMerged + parsed.errorLine) +
+                                   " of symbol file. Line: " + parsed.errorText, parsed.error);
+      }
+      linesMerged += parsed.lineCount;
+      for (int i = 0; i < parsed.size; i++) {
+        table.put(parsed.symbols[i], parsed.ids[i]);
+      }
+    }
+  }
+
+  /**
+   * Gives the distinct byte strings of one chunk dense ids in the order they are first seen, only decoding each of
+   * them once
+   */
+  private static final class Interner {
+
+    private final byte[] bytes;
+    private int[] slots = new int[64]; // id + 1 of the symbol in the slot, or 0 for an empty slot
+    private int[] starts = new int[32];
+    private int[] ends = new int[32];
+    private int[] hashes = new int[32];
+    private String[] symbols = new String[32];
+    private int size = 0;
+
+    Interner(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    int size() {
+      return size;
+    }
+
+    String symbol(int id) {
+      return symbols[id];
+    }
+
+    String[] symbols() {
+      return Arrays.copyOf(symbols, size);
+    }
+
+    int intern(int from, int to) {
+      int hash = hash(from, to);
+      int mask = slots.length - 1;
+      for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+        int entry = slots[slot];
+        if (entry == 0) {
+          return add(slot, hash, from, to);
+        }
+        int id = entry - 1;
+        if (hashes[id] == hash && sameBytes(starts[id], ends[id], from, to)) {
+          return id;
+        }
+      }
+    }
+
+    private int add(int slot, int hash, int from, int to) {
+      if (size == starts.length) {
+        int capacity = size * 2;
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        symbols = Arrays.copyOf(symbols, capacity);
+      }
+      int id = size++;
+      starts[id] = from;
+      ends[id] = to;
+      hashes[id] = hash;
+      symbols[id] = new String(bytes, from, to - from, Charsets.UTF_8);
+      slots[slot] = id + 1;
+      if (2 * size > slots.length) {
+        rehash();
+      }
+      return id;
+    }
+
+    private void rehash() {
+      slots = new int[slots.length * 2];
+      int mask = slots.length - 1;
+      for (int id = 0; id < size; id++) {
+        int slot = hashes[id] & mask;
+        while (slots[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        slots[slot] = id + 1;
+      }
+    }
+
+    private int hash(int from, int to) {
+      int hash = 0;
+      for (int i = from; i < to; i++) {
+        hash = 31 * hash + bytes[i];
+      }
+      return hash ^ (hash >>> 16);
+    }
+
+    private boolean sameBytes(int aFrom, int aTo, int bFrom, int bTo) {
+      if (aTo - aFrom != bTo - bFrom) {
+        return false;
+      }
+      for (int i = 0; i < aTo - aFrom; i++) {
+        if (bytes[aFrom + i] != bytes[bFrom + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '\f' || b == 0x0B;
+  }
+
+  private static boolean isBlank(byte[] bytes, int from, int to) {
+    return skipWhitespace(bytes, from, to) == to;
+  }
+
+  private static int skipWhitespace(byte[] bytes, int from, int to) {
+    while (from < to && isWhitespace(bytes[from])) {
+      from += 1;
+    }
+    return from;
+  }
+
+  private static int skipToWhitespace(byte[] bytes, int from, int to) {
+    while (from < to && !isWhitespace(bytes[from])) {
+      from += 1;
+    }
+    return from;
+  }
+
+  static int parseInt(byte[] bytes, int from, int to) {
+    int i = from;
+    boolean negative = i < to && bytes[i] == '-';
+    if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+      i += 1;
+    }
+    if (i == to) {
+      throw numberFormatException(bytes, from, to);
+    }
+    long value = 0;
+    for (; i < to; i++) {
+      int digit = bytes[i] - '0';
+      if (digit < 0 || digit > 9) {
+        throw numberFormatException(bytes, from, to);
+      }
+      value = value * 10 + digit;
+      if (value > (negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE)) {
+        throw numberFormatException(bytes, from, to);
+      }
+    }
+    return (int) (negative ? -value : value);
+  }
+
+  /**
+   * Parses a double exactly like `Double.parseDouble`: plain decimals with few enough digits are computed directly
+   * and everything else (long mantissas, large exponents, "Infinity", ...) goes through `Double.parseDouble`
+   */
+  static double parseDouble(byte[] bytes, int from, int to) {
+    int i = from;
+    boolean negative = false;
+    if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+      negative = bytes[i] == '-';
+      i += 1;
+    }
+    long mantissa = 0;
+    int significantDigits = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean fraction = false;
+    for (; i < to; i++) {
+      byte b = bytes[i];
+      if (b == '.' && !fraction) {
+        fraction = true;
+        continue;
+      }
+      int digit = b - '0';
+      if (digit < 0 || digit > 9) {
+        break;
+      }
+      digits += 1;
+      if (fraction) {
+        exponent -= 1;
+      }
+      if (mantissa == 0 && digit == 0) {
+        continue;
+      }
+      if (++significantDigits > MAX_EXACT_DIGITS) {
+        return slowParseDouble(bytes, from, to);
+      }
+      mantissa = mantissa * 10 + digit;
+    }
+    if (digits == 0) {
+      return slowParseDouble(bytes, from, to);
+    }
+    if (i < to && (bytes[i] == 'e' || bytes[i] == 'E')) {
+      i += 1;
+      boolean negativeExponent = false;
+      if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+        negativeExponent = bytes[i] == '-';
+        i += 1;
+      }
+      int exponentStart = i;
+      int explicitExponent = 0;
+      for (; i < to && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+        explicitExponent = explicitExponent * 10 + bytes[i] - '0';
+        if (explicitExponent > POWERS_OF_TEN.length + MAX_EXACT_DIGITS) {
+          return slowParseDouble(bytes, from, to);
+        }
+      }
+      if (i == exponentStart) {
+        return slowParseDouble(bytes, from, to);
+      }
+      exponent += negativeExponent ? -explicitExponent : explicitExponent;
+    }
+    if (i != to) {
+      return slowParseDouble(bytes, from, to);
+    }
+    double value;
+    if (mantissa == 0 || exponent == 0) {
+      value = mantissa;
+    } else if (exponent > 0 && exponent < POWERS_OF_TEN.length) {
+      value = mantissa * POWERS_OF_TEN[exponent];
+    } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+      value = mantissa / POWERS_OF_TEN[-exponent];
+    } else {
+      return slowParseDouble(bytes, from, to);
+    }
+    return negative ? -value : value;
+  }
+
+  private static double slowParseDouble(byte[] bytes, int from, int to) {
+    return Double.parseDouble(new String(bytes, from, to - from, Charsets.UTF_8));
+  }
+
+  private static NumberFormatException numberFormatException(byte[] bytes, int from, int to) {
+    return new NumberFormatException("For input string: \"" + new String(bytes, from, to - from, Charsets.UTF_8) +
+                                     "\"");
+  }
+}
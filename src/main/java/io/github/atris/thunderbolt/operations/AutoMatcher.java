@@ -0,0 +1,104 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.atris.thunderbolt.operations;
+
+import io.github.atris.thunderbolt.Arc;
+import io.github.atris.thunderbolt.Fst;
+import com.google.common.base.Preconditions;
+
+/**
+ * Matcher that picks the implementation for each state from its number of arcs:
+ * <ul>
+ *   <li>up to `LINEAR_MAX_ARCS` arcs: {@link LinearMatcher}, scanning a few arcs beats any index</li>
+ *   <li>label sorted fsts: {@link SortedMatcher}, binary search needs no extra memory</li>
+ *   <li>from `DENSE_MIN_ARCS` arcs: {@link DenseMatcher}, an array lookup by label</li>
+ *   <li>otherwise: {@link HashMatcher}, a hash lookup by label</li>
+ * </ul>
+ */
+public class AutoMatcher implements Matcher {
+
+  public static final int LINEAR_MAX_ARCS = 8;
+  public static final int DENSE_MIN_ARCS = 256;
+
+  private final Fst fst;
+  private final boolean sorted;
+  private final LinearMatcher linear;
+  private final SortedMatcher binary;
+  private final HashMatcher hashed;
+  private final DenseMatcher dense;
+  private Matcher current;
+
+  /**
+   * Creates a matcher over the given fst
+   * @param fst the fst whose arcs will be matched
+   * @param matchType whether input or output labels are matched
+   * @param sorted true if the arcs of every state are sorted by the matched label
+   */
+  public AutoMatcher(Fst fst, MatchType matchType, boolean sorted) {
+    this.fst = fst;
+    this.sorted = sorted;
+    this.linear = new LinearMatcher(fst, matchType);
+    this.binary = new SortedMatcher(fst, matchType);
+    this.hashed = new HashMatcher(fst, matchType);
+    this.dense = new DenseMatcher(fst, matchType);
+  }
+
+  /**
+   * @return the matcher that will be used for the given state
+   */
+  Matcher matcherFor(int stateId) {
+    int arcCount = fst.getState(stateId).getArcCount();
+    if (arcCount <= LINEAR_MAX_ARCS) {
+      return linear;
+    }
+    if (sorted) {
+      return binary;
+    }
+    return arcCount >= DENSE_MIN_ARCS ? dense : hashed;
+  }
+
+  @Override
+  public void setState(int stateId) {
+    current = matcherFor(stateId);
+    current.setState(stateId);
+  }
+
+  @Override
+  public boolean find(int label) {
+    Preconditions.checkState(current != null, "setState must be called before find");
+    return current.find(label);
+  }
+
+  @Override
+  public boolean done() {
+    return current == null || current.done();
+  }
+
+  @Override
+  public void next() {
+    current.next();
+  }
+
+  @Override
+  public int getPosition() {
+    return current.getPosition();
+  }
+
+  @Override
+  public Arc getArc() {
+    return current.getArc();
+  }
+}
@@ -16,24 +16,33 @@
 
 package io.github.atris.thunderbolt.operations;
 
+import com.carrotsearch.hppc.IntArrayDeque;
+import com.carrotsearch.hppc.sorting.IndirectComparator;
+import com.carrotsearch.hppc.sorting.IndirectSort;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.base.Throwables;
 import com.carrotsearch.hppc.cursors.ObjectIntCursor;
 import io.github.atris.thunderbolt.ImmutableFst;
-import io.github.atris.thunderbolt.MutableArc;
 import io.github.atris.thunderbolt.MutableFst;
 import io.github.atris.thunderbolt.State;
 import io.github.atris.thunderbolt.WriteableSymbolTable;
 import io.github.atris.thunderbolt.semiring.Semiring;
 import io.github.atris.thunderbolt.Arc;
 import io.github.atris.thunderbolt.Fst;
-import io.github.atris.thunderbolt.IndexPair;
 import io.github.atris.thunderbolt.MutableState;
 import io.github.atris.thunderbolt.SymbolTable;
 import io.github.atris.thunderbolt.utils.FstUtils;
-import com.google.common.collect.Maps;
 
-import java.util.Deque;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 
 /**
@@ -41,7 +50,11 @@ import java.util.LinkedList;
  *
  * There are two ways to use compose: `compose(a, b, ring)` which does the compose on a b. However, if you are going
  * to be running with the same b over and over again, you can optimize some of the work by precomputing the b via
- * `precomputeInner(b)` and then subsequently calling `composeWithPrecomputed()
+ * `precomputeInner(b)` and then subsequently calling `composeWithPrecomputed()`; `composeAllWithPrecomputed()` does the
+ * same for a whole batch of outer fsts in parallel without modifying them.
+ *
+ * If you only need to walk part of the result (e.g. the best few paths) use {@link ComposeFst}, which expands the
+ * composed states on demand instead of materializing the whole product.
  *
  * See: M. Mohri, "Weighted automata algorithms", Handbook of Weighted Automata. Springer, pp. 213-250, 2009.
  *
@@ -51,6 +64,8 @@ public class Compose {
 
   private enum AugmentLabels {INPUT, OUTPUT}
 
+  private static final int MAX_FST2_STATES = 1 << 30;
+
   /**
    * Pre-processes a FST that is going to be used on the right hand side of a compose operator many times
    * @param fst2 the fst that will appear on the right hand side
@@ -68,10 +83,7 @@ public class Compose {
     augment(AugmentLabels.INPUT, mutableFst, semiring, eps1, eps2);
     ArcSort.sortByInput(mutableFst);
 
-    MutableFst filter = makeFilter(table, semiring, eps1, eps2);
-    ArcSort.sortByInput(filter);
-
-    return new PrecomputedComposeFst(eps1, eps2, new ImmutableFst(mutableFst), semiring, new ImmutableFst(filter));
+    return new PrecomputedComposeFst(eps1, eps2, new ImmutableFst(mutableFst), semiring);
   }
 
   public static MutableFst composeWithPrecomputed(MutableFst fst1, PrecomputedComposeFst fst2) {
@@ -82,15 +94,21 @@ public class Compose {
     return composeWithPrecomputed(fst1, fst2, useSorted, true);
   }
 
+  public static MutableFst composeWithPrecomputed(MutableFst fst1, PrecomputedComposeFst fst2, boolean useSorted, boolean trimOutput) {
+    return composeWithPrecomputed(fst1, fst2, useSorted, trimOutput, ComposeFilter.DEFAULT);
+  }
+
   /**
    * Executes a compose of fst1 o fst2, with fst2 being a precomputed/preprocessed fst (for performance reasons)
    * @param fst1 outer fst
    * @param fst2 inner fst
    * @param useSorted if true, then performance will be faster; NOTE fst1 must be sorted by OUTPUT labels
    * @param trimOutput if true, then output will be trimmed before returning
+   * @param filter the epsilon filter to use
    * @return
    */
-  public static MutableFst composeWithPrecomputed(MutableFst fst1, PrecomputedComposeFst fst2, boolean useSorted, boolean trimOutput) {
+  public static MutableFst composeWithPrecomputed(MutableFst fst1, PrecomputedComposeFst fst2, boolean useSorted,
+                                                  boolean trimOutput, ComposeFilter filter) {
     fst1.throwIfInvalid();
     if (useSorted) {
       if (fst1.getOutputSymbols() != fst2.getFstInputSymbolsAsFrozen() &&
@@ -105,12 +123,10 @@ public class Compose {
     if (useSorted) {
       ArcSort.sortByOutput(fst1);
     }
-    ImmutableFst filter = fst2.getFilterFst();
-    MutableFst tmp = Compose.doCompose(fst1, filter, semiring, useSorted);
-    if (useSorted) {
-      ArcSort.sortByOutput(tmp);
-    }
-    MutableFst res = Compose.doCompose(tmp, fst2.getFst(), semiring, useSorted);
+    // the precomputed inner is always sorted by input, whatever the outer is, so it is matched by binary search rather
+    // than by label indexes that would be rebuilt on every compose
+    MutableFst res = Compose.doCompose(fst1, fst2.getFst(), semiring, useSorted, true, filter, fst2.getEps1(),
+                                       fst2.getEps2());
     // definitionally the output of compose should be trimmed, but if you don't care, you can save some cpu
     if (trimOutput) {
       Connect.apply(res);
@@ -118,6 +134,55 @@ public class Compose {
     return res;
   }
 
+  public static List<MutableFst> composeAllWithPrecomputed(Collection<? extends Fst> outers,
+                                                          PrecomputedComposeFst inner) {
+    return composeAllWithPrecomputed(outers, inner, false);
+  }
+
+  public static List<MutableFst> composeAllWithPrecomputed(Collection<? extends Fst> outers,
+                                                          PrecomputedComposeFst inner, boolean useSorted) {
+    return composeAllWithPrecomputed(outers, inner, useSorted, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Composes every outer fst with the same precomputed inner fst, running the composes on the given executor (e.g. a
+   * ForkJoinPool or, on newer JVMs, a virtual thread per task executor).
+   *
+   * Unlike `composeWithPrecomputed` the outer fsts are NOT modified: each task works on its own copy. Thread safety:
+   * the inner fst is only read, so one precomputed fst can serve any number of concurrent batches (and concurrent
+   * calls to this method); the outer fsts (and their symbol tables) are only read as well, so they must not be
+   * modified by anybody else until this method returns. The returned fsts belong to the caller.
+   *
+   * @param outers the outer fsts
+   * @param inner the precomputed inner fst
+   * @param useSorted if true, then the composes will be faster; NOTE the outer fsts must be sorted by OUTPUT labels and
+   *                  use the inner's frozen input symbols as their output symbols (see `createNewOuterFst`)
+   * @param executor runs one compose per outer fst
+   * @return the trimmed results, in the same order as `outers`
+   */
+  public static List<MutableFst> composeAllWithPrecomputed(Collection<? extends Fst> outers,
+                                                          final PrecomputedComposeFst inner, final boolean useSorted,
+                                                          Executor executor) {
+    List<CompletableFuture<MutableFst>> futures = new ArrayList<>(outers.size());
+    for (final Fst outer : outers) {
+      futures.add(CompletableFuture.supplyAsync(new Supplier<MutableFst>() {
+        @Override
+        public MutableFst get() {
+          return composeWithPrecomputed(MutableFst.copyFrom(outer), inner, useSorted, true);
+        }
+      }, executor));
+    }
+    List<MutableFst> results = new ArrayList<>(futures.size());
+    for (CompletableFuture<MutableFst> future : futures) {
+      try {
+        results.add(future.join());
+      } catch (CompletionException e) {
+        throw Throwables.propagate(e.getCause());
+      }
+    }
+    return results;
+  }
+
   /**
    * Computes the composition of two Fsts. The two Fsts are augmented in order to avoid multiple epsilon paths in the
    * resulting Fst
@@ -142,6 +207,22 @@ public class Compose {
    * @return the composed Fst
    */
   public static MutableFst compose(MutableFst fst1, MutableFst fst2, Semiring semiring, boolean useSorted) {
+    return compose(fst1, fst2, semiring, useSorted, ComposeFilter.DEFAULT);
+  }
+
+  /**
+   * Computes the composition of two Fsts. The two Fsts are augmented in order to avoid multiple epsilon paths in the
+   * resulting Fst
+   *
+   * @param fst1     the first Fst
+   * @param fst2     the second Fst
+   * @param semiring the semiring to use in the operation
+   * @param useSorted if true then the input fsts should be sorted
+   * @param filter   the epsilon filter to use
+   * @return the composed Fst
+   */
+  public static MutableFst compose(MutableFst fst1, MutableFst fst2, Semiring semiring, boolean useSorted,
+                                   ComposeFilter filter) {
     fst1.throwIfInvalid();
     fst2.throwIfInvalid();
     if (!FstUtils.symbolTableEquals(fst1.getOutputSymbols(), fst2.getInputSymbols())) {
@@ -154,20 +235,13 @@ public class Compose {
     int e2index = getOrAddEps(table, false);
     String eps1 = table.invert().keyForId(e1index);
     String eps2 = table.invert().keyForId(e2index);
-    MutableFst filter = makeFilter(table, semiring, eps1, eps2);
     augment(AugmentLabels.OUTPUT, fst1, semiring, eps1, eps2);
     augment(AugmentLabels.INPUT, fst2, semiring, eps1, eps2);
     if (useSorted) {
       ArcSort.sortByOutput(fst1);
-      ArcSort.sortByInput(filter);
-    }
-    assert(FstUtils.symbolTableEquals(fst1.getOutputSymbols(), filter.getInputSymbols(), FstUtils.LOG_REPORTER));
-    MutableFst tmp = Compose.doCompose(fst1, filter, semiring, useSorted);
-    if (useSorted) {
-      ArcSort.sortByOutput(tmp);
     }
-    assert(FstUtils.symbolTableEquals(tmp.getOutputSymbols(), fst2.getInputSymbols(), FstUtils.LOG_REPORTER));
-    MutableFst res = Compose.doCompose(tmp, fst2, semiring, useSorted);
+    assert(FstUtils.symbolTableEquals(fst1.getOutputSymbols(), fst2.getInputSymbols(), FstUtils.LOG_REPORTER));
+    MutableFst res = Compose.doCompose(fst1, fst2, semiring, useSorted, useSorted, filter, eps1, eps2);
     Connect.apply(res);
 
     return res;
@@ -177,45 +251,6 @@ public class Compose {
     return table.getOrAdd("<$$compose$$eps" + (isFirst ? "1" : "2") + ">");
   }
 
-  /**
-   * Get a filter to use for avoiding multiple epsilon paths in the resulting Fst
-   *
-   * See: M. Mohri, "Weighted automata algorithms", Handbook of Weighted Automata. Springer, pp. 213-250, 2009.
-   *
-   * @param table    the filter's input/output symbols
-   * @param semiring the semiring to use in the operation
-   */
-  private static MutableFst makeFilter(WriteableSymbolTable table, Semiring semiring, String eps1, String eps2) {
-
-    MutableFst filter = new MutableFst(semiring, table, table);
-
-    // State 0
-    MutableState s0 = filter.newStartState();
-    s0.setFinalWeight(semiring.one());
-    MutableState s1 = filter.newState();
-    s1.setFinalWeight(semiring.one());
-    MutableState s2 = filter.newState();
-    s2.setFinalWeight(semiring.one());
-
-    filter.addArc(s0, eps2, eps1, s0, semiring.one());
-    filter.addArc(s0, eps1, eps1, s1, semiring.one());
-    filter.addArc(s0, eps2, eps2, s2, semiring.one());
-    // self loops
-    filter.addArc(s1, eps1, eps1, s1, semiring.one());
-    filter.addArc(s2, eps2, eps2, s2, semiring.one());
-    for (ObjectIntCursor<String> cursor : table) {
-      int i = cursor.value;
-      String key = cursor.key;
-      if (key.equals(Fst.EPS) || key.equals(eps1) || key.equals(eps2)) {
-        continue;
-      }
-      filter.addArc(s0, i, i, s0, semiring.one());
-      filter.addArc(s1, i, i, s0, semiring.one());
-      filter.addArc(s2, i, i, s0, semiring.one());
-    }
-    return filter;
-  }
-
   /**
    * Augments the labels of an Fst in order to use it for composition avoiding multiple epsilon paths in the resulting
    * Fst
@@ -241,11 +276,11 @@ public class Compose {
     int numStates = fst.getStateCount();
     for (int i = 0; i < numStates; i++) {
       MutableState s = fst.getState(i);
-      for (MutableArc arc : s.getArcs()) {
-        if ((label == AugmentLabels.OUTPUT) && (arc.getOlabel() == oEps)) {
-          arc.setOlabel(e2outputIndex);
-        } else if ((label == AugmentLabels.INPUT) && (arc.getIlabel() == iEps)) {
-          arc.setIlabel(e1inputIndex);
+      for (int j = 0; j < s.getArcCount(); j++) {
+        if ((label == AugmentLabels.OUTPUT) && (s.getOlabel(j) == oEps)) {
+          s.setOlabel(j, e2outputIndex);
+        } else if ((label == AugmentLabels.INPUT) && (s.getIlabel(j) == iEps)) {
+          s.setIlabel(j, e1inputIndex);
         }
       }
       if (label == AugmentLabels.INPUT) {
@@ -257,83 +292,175 @@ public class Compose {
   }
 
   /**
-   * Computes the composition of two Fsts. Assuming no epsilon transitions.
+   * Builds a table translating the ids of the `from` symbol table into the ids of the same symbols in the `to` symbol
+   * table; symbols that `to` doesn't know about are mapped to -1
+   */
+  static int[] labelMap(SymbolTable from, SymbolTable to) {
+    int maxId = -1;
+    for (ObjectIntCursor<String> cursor : from) {
+      maxId = Math.max(maxId, cursor.value);
+    }
+    int[] map = new int[maxId + 1];
+    Arrays.fill(map, -1);
+    for (ObjectIntCursor<String> cursor : from) {
+      if (to.contains(cursor.key)) {
+        map[cursor.value] = to.get(cursor.key);
+      }
+    }
+    return map;
+  }
+
+  /**
+   * Computes the composition of two augmented Fsts in a single pass: the states of the result are (state of fst1,
+   * state of fst2, epsilon filter state) tuples, so the filter never has to be composed in as a separate FST.
+   *
+   * The epsilon moves are recognized by the augmented labels: an `eps2` output of fst1 is a real epsilon of fst1
+   * (that can move alone, matching the `eps2` self loops of fst2, or together with an epsilon of fst2) and an `eps1`
+   * output of fst1 is one of its self loops (fst1 stays while fst2 moves alone on one of its `eps1` inputs).
    *
    * Input Fsts are not modified.
    *
-   * @param fst1     the first Fst
-   * @param fst2     the second Fst
+   * @param fst1     the first (augmented) Fst
+   * @param fst2     the second (augmented) Fst
    * @param semiring the semiring to use in the operation
+   * @param useSorted whether fst1 is sorted by output labels, so the steps out of each state are matched in label order
+   * @param fst2SortedByInput whether the arcs of every state of fst2 are sorted by input label
    * @return the composed Fst
    */
-  private static MutableFst doCompose(Fst fst1, Fst fst2, Semiring semiring, boolean useSorted) {
-    if (useSorted) {
-      assert(FstUtils.symbolTableEquals(fst1.getOutputSymbols(), fst2.getInputSymbols()));
-    }
-
+  private static MutableFst doCompose(Fst fst1, Fst fst2, Semiring semiring, boolean useSorted,
+                                      boolean fst2SortedByInput, ComposeFilter filter, String eps1, String eps2) {
     MutableFst res = new MutableFst(semiring, FstUtils.symbolTableEffectiveCopy(fst1.getInputSymbols()),
         FstUtils.symbolTableEffectiveCopy(fst2.getOutputSymbols()));
+    int oEps1 = fst1.getOutputSymbols().get(eps1);
+    int oEps2 = fst1.getOutputSymbols().get(eps2);
 
-    // state map is q -> n where q is (q_i, q_j) a state pair made up of state from fst1 and a state from fst2 and
-    // n is the new state index in the composed FST that represents this tuple
-    HashMap<IndexPair, Integer> stateMap = Maps.newHashMap();
-    Deque<IndexPair> queue = new LinkedList<>();
+    // state map is q -> n where q is (q_i, q_j, f) a tuple made up of state from fst1, a state from fst2 and the
+    // filter state (packed into the two low bits of the fst2 state) and n is the new state index in the composed FST
+    // that represents this tuple; ids are handed out in the same order as the result states are created so they are
+    // one and the same
+    StatePairTable stateMap = new StatePairTable();
+    IntArrayDeque queue = new IntArrayDeque();
 
-    IndexPair first = new IndexPair(fst1.getStartState().getId(), fst2.getStartState().getId());
     MutableState newStart = res.newStartState();
     newStart.setFinalWeight(semiring.times(fst1.getStartState().getFinalWeight(), fst2.getStartState().getFinalWeight()));
-    stateMap.put(first, newStart.getId());
-    queue.addLast(first);
+    stateMap.findOrAdd(fst1.getStartState().getId(), packRight(fst2.getStartState().getId(), ComposeFilter.START));
+    queue.addLast(newStart.getId());
 
-    SymbolTable.InvertedSymbolTable fst1In = fst1.getInputSymbols().invert();
-    SymbolTable.InvertedSymbolTable fst1Out = fst1.getOutputSymbols().invert();
-    SymbolTable.InvertedSymbolTable fst2In = fst2.getInputSymbols().invert();
-    SymbolTable.InvertedSymbolTable fst2Out = fst2.getOutputSymbols().invert();
+    // the result uses (copies of) the input symbols of fst1 and the output symbols of fst2 so the ids of emitted arcs
+    // can be copied over as is; only fst1 output ids need translating to fst2 input ids, which we do once up front
+    int[] labelMap = labelMap(fst1.getOutputSymbols(), fst2.getInputSymbols());
 
-    while (!queue.isEmpty()) {
-      IndexPair p = queue.removeFirst();
-      State s1 = fst1.getState(p.getLeft());
-      State s2 = fst2.getState(p.getRight());
-      MutableState resultState = res.getState(stateMap.get(p));
-      if (useSorted) {
-        assert (ArcSort.isSorted(s1, OLabelCompare.INSTANCE) && ArcSort.isSorted(s2, ILabelCompare.INSTANCE)) :
-            "\ns1 " + s1.getArcs() + "\n s2 " + s2.getArcs();
-      }
+    // finds the arcs of fst2 that continue an arc of fst1: binary search if fst2 is sorted, otherwise per state
+    // label indexes that are built on the first visit and reused as the same fst2 states come up again
+    Matcher matcher = new AutoMatcher(fst2, Matcher.MatchType.INPUT, fst2SortedByInput);
+    FilterSteps steps = new FilterSteps();
 
-      int jstart = 0; // if not sorted jstart is never updated so always does full nested loop
+    while (!queue.isEmpty()) {
+      int resultId = queue.removeFirst();
+      State s1 = fst1.getState(stateMap.getLeft(resultId));
+      int right = stateMap.getRight(resultId);
+      int filterState = right & 3;
+      MutableState resultState = res.getState(resultId);
+      matcher.setState(right >>> 2);
+
+      // every arc of fst1 turns into zero or more steps, each with the label to look for in fst2 and the next filter
+      // state
+      steps.clear();
       for (int i = 0; i < s1.getArcCount(); ++i) {
         Arc a1 = s1.getArc(i);
-        for (int j = jstart; j < s2.getArcCount(); ++j) {
-          Arc a2 = s2.getArc(j);
-          if (useSorted && a1.getOlabel() < a2.getIlabel()) {
-            break; // if we know the arcs are sorted then once we've gotten here we know there cant be more j's
-          }
-          String a1Isym = fst1In.keyForId(a1.getIlabel());
-          String a1Osym = fst1Out.keyForId(a1.getOlabel());
-          String a2Isym = fst2In.keyForId(a2.getIlabel());
-          String a2Osym = fst2Out.keyForId(a2.getOlabel());
-          if (a1Osym.equals(a2Isym)) {
-            State nextState1 = a1.getNextState();
-            State nextState2 = a2.getNextState();
-            IndexPair nextPair = new IndexPair(nextState1.getId(), nextState2.getId());
-            Integer nextState = stateMap.get(nextPair);
-            MutableState realNextState;
-            if (nextState == null) {
-              realNextState = res.newState();
-              realNextState.setFinalWeight(semiring.times(nextState1.getFinalWeight(), nextState2.getFinalWeight()));
-              stateMap.put(nextPair, realNextState.getId());
-              queue.addLast(nextPair);
-            } else {
-              realNextState = res.getState(nextState);
-            }
-            res.addArc(resultState, a1Isym, a2Osym, realNextState, semiring.times(a1.getWeight(), a2.getWeight()));
-          } else if (useSorted && a1.getOlabel() > a2.getIlabel()) {
-            // if we're sorted and outer is greater then we know we'll never need to eval this inner index again
-            jstart = j + 1;
+        int olabel = a1.getOlabel();
+        if (olabel == oEps2) {
+          steps.addIfAllowed(a1, oEps1, filter.both(filterState));
+          steps.addIfAllowed(a1, oEps2, filter.fst1Alone(filterState));
+        } else if (olabel == oEps1) {
+          steps.addIfAllowed(a1, oEps1, filter.fst2Alone(filterState));
+        } else {
+          steps.addIfAllowed(a1, olabel, ComposeFilter.START);
+        }
+      }
+      int[] order = useSorted ? steps.sortedByLabel() : null;
+
+      for (int k = 0; k < steps.size; ++k) {
+        int step = order != null ? order[k] : k;
+        Arc a1 = steps.arcs[step];
+        int a1Olabel = labelMap[steps.labels[step]];
+        if (a1Olabel < 0 || !matcher.find(a1Olabel)) {
+          continue; // no such symbol in fst2 or no arc with it in this state so nothing can match
+        }
+        State nextState1 = a1.getNextState();
+        for (; !matcher.done(); matcher.next()) {
+          Arc a2 = matcher.getArc();
+          State nextState2 = a2.getNextState();
+          int knownStates = stateMap.size();
+          int nextState = stateMap.findOrAdd(nextState1.getId(), packRight(nextState2.getId(), steps.filterStates[step]));
+          MutableState realNextState;
+          if (nextState == knownStates) {
+            realNextState = res.newState();
+            realNextState.setFinalWeight(semiring.times(nextState1.getFinalWeight(), nextState2.getFinalWeight()));
+            queue.addLast(nextState);
+          } else {
+            realNextState = res.getState(nextState);
           }
+          res.addArc(resultState, a1.getIlabel(), a2.getOlabel(), realNextState,
+                     semiring.times(a1.getWeight(), a2.getWeight()));
         }
       }
     }
     return res;
   }
+
+  private static int packRight(int state2, int filterState) {
+    Preconditions.checkState(state2 < MAX_FST2_STATES, "fst2 has too many states to compose");
+    return (state2 << 2) | filterState;
+  }
+
+  /**
+   * The (fst1 arc, label, next filter state) steps out of one composed state; reused from state to state
+   */
+  private static final class FilterSteps {
+
+    private int size = 0;
+    private Arc[] arcs = new Arc[16];
+    private int[] labels = new int[16];
+    private int[] filterStates = new int[16];
+
+    void clear() {
+      Arrays.fill(arcs, 0, size, null);
+      size = 0;
+    }
+
+    void addIfAllowed(Arc arc, int label, int filterState) {
+      if (filterState < 0) {
+        return; // the filter blocks this move
+      }
+      if (size == arcs.length) {
+        arcs = Arrays.copyOf(arcs, size * 2);
+        labels = Arrays.copyOf(labels, size * 2);
+        filterStates = Arrays.copyOf(filterStates, size * 2);
+      }
+      arcs[size] = arc;
+      labels[size] = label;
+      filterStates[size] = filterState;
+      size += 1;
+    }
+
+    /**
+     * Orders the steps by label, then by the input label, weight and next state of their fst1 arc, which is the
+     * order the arcs of an output sorted fst1 o filter would have
+     */
+    int[] sortedByLabel() {
+      return IndirectSort.mergesort(0, size, new IndirectComparator() {
+        @Override
+        public int compare(int a, int b) {
+          return ComparisonChain.start()
+              .compare(labels[a], labels[b])
+              .compare(arcs[a].getIlabel(), arcs[b].getIlabel())
+              .compare(arcs[a].getWeight(), arcs[b].getWeight())
+              .compare(arcs[a].getNextState().getId(), arcs[b].getNextState().getId())
+              .compare(filterStates[a], filterStates[b])
+              .result();
+        }
+      });
+    }
+  }
 }
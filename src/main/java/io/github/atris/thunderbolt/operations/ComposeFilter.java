@@ -0,0 +1,113 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.atris.thunderbolt.operations;
+
+/**
+ * Epsilon filters for {@link Compose} and {@link ComposeFst}. When both sides have epsilons there are many equivalent
+ * ways to interleave the epsilon moves, and without a filter each of them would become a separate (redundant) path in
+ * the result. The filter keeps a small state next to the pair of fst states and only lets one interleaving through.
+ *
+ * There are three kinds of epsilon moves: fst1 moves alone on an epsilon output (fst2 stays), fst2 moves alone on an
+ * epsilon input (fst1 stays) or both move together on an epsilon; a regular (non epsilon) match always takes the
+ * filter back to its start state 0. Each method returns the next filter state or -1 if the move is blocked.
+ *
+ * See: M. Mohri, "Weighted automata algorithms", Handbook of Weighted Automata. Springer, pp. 213-250, 2009.
+ */
+public enum ComposeFilter {
+
+  /**
+   * All epsilons of fst1 are read before the epsilons of fst2; both never move together. State 1 means fst2 moved
+   * alone
+   */
+  SEQUENCE {
+    @Override
+    int fst1Alone(int state) {
+      return state == 0 ? 0 : -1;
+    }
+
+    @Override
+    int fst2Alone(int state) {
+      return 1;
+    }
+
+    @Override
+    int both(int state) {
+      return -1;
+    }
+  },
+
+  /**
+   * All epsilons of fst2 are read before the epsilons of fst1; both never move together. State 1 means fst1 moved
+   * alone
+   */
+  ALTERNATING {
+    @Override
+    int fst1Alone(int state) {
+      return 1;
+    }
+
+    @Override
+    int fst2Alone(int state) {
+      return state == 0 ? 0 : -1;
+    }
+
+    @Override
+    int both(int state) {
+      return -1;
+    }
+  },
+
+  /**
+   * The 3 state filter of Mohri, which prefers matching an epsilon of fst1 with an epsilon of fst2 over moving them
+   * one at a time. State 1 means fst2 moved alone and state 2 means fst1 moved alone; this is the default and gives
+   * the fewest states when both sides have epsilons
+   */
+  MATCH {
+    @Override
+    int fst1Alone(int state) {
+      return state != 1 ? 2 : -1;
+    }
+
+    @Override
+    int fst2Alone(int state) {
+      return state != 2 ? 1 : -1;
+    }
+
+    @Override
+    int both(int state) {
+      return state == 0 ? 0 : -1;
+    }
+  };
+
+  public static final ComposeFilter DEFAULT = MATCH;
+
+  static final int START = 0;
+
+  /**
+   * fst1 moves on an epsilon output while fst2 stays in its state
+   */
+  abstract int fst1Alone(int state);
+
+  /**
+   * fst2 moves on an epsilon input while fst1 stays in its state
+   */
+  abstract int fst2Alone(int state);
+
+  /**
+   * fst1 moves on an epsilon output together with fst2 moving on an epsilon input
+   */
+  abstract int both(int state);
+}
@@ -0,0 +1,188 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.operations;
+
+import io.github.atris.thunderbolt.Arc;
+import io.github.atris.thunderbolt.Fst;
+import io.github.atris.thunderbolt.State;
+import io.github.atris.thunderbolt.SymbolTable;
+import io.github.atris.thunderbolt.semiring.Semiring;
+import io.github.atris.thunderbolt.utils.FstUtils;
+import com.google.common.base.Preconditions;
+
+
+/**
+ * Delayed composition of two FSTs: a state of the result is a tuple (state of fst1, state of fst2, filter state)
+ * and it is only created and expanded when somebody walks to it. Nothing of the reachable product is materialized
+ * up front and, contrary to `Compose.compose`, the input FSTs are never modified.
+ *
+ * Epsilons are handled with the same epsilon filters that `Compose` uses (see {@link ComposeFilter}), the filter
+ * state being tracked inline in the tuple. Unlike `Compose.compose` the result is not trimmed, so it can contain
+ * states that never reach a final state.
+ *
+ * Only algorithms that walk forward from the start state keep the expansion lazy. Anything that needs the state
+ * count or the incoming arcs expands the whole reachable product. That includes `ShortestDistance.backward` and
+ * `NShortestPaths`, which copies the product once and searches the copy.
+ *
+ * See: M. Mohri, "Weighted automata algorithms", Handbook of Weighted Automata. Springer, pp. 213-250, 2009.
+ *
+ * NOTE: this class is NOT thread safe
+ */
+public class ComposeFst extends LazyFst {
+
+  private static final int MAX_FST2_STATES = 1 << 30;
+
+  private final Fst fst1;
+  private final Fst fst2;
+  private final Semiring semiring;
+  private final ComposeFilter filter;
+  private final int fst1InputEps;
+  private final int fst1OutputEps;
+  private final int fst2InputEps;
+  private final int fst2OutputEps;
+
+  // tuple -> state id; the filter state is packed into the two low bits of the fst2 state
+  private final StatePairTable stateMap = new StatePairTable();
+  private final Matcher matcher;
+
+  public ComposeFst(Fst fst1, Fst fst2, Semiring semiring) {
+    this(fst1, fst2, semiring, ComposeFilter.DEFAULT, DEFAULT_CACHE_SIZE);
+  }
+
+  public ComposeFst(Fst fst1, Fst fst2, Semiring semiring, ComposeFilter filter) {
+    this(fst1, fst2, semiring, filter, DEFAULT_CACHE_SIZE);
+  }
+
+  public ComposeFst(Fst fst1, Fst fst2, Semiring semiring, int maxCachedStates) {
+    this(fst1, fst2, semiring, ComposeFilter.DEFAULT, maxCachedStates);
+  }
+
+  /**
+   * Creates the delayed composition fst1 o fst2
+   * @param fst1 the first fst
+   * @param fst2 the second fst; its input symbols must match the output symbols of fst1
+   * @param semiring the semiring to use in the operation
+   * @param filter the epsilon filter to use
+   * @param maxCachedStates the maximum number of expanded states to keep in memory
+   */
+  public ComposeFst(Fst fst1, Fst fst2, Semiring semiring, ComposeFilter filter, int maxCachedStates) {
+    super(semiring, maxCachedStates);
+    fst1.throwIfInvalid();
+    fst2.throwIfInvalid();
+    if (!FstUtils.symbolTableEquals(fst1.getOutputSymbols(), fst2.getInputSymbols())) {
+      throw new IllegalArgumentException("Symbol tables don't match, cant compose " + fst1 + " to " + fst2);
+    }
+    this.fst1 = fst1;
+    this.fst2 = fst2;
+    this.semiring = semiring;
+    this.filter = filter;
+    this.fst1InputEps = epsOf(fst1.getInputSymbols());
+    this.fst1OutputEps = epsOf(fst1.getOutputSymbols());
+    this.fst2InputEps = epsOf(fst2.getInputSymbols());
+    this.fst2OutputEps = epsOf(fst2.getOutputSymbols());
+    this.matcher = new AutoMatcher(fst2, Matcher.MatchType.INPUT, false);
+    if (fst1OutputEps >= 0 && fst2OutputEps < 0) {
+      throw new IllegalArgumentException("fst2 needs an " + EPS + " output symbol to compose with epsilons in fst1");
+    }
+    if (fst2InputEps >= 0 && fst1InputEps < 0) {
+      throw new IllegalArgumentException("fst1 needs an " + EPS + " input symbol to compose with epsilons in fst2");
+    }
+
+    State start1 = fst1.getStartState();
+    State start2 = fst2.getStartState();
+    stateFor(start1.getId(), start2.getId(), ComposeFilter.START);
+  }
+
+  private static int epsOf(SymbolTable table) {
+    return table.contains(EPS) ? table.get(EPS) : -1;
+  }
+
+  private int stateFor(int left, int right, int filterState) {
+    Preconditions.checkState(right < MAX_FST2_STATES, "fst2 has too many states for a delayed compose");
+    int knownStates = stateMap.size();
+    int id = stateMap.findOrAdd(left, (right << 2) | filterState);
+    if (id == knownStates) {
+      double finalWeight = semiring.times(fst1.getState(left).getFinalWeight(), fst2.getState(right).getFinalWeight());
+      int stateId = addState(finalWeight);
+      assert stateId == id;
+    }
+    return id;
+  }
+
+  @Override
+  protected void expand(int stateId, ArcBuffer arcs) {
+    int packed = stateMap.getRight(stateId);
+    int filterState = packed & 3;
+    State s1 = fst1.getState(stateMap.getLeft(stateId));
+    int s2 = packed >>> 2;
+    int s1Count = s1.getArcCount();
+    matcher.setState(s2);
+
+    for (int i = 0; i < s1Count; i++) {
+      Arc a1 = s1.getArc(i);
+      int label = a1.getOlabel();
+      int next1 = a1.getNextState().getId();
+      if (label != fst1OutputEps) {
+        addMatches(arcs, a1, label, next1, ComposeFilter.START);
+        continue;
+      }
+      // fst1 moves on an epsilon: either together with an epsilon move of fst2 or alone
+      int both = filter.both(filterState);
+      if (both >= 0 && fst2InputEps >= 0) {
+        addMatches(arcs, a1, fst2InputEps, next1, both);
+      }
+      int fst1Alone = filter.fst1Alone(filterState);
+      if (fst1Alone >= 0) {
+        addArc(arcs, a1.getIlabel(), fst2OutputEps, a1.getWeight(), next1, s2, fst1Alone);
+      }
+    }
+    // fst2 moves on an epsilon alone
+    int fst2Alone = filter.fst2Alone(filterState);
+    if (fst2Alone >= 0 && fst2InputEps >= 0 && matcher.find(fst2InputEps)) {
+      for (; !matcher.done(); matcher.next()) {
+        Arc a2 = matcher.getArc();
+        addArc(arcs, fst1InputEps, a2.getOlabel(), a2.getWeight(), s1.getId(), a2.getNextState().getId(),
+               fst2Alone);
+      }
+    }
+  }
+
+  private void addMatches(ArcBuffer arcs, Arc a1, int label, int next1, int nextFilterState) {
+    if (!matcher.find(label)) {
+      return;
+    }
+    for (; !matcher.done(); matcher.next()) {
+      Arc a2 = matcher.getArc();
+      addArc(arcs, a1.getIlabel(), a2.getOlabel(), semiring.times(a1.getWeight(), a2.getWeight()),
+             next1, a2.getNextState().getId(), nextFilterState);
+    }
+  }
+
+  private void addArc(ArcBuffer arcs, int ilabel, int olabel, double weight, int left, int right, int filterState) {
+    arcs.add(ilabel, olabel, weight, stateFor(left, right, filterState));
+  }
+
+  @Override
+  public SymbolTable getInputSymbols() {
+    return fst1.getInputSymbols();
+  }
+
+  @Override
+  public SymbolTable getOutputSymbols() {
+    return fst2.getOutputSymbols();
+  }
+}
@@ -16,17 +16,26 @@
 
 package io.github.atris.thunderbolt.operations;
 
-import com.carrotsearch.hppc.IntOpenHashSet;
-import io.github.atris.thunderbolt.MutableArc;
+import com.carrotsearch.hppc.BitSet;
+import com.google.common.base.Throwables;
+import io.github.atris.thunderbolt.Fst;
 import io.github.atris.thunderbolt.MutableFst;
-import io.github.atris.thunderbolt.MutableState;
+import io.github.atris.thunderbolt.State;
+import io.github.atris.thunderbolt.semiring.Semiring;
 
-import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 /**
  * Connect operation which only preserves states/arcs that are on paths which
  * are accessible from the start and co-accessible to a final state; i.e. only
  * retain paths that can be hit on all paths between start -> final
+ *
+ * Both searches are iterative (so arbitrarily deep fsts don't overflow the stack) and mark states in bitsets; the
+ * backward search walks an {@link IncomingArcIndex}. The trimmed fst is compacted in a single pass with
+ * `MutableFst.retainStates`, so the whole operation is O(V + E).
  */
 public class Connect {
 
@@ -37,53 +46,94 @@ public class Connect {
    */
   public static void apply(MutableFst fst) {
     fst.throwIfInvalid();
+    BitSet accessible = accessible(fst);
+    BitSet coaccessible = coaccessible(fst);
+    retain(fst, accessible, coaccessible);
+  }
 
-    IntOpenHashSet accessible = new IntOpenHashSet(fst.getStateCount());
-    IntOpenHashSet coaccessible = new IntOpenHashSet(fst.getStateCount());
-    dfsForward(fst.getStartState(), accessible);
-    int numStates = fst.getStateCount();
-    for (int i = 0; i < numStates; i++) {
-      MutableState s = fst.getState(i);
-      if (fst.getSemiring().isNotZero(s.getFinalWeight())) {
-        dfsBackward(s, coaccessible);
+  /**
+   * Trims an Fst like `apply(fst)`, but runs the backward (co-accessibility) search on the given executor while the
+   * forward search runs on the calling thread; the fst must not be modified by anybody else until this returns.
+   *
+   * @param fst the fst to trim
+   * @param executor runs the backward search
+   */
+  public static void apply(final MutableFst fst, Executor executor) {
+    fst.throwIfInvalid();
+    CompletableFuture<BitSet> backward = CompletableFuture.supplyAsync(new Supplier<BitSet>() {
+      @Override
+      public BitSet get() {
+        return coaccessible(fst);
       }
+    }, executor);
+    BitSet accessible = accessible(fst);
+    BitSet coaccessible;
+    try {
+      coaccessible = backward.join();
+    } catch (CompletionException e) {
+      throw Throwables.propagate(e.getCause());
     }
+    retain(fst, accessible, coaccessible);
+  }
 
-    if (accessible.size() == fst.getStateCount() && coaccessible.size() == fst.getStateCount()) {
+  private static void retain(MutableFst fst, BitSet accessible, BitSet coaccessible) {
+    int numStates = fst.getStateCount();
+    if (accessible.cardinality() == numStates && coaccessible.cardinality() == numStates) {
       // common case, optimization bail early
       return;
     }
-
-    ArrayList<MutableState> toDelete = new ArrayList<>();
-    int startId = fst.getStartState().getId();
-    for (int i = 0; i < numStates; i++) {
-      MutableState s = fst.getState(i);
-      if (s.getId() == startId) {
-        continue; // cant delete the start state
-      }
-      if (!accessible.contains(s.getId()) || !coaccessible.contains(s.getId())) {
-        toDelete.add(s);
-      }
+    // the accessible states are now the ones to keep
+    long[] keep = accessible.bits;
+    long[] co = coaccessible.bits;
+    for (int i = 0; i < keep.length; i++) {
+      keep[i] &= i < co.length ? co[i] : 0L;
     }
-    fst.deleteStates(toDelete);
+    accessible.set(fst.getStartState().getId()); // cant delete the start state
+    fst.retainStates(accessible);
   }
 
-  private static void dfsBackward(MutableState state, IntOpenHashSet coaccessible) {
-    coaccessible.add(state.getId());
-    for (MutableState incoming : state.getIncomingStates()) {
-      if (!coaccessible.contains(incoming.getId())) {
-        dfsBackward(incoming, coaccessible);
+  private static BitSet accessible(Fst fst) {
+    int numStates = fst.getStateCount();
+    BitSet visited = new BitSet(numStates);
+    int[] stack = new int[numStates];
+    int top = 0;
+    int start = fst.getStartState().getId();
+    visited.set(start);
+    stack[top++] = start;
+    while (top > 0) {
+      State state = fst.getState(stack[--top]);
+      for (int i = 0; i < state.getArcCount(); i++) {
+        int next = state.getArc(i).getNextState().getId();
+        if (!visited.getAndSet(next)) {
+          stack[top++] = next;
+        }
       }
     }
+    return visited;
   }
 
-  private static void dfsForward(MutableState start, IntOpenHashSet accessible) {
-    accessible.add(start.getId());
-    for (MutableArc arc : start.getArcs()) {
-      MutableState nextState = arc.getNextState();
-      if (!accessible.contains(nextState.getId())) {
-        dfsForward(nextState, accessible);
+  private static BitSet coaccessible(Fst fst) {
+    int numStates = fst.getStateCount();
+    Semiring semiring = fst.getSemiring();
+    IncomingArcIndex incoming = new IncomingArcIndex(fst);
+    BitSet visited = new BitSet(numStates);
+    int[] stack = new int[numStates];
+    int top = 0;
+    for (int s = 0; s < numStates; s++) {
+      if (semiring.isNotZero(fst.getState(s).getFinalWeight())) {
+        visited.set(s);
+        stack[top++] = s;
+      }
+    }
+    while (top > 0) {
+      int state = stack[--top];
+      for (int i = incoming.start(state); i < incoming.end(state); i++) {
+        int previous = incoming.sourceAt(i);
+        if (!visited.getAndSet(previous)) {
+          stack[top++] = previous;
+        }
       }
     }
+    return visited;
   }
 }
@@ -0,0 +1,77 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.atris.thunderbolt.operations;
+
+import io.github.atris.thunderbolt.Fst;
+
+import java.util.Arrays;
+
+/**
+ * Matcher for states with a very high fan-out (e.g. the start state of a lexicon): the arcs of a state are indexed
+ * in an array covering its whole label range, so a lookup is a plain array read without hashing. If the labels of a
+ * state are too sparse for that to be worth the memory (more than `MAX_SPAN_PER_ARC` slots per arc) the state is
+ * indexed like in {@link HashMatcher} instead.
+ */
+public class DenseMatcher extends IndexedMatcher {
+
+  public static final int MAX_SPAN_PER_ARC = 4;
+
+  public DenseMatcher(Fst fst, MatchType matchType) {
+    super(fst, matchType);
+  }
+
+  @Override
+  protected Index buildIndex(int[] positions, int[] labels) {
+    if (labels.length == 0) {
+      return new DenseIndex(positions, labels);
+    }
+    long span = (long) labels[labels.length - 1] - labels[0] + 1;
+    if (span > (long) MAX_SPAN_PER_ARC * labels.length) {
+      return new HashMatcher.HashIndex(positions, labels);
+    }
+    return new DenseIndex(positions, labels);
+  }
+
+  private static class DenseIndex extends Index {
+
+    private final int minLabel;
+    private final int[] firstByLabel; // label - minLabel -> first entry, or -1
+
+    DenseIndex(int[] positions, int[] labels) {
+      super(positions, labels);
+      if (labels.length == 0) {
+        this.minLabel = 0;
+        this.firstByLabel = new int[0];
+        return;
+      }
+      this.minLabel = labels[0];
+      this.firstByLabel = new int[labels[labels.length - 1] - minLabel + 1];
+      Arrays.fill(firstByLabel, -1);
+      for (int i = labels.length - 1; i >= 0; i--) {
+        firstByLabel[labels[i] - minLabel] = i;
+      }
+    }
+
+    @Override
+    int first(int label) {
+      int slot = label - minLabel;
+      if (slot < 0 || slot >= firstByLabel.length) {
+        return -1;
+      }
+      return firstByLabel[slot];
+    }
+  }
+}
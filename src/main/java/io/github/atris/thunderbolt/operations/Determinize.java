@@ -26,6 +26,8 @@ import io.github.atris.thunderbolt.State;
 import io.github.atris.thunderbolt.semiring.Semiring;
 import io.github.atris.thunderbolt.semiring.UnionSemiring;
 import io.github.atris.thunderbolt.semiring.GallicSemiring;
+import com.carrotsearch.hppc.IntArrayDeque;
+import com.carrotsearch.hppc.ObjectIntOpenHashMap;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.*;
@@ -53,7 +55,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * </p>
  * This implementation differs from OpenFST in a number of ways:
  * <ul>
- * <li>computes the result eagerly (not delayed)</li>
+ * <li>computes the result eagerly; see {@link DeterminizeFst} for the delayed version</li>
  * <li>does not offer ability to increment ending epsilon input ids (see OpenFST subsequential_label settings)</li>
  * <li>does not offer a quantization delta for finding 'matching' (fuzzy-)weights</li>
  * </ul>
@@ -88,9 +90,18 @@ public class Determinize {
 
   // the output fst that is being built
   private MutableFst outputFst;
-  // this maps the outputFst's states to the 'tuple' that represents the union of the set of union states (and
-  // residuals that make up the output state)
-  private BiMap<Integer, DetStateTuple> outputStateIdToTuple;
+  // each output state is the subset of (input state, residual) pairs that it stands for; the subset ids are the
+  // output state ids; residuals are interned separately so subsets are plain int arrays
+  private SubsetTable subsets;
+  private ObjectIntOpenHashMap<UnionSemiring.UnionWeight<GallicSemiring.GallicWeight>> residualIds;
+  private ArrayList<UnionSemiring.UnionWeight<GallicSemiring.GallicWeight>> residuals;
+
+  // scratch buffers reused from state to state: the arcs leaving a subset as (input label, sequence) keys and the
+  // (state, residual) pairs of a candidate subset
+  private long[] arcKeys = new long[16];
+  private int[] arcElements = new int[16];
+  private int[] arcIndexes = new int[16];
+  private int[] pairs = new int[16];
 
   /**
    * Determinizes an FSA or FST. For this algorithm, epsilon transitions are treated as regular symbols. This
@@ -122,63 +133,33 @@ public class Determinize {
    * @return the determinized fst
    */
   public MutableFst compute(final Fst fst) {
-    fst.throwIfInvalid();
-
-    // init for this run of compute
-    this.semiring = fst.getSemiring();
-    this.gallicSemiring = new GallicSemiring(this.semiring, this.gallicMode);
-    this.unionSemiring = makeUnionRing(semiring, gallicSemiring, mode);
-    this.inputFst = fst;
+    int initialId = startRun(fst);
     this.outputFst = MutableFst.emptyWithCopyOfSymbols(fst);
-
-    this.outputStateIdToTuple = HashBiMap.create();
-    // workQueue holds the pending work of determinizing the input fst
-    Deque<DetStateTuple> workQueue = new LinkedList<>();
+    // workQueue holds the pending work of determinizing the input fst, as subset (= output state) ids
+    final IntArrayDeque workQueue = new IntArrayDeque();
     // finalQueue holds the pending work of expanding out the final paths (handled by the FactorFst in the
     // open fst implementation)
-    Deque<DetElement> finalQueue = new LinkedList<>();
+    final Deque<DetElement> finalQueue = new LinkedList<>();
 
     // start the algorithm by starting with the input start state
     MutableState initialOutState = outputFst.newStartState();
-    DetElement initialElement = new DetElement(fst.getStartState().getId(),
-      GallicSemiring.GallicWeight.createEmptyLabels(semiring.one()));
-    DetStateTuple initialTuple = new DetStateTuple(initialElement);
-    workQueue.addLast(initialTuple);
-    this.outputStateIdToTuple.put(initialOutState.getId(), initialTuple);
+    Preconditions.checkState(initialId == initialOutState.getId(), "subset ids must match output state ids");
+    initialOutState.setFinalWeight(computeFinalWeight(initialId, finalQueue));
+    workQueue.addLast(initialId);
 
     // process all of the input states via the work queue
     while (!workQueue.isEmpty()) {
-      DetStateTuple entry = workQueue.removeFirst();
-      MutableState outStateForTuple = getOutputStateForStateTuple(entry);
-
-      Collection<DetArcWork> arcWorks = groupByInputLabel(entry);
-      arcWorks.forEach(this::normalizeArcWork);
-
-      for (DetArcWork arcWork : arcWorks) {
-        DetStateTuple targetTuple = new DetStateTuple(arcWork.pendingElements);
-        if (!this.outputStateIdToTuple.inverse().containsKey(targetTuple)) {
-          // we've never seen this tuple before so new state + enqueue the work
+      final MutableState outStateForTuple = outputFst.getState(workQueue.removeFirst());
+      expandSubset(outStateForTuple.getId(), (inputLabel, oLabel, weight, targetId) -> {
+        if (targetId == outputFst.getStateCount()) {
+          // we've never seen this subset before so new state + enqueue the work
           MutableState newOutState = outputFst.newState();
-          this.outputStateIdToTuple.put(newOutState.getId(), targetTuple);
-          newOutState.setFinalWeight(computeFinalWeight(newOutState.getId(), targetTuple, finalQueue));
-          workQueue.addLast(targetTuple);
-        }
-        MutableState targetOutState = getOutputStateForStateTuple(targetTuple);
-        // the computed divisor is a 'legal' arc meaning that it only has zero or one substring; though there
-        // might be multiple entries if we're in non_functional mode
-        UnionSemiring.UnionWeight<GallicSemiring.GallicWeight> unionWeight = arcWork.computedDivisor;
-        for (GallicSemiring.GallicWeight gallicWeight : unionWeight.getWeights()) {
-          Preconditions.checkState(gallicSemiring.isNotZero(gallicWeight), "gallic weight zero computed from group by",
-            gallicWeight);
-          int oLabel = this.outputEps;
-          if (!gallicWeight.getLabels().isEmpty()) {
-            Preconditions.checkState(gallicWeight.getLabels().size() == 1,
-              "cant gave gallic arc weight with more than a single symbol", gallicWeight);
-            oLabel = gallicWeight.getLabels().get(0);
-          }
-          outputFst.addArc(outStateForTuple, arcWork.inputLabel, oLabel, targetOutState, gallicWeight.getWeight());
+          Preconditions.checkState(targetId == newOutState.getId(), "subset ids must match output state ids");
+          newOutState.setFinalWeight(computeFinalWeight(targetId, finalQueue));
+          workQueue.addLast(targetId);
         }
-      }
+        outputFst.addArc(outStateForTuple, inputLabel, oLabel, outputFst.getState(targetId), weight);
+      });
     }
 
     // we might've deferred some final state work that needs to be expanded
@@ -186,6 +167,75 @@ public class Determinize {
     return outputFst;
   }
 
+  /**
+   * Receives the determinized arcs of a subset
+   */
+  interface ArcSink {
+
+    /**
+     * @param targetSubset the id of the subset reached by the arc; a subset is new when its id is equal to the
+     *                     number of subsets that were known before the arc
+     */
+    void addArc(int inputLabel, int outputLabel, double weight, int targetSubset);
+  }
+
+  // inits the runtime state for a new run over the given fst and returns the id of the start subset
+  int startRun(final Fst fst) {
+    fst.throwIfInvalid();
+
+    this.semiring = fst.getSemiring();
+    this.gallicSemiring = new GallicSemiring(this.semiring, this.gallicMode);
+    this.unionSemiring = makeUnionRing(semiring, gallicSemiring, mode);
+    this.inputFst = fst;
+    this.subsets = new SubsetTable();
+    this.residualIds = new ObjectIntOpenHashMap<>();
+    this.residuals = Lists.newArrayList();
+
+    DetElement initialElement = new DetElement(fst.getStartState().getId(),
+      GallicSemiring.GallicWeight.createEmptyLabels(semiring.one()));
+    return internSubset(Collections.singletonList(initialElement));
+  }
+
+  int subsetCount() {
+    return subsets.size();
+  }
+
+  int getOutputEps() {
+    return outputEps;
+  }
+
+  // computes the outgoing arcs of the given subset, one input label group at a time in increasing label order
+  // (and in input order inside a group), interning the target subsets as they are found
+  void expandSubset(int subsetId, ArcSink sink) {
+    int arcCount = sortArcsByInputLabel(subsetId);
+    for (int groupStart = 0; groupStart < arcCount; ) {
+      int inputLabel = (int) (arcKeys[groupStart] >>> 32);
+      int groupEnd = groupStart + 1;
+      while (groupEnd < arcCount && (int) (arcKeys[groupEnd] >>> 32) == inputLabel) {
+        groupEnd += 1;
+      }
+      DetArcWork arcWork = makeArcWork(subsetId, inputLabel, groupStart, groupEnd);
+      groupStart = groupEnd;
+      normalizeArcWork(arcWork);
+
+      int targetId = internSubset(arcWork.pendingElements);
+      // the computed divisor is a 'legal' arc meaning that it only has zero or one substring; though there
+      // might be multiple entries if we're in non_functional mode
+      UnionSemiring.UnionWeight<GallicSemiring.GallicWeight> unionWeight = arcWork.computedDivisor;
+      for (GallicSemiring.GallicWeight gallicWeight : unionWeight.getWeights()) {
+        Preconditions.checkState(gallicSemiring.isNotZero(gallicWeight), "gallic weight zero computed from group by",
+          gallicWeight);
+        int oLabel = this.outputEps;
+        if (!gallicWeight.getLabels().isEmpty()) {
+          Preconditions.checkState(gallicWeight.getLabels().size() == 1,
+            "cant gave gallic arc weight with more than a single symbol", gallicWeight);
+          oLabel = gallicWeight.getLabels().head();
+        }
+        sink.addArc(arcWork.inputLabel, oLabel, gallicWeight.getWeight(), targetId);
+      }
+    }
+  }
+
   private static UnionSemiring<GallicSemiring.GallicWeight, GallicSemiring> makeUnionRing(Semiring semiring,
                                                                            GallicSemiring gallicSemiring,
                                                                            DeterminizeMode mode) {
@@ -215,26 +265,74 @@ public class Determinize {
     }
   }
 
-  // for a particular state tuple (which is equivalent to an output state), group by input labels across all
-  // input states in the residset, and just create pending (possibly duplicate) input residuals for the target states
-  private Collection<DetArcWork> groupByInputLabel(final DetStateTuple detStateTuple) {
-    Map<Integer, DetArcWork> inputLabelToWork = Maps.newHashMap();
-    for (DetElement detElement : detStateTuple.getElements()) {
-      State inputState = getInputStateForId(detElement.getInputStateId());
-      for (Arc inputArc : inputState.getArcs()) {
-
-        UnionSemiring.UnionWeight<GallicSemiring.GallicWeight> inputArcAsUnion = UnionSemiring.UnionWeight.createSingle(
-          GallicSemiring.GallicWeight.createSingleLabel(inputArc.getOlabel(), inputArc.getWeight())
-        );
-        DetElement pendingElement = new DetElement(inputArc.getNextState().getId(),
-          this.unionSemiring.times(detElement.getResidual(), inputArcAsUnion));
-
-        DetArcWork work = inputLabelToWork.computeIfAbsent(inputArc.getIlabel(),
-          iLabel -> new DetArcWork(iLabel, this.unionSemiring.zero()));
-        work.pendingElements.add(pendingElement);
+  // collects the arcs leaving all of the input states of the subset as (input label, sequence) keys and sorts them,
+  // which groups them by input label while keeping the original order inside each group; returns the number of arcs
+  private int sortArcsByInputLabel(int subsetId) {
+    int count = 0;
+    for (int e = 0; e < subsets.elementCount(subsetId); e++) {
+      State inputState = getInputStateForId(subsets.stateOf(subsetId, e));
+      int stateArcCount = inputState.getArcCount();
+      if (count + stateArcCount > arcKeys.length) {
+        int newSize = Math.max(arcKeys.length * 2, count + stateArcCount);
+        arcKeys = Arrays.copyOf(arcKeys, newSize);
+        arcElements = Arrays.copyOf(arcElements, newSize);
+        arcIndexes = Arrays.copyOf(arcIndexes, newSize);
       }
+      for (int a = 0; a < stateArcCount; a++) {
+        int iLabel = inputState.getArc(a).getIlabel();
+        Preconditions.checkState(iLabel >= 0, "negative input label", iLabel);
+        arcKeys[count] = ((long) iLabel << 32) | count;
+        arcElements[count] = e;
+        arcIndexes[count] = a;
+        count += 1;
+      }
+    }
+    Arrays.sort(arcKeys, 0, count);
+    return count;
+  }
+
+  // creates the pending (possibly duplicate) input residuals for the target state of one input label group of
+  // sorted arcs
+  private DetArcWork makeArcWork(int subsetId, int inputLabel, int groupStart, int groupEnd) {
+    DetArcWork work = new DetArcWork(inputLabel, this.unionSemiring.zero());
+    for (int k = groupStart; k < groupEnd; k++) {
+      int seq = (int) arcKeys[k];
+      int element = arcElements[seq];
+      Arc inputArc = getInputStateForId(subsets.stateOf(subsetId, element)).getArc(arcIndexes[seq]);
+      UnionSemiring.UnionWeight<GallicSemiring.GallicWeight> inputArcAsUnion = UnionSemiring.UnionWeight.createSingle(
+        GallicSemiring.GallicWeight.createSingleLabel(inputArc.getOlabel(), inputArc.getWeight())
+      );
+      UnionSemiring.UnionWeight<GallicSemiring.GallicWeight> residual =
+        residuals.get(subsets.residualOf(subsetId, element));
+      work.pendingElements.add(new DetElement(inputArc.getNextState().getId(),
+        this.unionSemiring.times(residual, inputArcAsUnion)));
+    }
+    return work;
+  }
+
+  // returns the id of the subset made of the given elements (sorted by input state, no duplicates), adding it if
+  // it is new
+  private int internSubset(List<DetElement> elements) {
+    int length = elements.size() * 2;
+    if (length > pairs.length) {
+      pairs = new int[Math.max(pairs.length * 2, length)];
+    }
+    for (int i = 0; i < elements.size(); i++) {
+      DetElement element = elements.get(i);
+      pairs[i * 2] = element.inputStateId;
+      pairs[i * 2 + 1] = residualIdOf(element.residual);
     }
-    return inputLabelToWork.values();
+    return subsets.findOrAdd(pairs, length);
+  }
+
+  private int residualIdOf(UnionSemiring.UnionWeight<GallicSemiring.GallicWeight> residual) {
+    if (residualIds.containsKey(residual)) {
+      return residualIds.lget();
+    }
+    int id = residuals.size();
+    residuals.add(residual);
+    residualIds.put(residual, id);
+    return id;
   }
 
   // each arcWork may have duplicate states in the pending work (because groupBy doesn't dedup), normalize these
@@ -267,29 +365,48 @@ public class Determinize {
     }
   }
 
-  // computes the new final weight for an output state in the determinized FST; to do this
-  // we take any relevant residual weights (in the tuple representing the new output weight) and multiply
-  // against the original FSTs final weight; then add those up
-  // we might end up with a final weight that still has output symbols in the residual, in which case we can't make
-  // _this_ new outState a final state, and instead we queue it into a separate queue for later expansion
-  private double computeFinalWeight(final int outputStateId,
-                                    final DetStateTuple targetTuple,
-                                    Deque<DetElement> finalQueue) {
+  // computes the final residual of a subset; to do this we take any relevant residual weights (in the tuple
+  // representing the new output weight) and multiply against the original FSTs final weight; then add those up
+  UnionSemiring.UnionWeight<GallicSemiring.GallicWeight> finalResidual(final int subsetId) {
     UnionSemiring.UnionWeight<GallicSemiring.GallicWeight> result = this.unionSemiring.zero();
-    for (DetElement detElement : targetTuple.getElements()) {
-      State inputState = this.getInputStateForId(detElement.inputStateId);
+    for (int e = 0; e < subsets.elementCount(subsetId); e++) {
+      State inputState = this.getInputStateForId(subsets.stateOf(subsetId, e));
       if (this.semiring.isZero(inputState.getFinalWeight())) {
         continue; // not final so it wont contribute
       }
       UnionSemiring.UnionWeight<GallicSemiring.GallicWeight> origFinal = UnionSemiring.UnionWeight.createSingle(
           GallicSemiring.GallicWeight.createEmptyLabels(
         inputState.getFinalWeight()));
-      result = this.unionSemiring.plus(result, this.unionSemiring.times(detElement.residual, origFinal));
+      UnionSemiring.UnionWeight<GallicSemiring.GallicWeight> residual =
+        residuals.get(subsets.residualOf(subsetId, e));
+      result = this.unionSemiring.plus(result, this.unionSemiring.times(residual, origFinal));
     }
-    if (this.unionSemiring.isZero(result)) {
+    return result;
+  }
+
+  boolean isZero(UnionSemiring.UnionWeight<GallicSemiring.GallicWeight> finalResidual) {
+    return this.unionSemiring.isZero(finalResidual);
+  }
+
+  // true if the final residual has no output labels left to emit, so it can be used as a final weight as is
+  static boolean isPlainWeight(UnionSemiring.UnionWeight<GallicSemiring.GallicWeight> finalResidual) {
+    return finalResidual.size() == 1 && finalResidual.get(0).getLabels().isEmpty();
+  }
+
+  Pair<GallicSemiring.GallicWeight, GallicSemiring.GallicWeight> factorize(GallicSemiring.GallicWeight weight) {
+    return gallicSemiring.factorize(weight);
+  }
+
+  // computes the new final weight for an output state in the determinized FST from its final residual;
+  // we might end up with a final weight that still has output symbols in the residual, in which case we can't make
+  // _this_ new outState a final state, and instead we queue it into a separate queue for later expansion
+  private double computeFinalWeight(final int outputStateId,
+                                    Deque<DetElement> finalQueue) {
+    UnionSemiring.UnionWeight<GallicSemiring.GallicWeight> result = finalResidual(outputStateId);
+    if (isZero(result)) {
       return this.semiring.zero();
     }
-    if (result.size() == 1 && result.get(0).getLabels().isEmpty()) {
+    if (isPlainWeight(result)) {
       // by good fortune the residual is just a weight, no path to expand so this new state can have a final weight
       // set now! with nothing to enqueue
       return result.get(0).getWeight();
@@ -309,7 +426,7 @@ public class Determinize {
       DetElement element = finalQueue.removeFirst();
       for (GallicSemiring.GallicWeight gallicWeight : element.residual.getWeights()) {
         // factorization is like a simple version of the divisor/divide calculation earlier
-        Pair<GallicSemiring.GallicWeight, GallicSemiring.GallicWeight> factorized = gallicSemiring.factorize(gallicWeight);
+        Pair<GallicSemiring.GallicWeight, GallicSemiring.GallicWeight> factorized = factorize(gallicWeight);
         GallicSemiring.GallicWeight prefix = factorized.getLeft();
         GallicSemiring.GallicWeight suffix = factorized.getRight();
         if (!outputStateIdToFinalSuffix.inverse().containsKey(suffix)) {
@@ -328,7 +445,7 @@ public class Determinize {
         MutableState nextState = checkNotNull(outputFst.getState(outputStateId), "state should exist", outputStateId);
         MutableState thisState = checkNotNull(outputFst.getState(element.inputStateId));
         Preconditions.checkArgument(prefix.getLabels().size() == 1, "prefix size should be 1", prefix);
-        int oLabel = prefix.getLabels().get(0);
+        int oLabel = prefix.getLabels().head();
         // note that openfst has an 'increment subsequent epsilons' feature so that these paths can still be
         // guarenteed to be deterministic (with just multiple definitions of <EPS>; this feature would go here
         // if we decide to implement it in the future
@@ -337,12 +454,6 @@ public class Determinize {
     }
   }
 
-  private MutableState getOutputStateForStateTuple(final DetStateTuple stateTuple) {
-    int outputStateId = checkNotNull(this.outputStateIdToTuple.inverse().get(stateTuple),
-      "no output state exists for state tuple", stateTuple);
-    return checkNotNull(this.outputFst.getState(outputStateId), "no result state for id", outputStateId);
-  }
-
   private State getInputStateForId(final int inputStateId) {
     return checkNotNull(this.inputFst.getState(inputStateId), "no input state for id", inputStateId);
   }
@@ -369,50 +480,6 @@ public class Determinize {
     }
   }
 
-  /**
-   * A set of residuals, which together form the content of one output state in the determinized automata;
-   * NOTE DeterminizeStateTuple is the name from openfst
-   */
-  @VisibleForTesting
-  static class DetStateTuple {
-
-    private final LinkedHashSet<DetElement> elements;
-
-    DetStateTuple(DetElement singleElement) {
-      this(Sets.newLinkedHashSet(Collections.singletonList(singleElement)));
-    }
-
-    DetStateTuple(List<DetElement> elementsAsList) {
-      this(Sets.newLinkedHashSet(elementsAsList));
-    }
-
-    DetStateTuple(final LinkedHashSet<DetElement> elements) {
-      this.elements = elements;
-    }
-
-    LinkedHashSet<DetElement> getElements() {
-      return elements;
-    }
-
-    @Override
-    public boolean equals(final Object o) {
-      if (this == o) return true;
-      if (o == null || getClass() != o.getClass()) return false;
-      DetStateTuple that = (DetStateTuple) o;
-      return Objects.equals(elements, that.elements);
-    }
-
-    @Override
-    public int hashCode() {
-      return Objects.hash(elements);
-    }
-
-    @Override
-    public String toString() {
-      return "ResidualSet{" + elements + '}';
-    }
-  }
-
   /**
    * Encapsulates the input state + any residual left for that path; the natural ordering is only based on
    * state ids
@@ -0,0 +1,166 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.operations;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.IntObjectOpenHashMap;
+import com.carrotsearch.hppc.ObjectIntOpenHashMap;
+import io.github.atris.thunderbolt.Fst;
+import io.github.atris.thunderbolt.SymbolTable;
+import io.github.atris.thunderbolt.semiring.GallicSemiring;
+import io.github.atris.thunderbolt.semiring.UnionSemiring;
+import com.google.common.base.Preconditions;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Delayed determinization: a state of the result is a subset of (input state, residual) pairs, exactly as in
+ * {@link Determinize}, but its arcs are only computed when somebody asks for them, so a large input that is only
+ * searched sparsely never pays for the subsets it doesn't visit. The `DeterminizeMode` semantics are the same as for
+ * `Determinize`.
+ *
+ * Final residuals that still have output labels to emit are expanded lazily as well: such a state is not final and
+ * gets extra `<eps>:label` arcs (after its regular arcs) to synthetic states that emit the rest of the residual.
+ *
+ * Expanded arcs live in the bounded cache of {@link LazyFst}: once the search has moved past a state its arcs get
+ * evicted and are recomputed from the subset if the state is ever visited again. Only the subsets themselves (which
+ * identify the states) are kept for the lifetime of this fst.
+ *
+ * The result has the same states and arcs as `Determinize.compute`, but states are numbered in the order they are
+ * discovered, so the numbering differs.
+ *
+ * NOTE: this class is NOT thread safe
+ */
+public class DeterminizeFst extends LazyFst {
+
+  private final Fst fst;
+  private final Determinize determinize;
+
+  // state id -> subset id, or -1 for the synthetic states emitting the rest of a final residual
+  private final IntArrayList subsetOfState = new IntArrayList();
+  // subset id -> state id
+  private final IntArrayList stateOfSubset = new IntArrayList();
+  // state id -> final residual that still has output labels to emit as arcs
+  private final IntObjectOpenHashMap<UnionSemiring.UnionWeight<GallicSemiring.GallicWeight>> pendingFinals =
+    new IntObjectOpenHashMap<>();
+  // suffix of a final residual -> synthetic state emitting it
+  private final ObjectIntOpenHashMap<GallicSemiring.GallicWeight> suffixStates = new ObjectIntOpenHashMap<>();
+
+  private final SubsetArcs subsetArcs = new SubsetArcs();
+
+  public DeterminizeFst(Fst fst) {
+    this(fst, Determinize.DeterminizeMode.FUNCTIONAL, DEFAULT_CACHE_SIZE);
+  }
+
+  public DeterminizeFst(Fst fst, Determinize.DeterminizeMode mode) {
+    this(fst, mode, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * Creates the delayed determinization of the given fst
+   * @param fst the fst to determinize; it must not change while this fst is in use
+   * @param mode how to handle non functional input
+   * @param maxCachedStates the maximum number of expanded states to keep in memory
+   */
+  public DeterminizeFst(Fst fst, Determinize.DeterminizeMode mode, int maxCachedStates) {
+    super(fst.getSemiring(), maxCachedStates);
+    this.fst = fst;
+    this.determinize = new Determinize(mode);
+    int startSubset = determinize.startRun(fst);
+    int startState = stateForSubset(startSubset);
+    assert startState == 0;
+  }
+
+  private int stateForSubset(int subsetId) {
+    if (subsetId < stateOfSubset.size()) {
+      return stateOfSubset.get(subsetId);
+    }
+    Preconditions.checkState(subsetId == stateOfSubset.size(), "subsets must be discovered in order");
+    UnionSemiring.UnionWeight<GallicSemiring.GallicWeight> finalResidual = determinize.finalResidual(subsetId);
+    double finalWeight = getSemiring().zero();
+    boolean pending = false;
+    if (!determinize.isZero(finalResidual)) {
+      if (Determinize.isPlainWeight(finalResidual)) {
+        finalWeight = finalResidual.get(0).getWeight();
+      } else {
+        pending = true;
+      }
+    }
+    int stateId = addState(finalWeight);
+    subsetOfState.add(subsetId);
+    stateOfSubset.add(stateId);
+    if (pending) {
+      pendingFinals.put(stateId, finalResidual);
+    }
+    return stateId;
+  }
+
+  private int stateForSuffix(GallicSemiring.GallicWeight suffix) {
+    if (suffixStates.containsKey(suffix)) {
+      return suffixStates.lget();
+    }
+    boolean done = suffix.getLabels().isEmpty();
+    int stateId = addState(done ? suffix.getWeight() : getSemiring().zero());
+    subsetOfState.add(-1);
+    suffixStates.put(suffix, stateId);
+    if (!done) {
+      pendingFinals.put(stateId, UnionSemiring.UnionWeight.createSingle(suffix));
+    }
+    return stateId;
+  }
+
+  @Override
+  protected void expand(int stateId, ArcBuffer arcs) {
+    int subsetId = subsetOfState.get(stateId);
+    if (subsetId >= 0) {
+      subsetArcs.arcs = arcs;
+      determinize.expandSubset(subsetId, subsetArcs);
+      subsetArcs.arcs = null;
+    }
+    if (!pendingFinals.containsKey(stateId)) {
+      return;
+    }
+    // same as Determinize.expandDeferredFinalStates: emit the next label of each residual and move on to the suffix
+    for (GallicSemiring.GallicWeight gallicWeight : pendingFinals.lget().getWeights()) {
+      Pair<GallicSemiring.GallicWeight, GallicSemiring.GallicWeight> factorized = determinize.factorize(gallicWeight);
+      GallicSemiring.GallicWeight prefix = factorized.getLeft();
+      Preconditions.checkArgument(prefix.getLabels().size() == 1, "prefix size should be 1", prefix);
+      int nextState = stateForSuffix(factorized.getRight());
+      arcs.add(determinize.getOutputEps(), prefix.getLabels().head(), prefix.getWeight(), nextState);
+    }
+  }
+
+  @Override
+  public SymbolTable getInputSymbols() {
+    return fst.getInputSymbols();
+  }
+
+  @Override
+  public SymbolTable getOutputSymbols() {
+    return fst.getOutputSymbols();
+  }
+
+  // adapts the arcs of a subset expansion to the state ids of this fst
+  private final class SubsetArcs implements Determinize.ArcSink {
+
+    private ArcBuffer arcs;
+
+    @Override
+    public void addArc(int inputLabel, int outputLabel, double weight, int targetSubset) {
+      arcs.add(inputLabel, outputLabel, weight, stateForSubset(targetSubset));
+    }
+  }
+}
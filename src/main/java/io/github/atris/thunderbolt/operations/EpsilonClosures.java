@@ -0,0 +1,325 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.operations;
+
+import com.carrotsearch.hppc.IntArrayDeque;
+import io.github.atris.thunderbolt.Arc;
+import io.github.atris.thunderbolt.Fst;
+import io.github.atris.thunderbolt.State;
+import io.github.atris.thunderbolt.semiring.Semiring;
+
+import java.util.Arrays;
+
+/**
+ * The epsilon closures of all of the states of an fst: for each state, the states reachable through one or more
+ * epsilon arcs with the sum of the weights of those paths. Closures are sparse arrays sorted by target state and
+ * only list the targets that matter for epsilon removal, i.e. the states that are final or have non epsilon arcs.
+ *
+ * The closures are computed over the strongly connected components of the epsilon subgraph, found with an iterative
+ * Tarjan so long epsilon chains don't use any stack. Components are completed in reverse topological order, so the
+ * closure of a state is built from the already finished closures of the states it leaves the component to. Inside a
+ * cyclic component the distances between its states are computed by relaxation (with the convergence delta of
+ * {@link ShortestDistance}), and the part of the closure that leaves the component from each state is computed once
+ * and shared by all of the states of the component.
+ */
+final class EpsilonClosures {
+
+  private static final int[] NO_TARGETS = new int[0];
+  private static final double[] NO_WEIGHTS = new double[0];
+
+  private final Semiring semiring;
+  private final int stateCount;
+
+  // the epsilon arcs in compressed sparse row form
+  private final int[] epsOffsets;
+  private final int[] epsTargets;
+  private final double[] epsWeights;
+  private final boolean[] useful;
+
+  private final int[][] targets;
+  private final double[][] weights;
+
+  // scratch accumulator over all states
+  private final double[] acc;
+  private final boolean[] accSet;
+  private int[] accTouched = new int[16];
+  private int accSize = 0;
+
+  EpsilonClosures(Fst fst, int iEps, int oEps) {
+    this.semiring = fst.getSemiring();
+    this.stateCount = fst.getStateCount();
+    this.useful = new boolean[stateCount];
+    this.epsOffsets = new int[stateCount + 1];
+    int epsCount = 0;
+    for (int s = 0; s < stateCount; s++) {
+      State state = fst.getState(s);
+      useful[s] = semiring.isNotZero(state.getFinalWeight());
+      for (int i = 0; i < state.getArcCount(); i++) {
+        Arc arc = state.getArc(i);
+        if (arc.getIlabel() == iEps && arc.getOlabel() == oEps) {
+          epsCount += 1;
+        } else {
+          useful[s] = true;
+        }
+      }
+      epsOffsets[s + 1] = epsCount;
+    }
+    this.epsTargets = new int[epsCount];
+    this.epsWeights = new double[epsCount];
+    int next = 0;
+    for (int s = 0; s < stateCount; s++) {
+      State state = fst.getState(s);
+      for (int i = 0; i < state.getArcCount(); i++) {
+        Arc arc = state.getArc(i);
+        if (arc.getIlabel() == iEps && arc.getOlabel() == oEps) {
+          epsTargets[next] = arc.getNextState().getId();
+          epsWeights[next] = arc.getWeight();
+          next += 1;
+        }
+      }
+    }
+
+    this.targets = new int[stateCount][];
+    this.weights = new double[stateCount][];
+    this.acc = new double[stateCount];
+    this.accSet = new boolean[stateCount];
+    computeComponents();
+  }
+
+  /**
+   * @return the number of states in the closure of the given state
+   */
+  int size(int state) {
+    return targets[state].length;
+  }
+
+  int targetAt(int state, int index) {
+    return targets[state][index];
+  }
+
+  double weightAt(int state, int index) {
+    return weights[state][index];
+  }
+
+  // iterative Tarjan; each component is completed as soon as it is found, which is after all of the components it
+  // reaches
+  private void computeComponents() {
+    int[] index = new int[stateCount];
+    int[] lowLink = new int[stateCount];
+    boolean[] onStack = new boolean[stateCount];
+    Arrays.fill(index, -1);
+    int[] sccStack = new int[stateCount];
+    int sccTop = 0;
+    int[] callStates = new int[stateCount];
+    int[] callEdges = new int[stateCount];
+    int callTop = 0;
+    int nextIndex = 0;
+    int[] component = new int[stateCount];
+    Arrays.fill(component, -1);
+    int componentCount = 0;
+
+    for (int root = 0; root < stateCount; root++) {
+      if (index[root] >= 0) {
+        continue;
+      }
+      index[root] = lowLink[root] = nextIndex++;
+      sccStack[sccTop++] = root;
+      onStack[root] = true;
+      callStates[callTop] = root;
+      callEdges[callTop] = epsOffsets[root];
+      callTop += 1;
+
+      while (callTop > 0) {
+        int v = callStates[callTop - 1];
+        int edge = callEdges[callTop - 1];
+        if (edge < epsOffsets[v + 1]) {
+          callEdges[callTop - 1] = edge + 1;
+          int t = epsTargets[edge];
+          if (index[t] < 0) {
+            index[t] = lowLink[t] = nextIndex++;
+            sccStack[sccTop++] = t;
+            onStack[t] = true;
+            callStates[callTop] = t;
+            callEdges[callTop] = epsOffsets[t];
+            callTop += 1;
+          } else if (onStack[t]) {
+            lowLink[v] = Math.min(lowLink[v], index[t]);
+          }
+          continue;
+        }
+        callTop -= 1;
+        if (callTop > 0) {
+          int parent = callStates[callTop - 1];
+          lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+        }
+        if (lowLink[v] == index[v]) {
+          int start = sccTop;
+          do {
+            start -= 1;
+            onStack[sccStack[start]] = false;
+            component[sccStack[start]] = componentCount;
+          } while (sccStack[start] != v);
+          completeComponent(sccStack, start, sccTop, component, componentCount);
+          componentCount += 1;
+          sccTop = start;
+        }
+      }
+    }
+  }
+
+  private void completeComponent(int[] members, int from, int to, int[] component, int id) {
+    if (to - from == 1 && !hasSelfLoop(members[from])) {
+      int state = members[from];
+      for (int e = epsOffsets[state]; e < epsOffsets[state + 1]; e++) {
+        addStep(epsTargets[e], epsWeights[e]);
+      }
+      drainInto(targets, weights, state);
+      return;
+    }
+    int[] sortedMembers = Arrays.copyOfRange(members, from, to);
+    Arrays.sort(sortedMembers);
+    completeCyclicComponent(sortedMembers, component, id);
+  }
+
+  private boolean hasSelfLoop(int state) {
+    for (int e = epsOffsets[state]; e < epsOffsets[state + 1]; e++) {
+      if (epsTargets[e] == state) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // adds the paths that take one epsilon arc of the given weight to `target` and then continue with its closure
+  private void addStep(int target, double weight) {
+    int[] nextTargets = targets[target];
+    double[] nextWeights = weights[target];
+    for (int i = 0; i < nextTargets.length; i++) {
+      accumulate(nextTargets[i], semiring.times(nextWeights[i], weight));
+    }
+    if (useful[target]) {
+      accumulate(target, weight);
+    }
+  }
+
+  private void completeCyclicComponent(int[] members, int[] component, int id) {
+    int size = members.length;
+    // the closure that leaves the component from each member, shared by every member that reaches it
+    int[][] exitTargets = new int[size][];
+    double[][] exitWeights = new double[size][];
+    for (int m = 0; m < size; m++) {
+      int state = members[m];
+      for (int e = epsOffsets[state]; e < epsOffsets[state + 1]; e++) {
+        if (component[epsTargets[e]] != id) {
+          addStep(epsTargets[e], epsWeights[e]);
+        }
+      }
+      drainInto(exitTargets, exitWeights, m);
+    }
+
+    // the distances of the paths of one or more arcs between the members, one source at a time
+    double[] distances = new double[size];
+    double[] residuals = new double[size];
+    boolean[] queued = new boolean[size];
+    IntArrayDeque queue = new IntArrayDeque();
+    for (int m = 0; m < size; m++) {
+      Arrays.fill(distances, semiring.zero());
+      Arrays.fill(residuals, semiring.zero());
+      relaxInternal(members[m], semiring.one(), members, component, id, distances, residuals, queued, queue);
+      while (!queue.isEmpty()) {
+        int u = queue.removeFirst();
+        queued[u] = false;
+        double residual = residuals[u];
+        residuals[u] = semiring.zero();
+        relaxInternal(members[u], residual, members, component, id, distances, residuals, queued, queue);
+      }
+
+      for (int e = 0; e < exitTargets[m].length; e++) {
+        accumulate(exitTargets[m][e], exitWeights[m][e]);
+      }
+      for (int u = 0; u < size; u++) {
+        if (semiring.isZero(distances[u])) {
+          continue;
+        }
+        if (useful[members[u]]) {
+          accumulate(members[u], distances[u]);
+        }
+        for (int e = 0; e < exitTargets[u].length; e++) {
+          accumulate(exitTargets[u][e], semiring.times(exitWeights[u][e], distances[u]));
+        }
+      }
+      drainInto(targets, weights, members[m]);
+    }
+  }
+
+  // relaxes the internal epsilon arcs of `state` after paths of total weight `weight` reached it; members are sorted
+  // so the local index of a target is found by binary search
+  private void relaxInternal(int state, double weight, int[] members, int[] component, int id, double[] distances,
+                             double[] residuals, boolean[] queued, IntArrayDeque queue) {
+    for (int e = epsOffsets[state]; e < epsOffsets[state + 1]; e++) {
+      int target = epsTargets[e];
+      if (component[target] != id) {
+        continue;
+      }
+      int u = Arrays.binarySearch(members, target);
+      double step = semiring.times(weight, epsWeights[e]);
+      double old = distances[u];
+      double updated = semiring.isZero(old) ? step : semiring.plus(old, step);
+      if (old == updated || Math.abs(old - updated) <= ShortestDistance.DEFAULT_DELTA) {
+        continue;
+      }
+      distances[u] = updated;
+      residuals[u] = semiring.isZero(residuals[u]) ? step : semiring.plus(residuals[u], step);
+      if (!queued[u]) {
+        queue.addLast(u);
+        queued[u] = true;
+      }
+    }
+  }
+
+  private void accumulate(int target, double weight) {
+    if (accSet[target]) {
+      acc[target] = semiring.plus(acc[target], weight);
+      return;
+    }
+    accSet[target] = true;
+    acc[target] = weight;
+    if (accSize == accTouched.length) {
+      accTouched = Arrays.copyOf(accTouched, accSize * 2);
+    }
+    accTouched[accSize++] = target;
+  }
+
+  // moves the accumulated closure into sorted sparse arrays at the given slot and clears the accumulator
+  private void drainInto(int[][] targetsOut, double[][] weightsOut, int slot) {
+    if (accSize == 0) {
+      targetsOut[slot] = NO_TARGETS;
+      weightsOut[slot] = NO_WEIGHTS;
+      return;
+    }
+    int[] sorted = Arrays.copyOf(accTouched, accSize);
+    Arrays.sort(sorted);
+    double[] sortedWeights = new double[accSize];
+    for (int i = 0; i < sorted.length; i++) {
+      sortedWeights[i] = acc[sorted[i]];
+      accSet[sorted[i]] = false;
+    }
+    accSize = 0;
+    targetsOut[slot] = sorted;
+    weightsOut[slot] = sortedWeights;
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.atris.thunderbolt.operations;
+
+import com.carrotsearch.hppc.IntIntOpenHashMap;
+import io.github.atris.thunderbolt.Fst;
+
+/**
+ * Matcher for fsts whose arcs are not sorted: the first time a state is visited its arcs are indexed in a hash table
+ * keyed by label, so every later lookup in that state is a single hash probe. The indexes are kept for the lifetime
+ * of the matcher, which pays off when the same states are matched over and over (e.g. the inner fst of a compose).
+ */
+public class HashMatcher extends IndexedMatcher {
+
+  public HashMatcher(Fst fst, MatchType matchType) {
+    super(fst, matchType);
+  }
+
+  @Override
+  protected Index buildIndex(int[] positions, int[] labels) {
+    return new HashIndex(positions, labels);
+  }
+
+  static class HashIndex extends Index {
+
+    private final IntIntOpenHashMap firstByLabel;
+
+    HashIndex(int[] positions, int[] labels) {
+      super(positions, labels);
+      this.firstByLabel = new IntIntOpenHashMap(labels.length);
+      for (int i = labels.length - 1; i >= 0; i--) {
+        firstByLabel.put(labels[i], i);
+      }
+    }
+
+    @Override
+    int first(int label) {
+      if (!firstByLabel.containsKey(label)) {
+        return -1;
+      }
+      return firstByLabel.lget();
+    }
+  }
+}
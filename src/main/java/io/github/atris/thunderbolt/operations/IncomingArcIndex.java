@@ -0,0 +1,91 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.operations;
+
+import io.github.atris.thunderbolt.Arc;
+import io.github.atris.thunderbolt.Fst;
+import io.github.atris.thunderbolt.State;
+
+/**
+ * Transposed view of the arcs of an fst in compressed sparse row form: for every state, the source state and weight
+ * of each arc that enters it, so backward algorithms can walk incoming arcs without building a reversed copy of the
+ * fst. The incoming arcs of a state are ordered by source state and then by arc index, which is the order of the
+ * arcs of the same state in `Reverse.reverse`.
+ *
+ * This is a snapshot: it has to be rebuilt if the fst changes.
+ */
+final class IncomingArcIndex {
+
+  private final int[] offsets; // by state: the incoming arcs of s are at [offsets[s], offsets[s + 1])
+  private final int[] sources;
+  private final double[] weights;
+
+  IncomingArcIndex(Fst fst) {
+    int stateCount = fst.getStateCount();
+    int[] counts = new int[stateCount + 1];
+    for (int s = 0; s < stateCount; s++) {
+      State state = fst.getState(s);
+      for (int a = 0; a < state.getArcCount(); a++) {
+        counts[state.getArc(a).getNextState().getId() + 1] += 1;
+      }
+    }
+    for (int s = 0; s < stateCount; s++) {
+      counts[s + 1] += counts[s];
+    }
+    this.offsets = counts.clone();
+    int arcCount = counts[stateCount];
+    this.sources = new int[arcCount];
+    this.weights = new double[arcCount];
+    // counts[s] is now the next free slot of state s
+    for (int s = 0; s < stateCount; s++) {
+      State state = fst.getState(s);
+      for (int a = 0; a < state.getArcCount(); a++) {
+        Arc arc = state.getArc(a);
+        int slot = counts[arc.getNextState().getId()]++;
+        sources[slot] = s;
+        weights[slot] = arc.getWeight();
+      }
+    }
+  }
+
+  int getStateCount() {
+    return offsets.length - 1;
+  }
+
+  /**
+   * @return the position of the first incoming arc of the given state; the incoming arcs of the state are at positions
+   * `start(state)` (inclusive) to `end(state)` (exclusive)
+   */
+  int start(int state) {
+    return offsets[state];
+  }
+
+  int end(int state) {
+    return offsets[state + 1];
+  }
+
+  /**
+   * @return the state that the incoming arc at the given position leaves from
+   */
+  int sourceAt(int position) {
+    return sources[position];
+  }
+
+  double weightAt(int position) {
+    return weights[position];
+  }
+}
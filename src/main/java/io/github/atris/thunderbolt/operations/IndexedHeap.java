@@ -0,0 +1,152 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.operations;
+
+import com.carrotsearch.hppc.sorting.IndirectComparator;
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Indexed 4-ary min heap of non negative int ids. The ordering is given by an `IndirectComparator` over the ids, so
+ * the priorities live wherever the caller keeps them (usually a parallel `double[]`) and nothing is boxed. Each id
+ * remembers its position in the heap, which makes `contains` O(1) and lets `update` restore the heap order after the
+ * priority of an id changed.
+ *
+ * The comparator should break ties itself (e.g. by id) when the order of equal priorities matters.
+ */
+final class IndexedHeap {
+
+  private static final int ARITY = 4;
+
+  private final IndirectComparator comparator;
+  private int[] heap = new int[16];
+  private int[] positions = new int[16]; // by id: position in the heap + 1, or 0 if not in the heap
+  private int size = 0;
+
+  IndexedHeap(IndirectComparator comparator) {
+    this.comparator = comparator;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  boolean contains(int id) {
+    return id < positions.length && positions[id] != 0;
+  }
+
+  void add(int id) {
+    Preconditions.checkArgument(id >= 0, "ids must be non negative", id);
+    Preconditions.checkArgument(!contains(id), "id %s is already in the heap", id);
+    if (id >= positions.length) {
+      positions = Arrays.copyOf(positions, Math.max(positions.length * 2, id + 1));
+    }
+    if (size == heap.length) {
+      heap = Arrays.copyOf(heap, size * 2);
+    }
+    size += 1;
+    siftUp(size - 1, id);
+  }
+
+  /**
+   * @return the id with the smallest priority, without removing it
+   */
+  int peek() {
+    Preconditions.checkState(size > 0, "the heap is empty");
+    return heap[0];
+  }
+
+  /**
+   * Removes and returns the id with the smallest priority
+   */
+  int removeFirst() {
+    int first = peek();
+    positions[first] = 0;
+    size -= 1;
+    if (size > 0) {
+      siftDown(0, heap[size]);
+    }
+    return first;
+  }
+
+  /**
+   * Restores the order of the heap after the priority of the given id changed (in either direction)
+   */
+  void update(int id) {
+    Preconditions.checkArgument(contains(id), "id %s is not in the heap", id);
+    int position = positions[id] - 1;
+    if (position > 0 && comparator.compare(id, heap[(position - 1) / ARITY]) < 0) {
+      siftUp(position, id);
+    } else {
+      siftDown(position, id);
+    }
+  }
+
+  void clear() {
+    for (int i = 0; i < size; i++) {
+      positions[heap[i]] = 0;
+    }
+    size = 0;
+  }
+
+  // moves the id up from the given (free) position until its parent is not larger
+  private void siftUp(int position, int id) {
+    while (position > 0) {
+      int parentPosition = (position - 1) / ARITY;
+      int parent = heap[parentPosition];
+      if (comparator.compare(id, parent) >= 0) {
+        break;
+      }
+      place(position, parent);
+      position = parentPosition;
+    }
+    place(position, id);
+  }
+
+  // moves the id down from the given (free) position until none of its children is smaller
+  private void siftDown(int position, int id) {
+    while (true) {
+      int firstChild = position * ARITY + 1;
+      if (firstChild >= size) {
+        break;
+      }
+      int lastChild = Math.min(firstChild + ARITY, size);
+      int smallest = firstChild;
+      for (int c = firstChild + 1; c < lastChild; c++) {
+        if (comparator.compare(heap[c], heap[smallest]) < 0) {
+          smallest = c;
+        }
+      }
+      if (comparator.compare(heap[smallest], id) >= 0) {
+        break;
+      }
+      place(position, heap[smallest]);
+      position = smallest;
+    }
+    place(position, id);
+  }
+
+  private void place(int position, int id) {
+    heap[position] = id;
+    positions[id] = position + 1;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.atris.thunderbolt.operations;
+
+import com.carrotsearch.hppc.IntObjectOpenHashMap;
+import io.github.atris.thunderbolt.Arc;
+import io.github.atris.thunderbolt.Fst;
+import io.github.atris.thunderbolt.State;
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Base of the matchers that build a label index the first time they see a state and keep it for the following
+ * visits. The index holds the positions of the arcs grouped by label (keeping the original order inside each group)
+ * plus a lookup from a label to the start of its group; subclasses decide how that lookup is done.
+ */
+abstract class IndexedMatcher implements Matcher {
+
+  private final Fst fst;
+  private final MatchType matchType;
+  private final IntObjectOpenHashMap<Index> indexes = new IntObjectOpenHashMap<>();
+  private State state;
+  private Index index;
+  private int label;
+  private int cursor; // position in index.positions, or positions.length when done
+
+  IndexedMatcher(Fst fst, MatchType matchType) {
+    this.fst = fst;
+    this.matchType = matchType;
+  }
+
+  /**
+   * Builds the label lookup of a state
+   * @param positions the arc positions grouped by label
+   * @param labels the label of each entry of `positions`, ascending
+   */
+  protected abstract Index buildIndex(int[] positions, int[] labels);
+
+  /**
+   * @return the number of states that have an index
+   */
+  public int getIndexedStateCount() {
+    return indexes.size();
+  }
+
+  @Override
+  public void setState(int stateId) {
+    this.state = fst.getState(stateId);
+    Index found = indexes.get(stateId);
+    if (found == null) {
+      found = indexState(state);
+      indexes.put(stateId, found);
+    }
+    this.index = found;
+    this.cursor = index.positions.length;
+  }
+
+  private Index indexState(State state) {
+    int arcCount = state.getArcCount();
+    // label in the high bits, position in the low bits: sorting groups by label and keeps the arc order in a group
+    long[] keys = new long[arcCount];
+    for (int i = 0; i < arcCount; i++) {
+      int arcLabel = matchType.labelOf(state.getArc(i));
+      Preconditions.checkState(arcLabel >= 0, "negative label %s in state %s", arcLabel, state.getId());
+      keys[i] = ((long) arcLabel << 32) | i;
+    }
+    Arrays.sort(keys);
+    int[] positions = new int[arcCount];
+    int[] labels = new int[arcCount];
+    for (int i = 0; i < arcCount; i++) {
+      positions[i] = (int) keys[i];
+      labels[i] = (int) (keys[i] >>> 32);
+    }
+    return buildIndex(positions, labels);
+  }
+
+  @Override
+  public boolean find(int label) {
+    Preconditions.checkState(state != null, "setState must be called before find");
+    this.label = label;
+    int first = index.first(label);
+    this.cursor = first < 0 ? index.positions.length : first;
+    return first >= 0;
+  }
+
+  @Override
+  public boolean done() {
+    return cursor >= index.positions.length;
+  }
+
+  @Override
+  public void next() {
+    cursor += 1;
+    if (cursor < index.labels.length && index.labels[cursor] != label) {
+      cursor = index.labels.length;
+    }
+  }
+
+  @Override
+  public int getPosition() {
+    return index.positions[cursor];
+  }
+
+  @Override
+  public Arc getArc() {
+    return state.getArc(index.positions[cursor]);
+  }
+
+  /**
+   * Arc positions of a state grouped by label, and a way to find where the group of a label starts
+   */
+  abstract static class Index {
+
+    final int[] positions;
+    final int[] labels;
+
+    Index(int[] positions, int[] labels) {
+      this.positions = positions;
+      this.labels = labels;
+    }
+
+    /**
+     * @return the index in `positions` of the first arc with the label, or -1 if there is none
+     */
+    abstract int first(int label);
+  }
+}
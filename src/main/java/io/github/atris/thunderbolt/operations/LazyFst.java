@@ -0,0 +1,371 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.operations;
+
+import com.carrotsearch.hppc.DoubleArrayList;
+import io.github.atris.thunderbolt.Arc;
+import io.github.atris.thunderbolt.Fst;
+import io.github.atris.thunderbolt.State;
+import io.github.atris.thunderbolt.SymbolTable;
+import io.github.atris.thunderbolt.semiring.Semiring;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class for delayed (on the fly) FSTs: states are numbered as they are discovered and the arcs of a state are
+ * only computed the first time somebody asks for them. Expanded states are kept in a bounded LRU cache; when a state
+ * is evicted its arcs are simply recomputed the next time they are needed (state ids never change).
+ *
+ * Subclasses register states with `addState` and compute the arcs of a state in `expand`.
+ *
+ * Note that `getStateCount()` has to explore the whole reachable FST to answer; use `getDiscoveredStateCount()` if
+ * you only need to know how far the expansion got.
+ *
+ * NOTE: this class is NOT thread safe
+ */
+public abstract class LazyFst implements Fst {
+
+  public static final int DEFAULT_CACHE_SIZE = 1 << 16;
+
+  private final Semiring semiring;
+  private final DoubleArrayList finalWeights = new DoubleArrayList();
+  private final LinkedHashMap<Integer, ExpandedArcs> cache;
+  private final ArcBuffer buffer = new ArcBuffer();
+  private boolean fullyExpanded = false;
+  private long expansionCount = 0;
+
+  protected LazyFst(Semiring semiring, final int maxCachedStates) {
+    Preconditions.checkArgument(maxCachedStates > 0, "the cache must hold at least one state");
+    this.semiring = semiring;
+    this.cache = new LinkedHashMap<Integer, ExpandedArcs>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, ExpandedArcs> eldest) {
+        return size() > maxCachedStates;
+      }
+    };
+  }
+
+  /**
+   * Registers a newly discovered state and returns its id
+   * @param finalWeight the final weight of the new state
+   * @return the id of the new state
+   */
+  protected int addState(double finalWeight) {
+    finalWeights.add(finalWeight);
+    return finalWeights.size() - 1;
+  }
+
+  /**
+   * Computes all of the outgoing arcs of the given (already discovered) state, adding them to `arcs`. Any states
+   * reached by these arcs must be registered via `addState`.
+   * @param stateId the state to expand
+   * @param arcs the sink for the outgoing arcs
+   */
+  protected abstract void expand(int stateId, ArcBuffer arcs);
+
+  /**
+   * The number of states discovered so far; doesn't trigger any expansion
+   * @return
+   */
+  public int getDiscoveredStateCount() {
+    return finalWeights.size();
+  }
+
+  /**
+   * The number of states currently holding their expanded arcs in the cache
+   * @return
+   */
+  public int getCachedStateCount() {
+    return cache.size();
+  }
+
+  /**
+   * The number of times `expand` has been called; larger than the number of states if states were evicted and then
+   * needed again
+   * @return
+   */
+  public long getExpansionCount() {
+    return expansionCount;
+  }
+
+  private ExpandedArcs arcsOf(int stateId) {
+    ExpandedArcs arcs = cache.get(stateId);
+    if (arcs == null) {
+      buffer.clear();
+      expand(stateId, buffer);
+      expansionCount += 1;
+      arcs = buffer.toExpandedArcs();
+      cache.put(stateId, arcs);
+    }
+    return arcs;
+  }
+
+  /**
+   * Expands every reachable state; after this the number of states is known
+   */
+  private void expandAll() {
+    if (fullyExpanded) {
+      return;
+    }
+    for (int i = 0; i < finalWeights.size(); i++) {
+      arcsOf(i);
+    }
+    fullyExpanded = true;
+  }
+
+  @Override
+  public State getStartState() {
+    return getState(0);
+  }
+
+  @Override
+  public Semiring getSemiring() {
+    return semiring;
+  }
+
+  /**
+   * The total number of states; NOTE this forces the expansion of the whole reachable FST
+   * @return
+   */
+  @Override
+  public int getStateCount() {
+    expandAll();
+    return finalWeights.size();
+  }
+
+  @Override
+  public LazyState getState(int index) {
+    Preconditions.checkElementIndex(index, finalWeights.size());
+    return new LazyState(this, index);
+  }
+
+  @Override
+  public State getState(String name) {
+    throw new IllegalStateException("cant use get by name if not using state symols");
+  }
+
+  @Nullable
+  @Override
+  public SymbolTable getStateSymbols() {
+    return null;
+  }
+
+  @Override
+  public boolean isUsingStateSymbols() {
+    return false;
+  }
+
+  @Override
+  public int getInputSymbolCount() {
+    return getInputSymbols().size();
+  }
+
+  @Override
+  public int getOutputSymbolCount() {
+    return getOutputSymbols().size();
+  }
+
+  @Override
+  public int lookupInputSymbol(String symbol) {
+    return getInputSymbols().get(symbol);
+  }
+
+  @Override
+  public int lookupOutputSymbol(String symbol) {
+    return getOutputSymbols().get(symbol);
+  }
+
+  @Override
+  public void throwIfInvalid() {
+    // states are created consistently as they are discovered
+  }
+
+  /**
+   * Growable primitive buffer that collects the arcs of the state being expanded
+   */
+  protected static final class ArcBuffer {
+
+    private int size = 0;
+    private int[] ilabels = new int[16];
+    private int[] olabels = new int[16];
+    private int[] nextStates = new int[16];
+    private double[] weights = new double[16];
+
+    public void add(int ilabel, int olabel, double weight, int nextStateId) {
+      if (size == ilabels.length) {
+        int newSize = size * 2;
+        ilabels = Arrays.copyOf(ilabels, newSize);
+        olabels = Arrays.copyOf(olabels, newSize);
+        nextStates = Arrays.copyOf(nextStates, newSize);
+        weights = Arrays.copyOf(weights, newSize);
+      }
+      ilabels[size] = ilabel;
+      olabels[size] = olabel;
+      nextStates[size] = nextStateId;
+      weights[size] = weight;
+      size += 1;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    void clear() {
+      size = 0;
+    }
+
+    ExpandedArcs toExpandedArcs() {
+      return new ExpandedArcs(Arrays.copyOf(ilabels, size), Arrays.copyOf(olabels, size),
+                              Arrays.copyOf(nextStates, size), Arrays.copyOf(weights, size));
+    }
+  }
+
+  private static final class ExpandedArcs {
+
+    private final int[] ilabels;
+    private final int[] olabels;
+    private final int[] nextStates;
+    private final double[] weights;
+
+    private ExpandedArcs(int[] ilabels, int[] olabels, int[] nextStates, double[] weights) {
+      this.ilabels = ilabels;
+      this.olabels = olabels;
+      this.nextStates = nextStates;
+      this.weights = weights;
+    }
+  }
+
+  /**
+   * View of a state of a lazy FST; asking for its arcs expands the state if it isn't cached
+   */
+  public static class LazyState implements State {
+
+    private final LazyFst fst;
+    private final int id;
+
+    LazyState(LazyFst fst, int id) {
+      this.fst = fst;
+      this.id = id;
+    }
+
+    @Override
+    public double getFinalWeight() {
+      return fst.finalWeights.get(id);
+    }
+
+    @Override
+    public int getId() {
+      return id;
+    }
+
+    @Override
+    public int getArcCount() {
+      return fst.arcsOf(id).ilabels.length;
+    }
+
+    @Override
+    public LazyArc getArc(int index) {
+      ExpandedArcs arcs = fst.arcsOf(id);
+      return new LazyArc(fst, arcs.ilabels[index], arcs.olabels[index], arcs.weights[index], arcs.nextStates[index]);
+    }
+
+    @Override
+    public List<LazyArc> getArcs() {
+      final ExpandedArcs arcs = fst.arcsOf(id);
+      return new AbstractList<LazyArc>() {
+        @Override
+        public LazyArc get(int index) {
+          return new LazyArc(fst, arcs.ilabels[index], arcs.olabels[index], arcs.weights[index],
+                             arcs.nextStates[index]);
+        }
+
+        @Override
+        public int size() {
+          return arcs.ilabels.length;
+        }
+      };
+    }
+
+    @Override
+    public String toString() {
+      return "LazyState{" +
+             "id=" + id +
+             ", finalWeight=" + getFinalWeight() +
+             '}';
+    }
+  }
+
+  /**
+   * An arc of a lazy FST; holds its own copy of the values so it stays valid after its state is evicted
+   */
+  public static class LazyArc implements Arc {
+
+    private final LazyFst fst;
+    private final int ilabel;
+    private final int olabel;
+    private final double weight;
+    private final int nextStateId;
+
+    LazyArc(LazyFst fst, int ilabel, int olabel, double weight, int nextStateId) {
+      this.fst = fst;
+      this.ilabel = ilabel;
+      this.olabel = olabel;
+      this.weight = weight;
+      this.nextStateId = nextStateId;
+    }
+
+    @Override
+    public double getWeight() {
+      return weight;
+    }
+
+    @Override
+    public int getIlabel() {
+      return ilabel;
+    }
+
+    @Override
+    public int getOlabel() {
+      return olabel;
+    }
+
+    @Override
+    public LazyState getNextState() {
+      return fst.getState(nextStateId);
+    }
+
+    public int getNextStateId() {
+      return nextStateId;
+    }
+
+    @Override
+    public String toString() {
+      return "LazyArc{" +
+             "ilabel=" + ilabel +
+             ", olabel=" + olabel +
+             ", weight=" + weight +
+             ", nextStateId=" + nextStateId +
+             '}';
+    }
+  }
+}
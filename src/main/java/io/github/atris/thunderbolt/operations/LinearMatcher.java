@@ -0,0 +1,78 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.atris.thunderbolt.operations;
+
+import io.github.atris.thunderbolt.Arc;
+import io.github.atris.thunderbolt.Fst;
+import io.github.atris.thunderbolt.State;
+import com.google.common.base.Preconditions;
+
+/**
+ * Matcher that simply scans all of the arcs of the state; for states with a handful of arcs nothing is faster
+ */
+public class LinearMatcher implements Matcher {
+
+  private final Fst fst;
+  private final MatchType matchType;
+  private State state;
+  private int arcCount;
+  private int label;
+  private int position;
+
+  public LinearMatcher(Fst fst, MatchType matchType) {
+    this.fst = fst;
+    this.matchType = matchType;
+  }
+
+  @Override
+  public void setState(int stateId) {
+    this.state = fst.getState(stateId);
+    this.arcCount = state.getArcCount();
+    this.position = arcCount;
+  }
+
+  @Override
+  public boolean find(int label) {
+    Preconditions.checkState(state != null, "setState must be called before find");
+    this.label = label;
+    this.position = -1;
+    next();
+    return !done();
+  }
+
+  @Override
+  public boolean done() {
+    return position >= arcCount;
+  }
+
+  @Override
+  public void next() {
+    position += 1;
+    while (position < arcCount && matchType.labelOf(state.getArc(position)) != label) {
+      position += 1;
+    }
+  }
+
+  @Override
+  public int getPosition() {
+    return position;
+  }
+
+  @Override
+  public Arc getArc() {
+    return state.getArc(position);
+  }
+}
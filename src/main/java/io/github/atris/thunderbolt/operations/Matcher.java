@@ -0,0 +1,96 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.atris.thunderbolt.operations;
+
+import io.github.atris.thunderbolt.Arc;
+
+/**
+ * Finds the arcs of a state that carry a given label on one side, e.g. the arcs of the inner fst that can follow an
+ * arc of the outer fst during {@link Compose}.
+ *
+ * Usage:
+ * <pre>
+ *   matcher.setState(stateId);
+ *   if (matcher.find(label)) {
+ *     for (; !matcher.done(); matcher.next()) {
+ *       Arc arc = matcher.getArc();
+ *       ...
+ *     }
+ *   }
+ * </pre>
+ *
+ * Matches are always reported in the order the arcs appear in the state, so swapping one implementation for another
+ * never changes the result of an operation. Use {@link AutoMatcher} to let the implementation be picked per state.
+ *
+ * A matcher is bound to one fst and may keep per-state indexes around; it must not be used after that fst changes.
+ *
+ * NOTE: matchers are NOT thread safe
+ */
+public interface Matcher {
+
+  /**
+   * Which label of the arcs is matched
+   */
+  enum MatchType {
+    INPUT {
+      @Override
+      public int labelOf(Arc arc) {
+        return arc.getIlabel();
+      }
+    },
+    OUTPUT {
+      @Override
+      public int labelOf(Arc arc) {
+        return arc.getOlabel();
+      }
+    };
+
+    public abstract int labelOf(Arc arc);
+  }
+
+  /**
+   * Positions the matcher on the given state of its fst; the matcher is done until the next `find`
+   * @param stateId the id of the state whose arcs will be searched
+   */
+  void setState(int stateId);
+
+  /**
+   * Looks up the arcs of the current state with the given label and positions the matcher on the first of them
+   * @param label the label to look for
+   * @return true if there is at least one matching arc
+   */
+  boolean find(int label);
+
+  /**
+   * @return true if there are no more arcs matching the label of the last `find`
+   */
+  boolean done();
+
+  /**
+   * Moves to the next matching arc
+   */
+  void next();
+
+  /**
+   * @return the index in its state of the current matching arc
+   */
+  int getPosition();
+
+  /**
+   * @return the current matching arc
+   */
+  Arc getArc();
+}
@@ -16,21 +16,15 @@
 
 package io.github.atris.thunderbolt.operations;
 
-import com.carrotsearch.hppc.IntObjectOpenHashMap;
-import com.carrotsearch.hppc.IntOpenHashSet;
 import io.github.atris.thunderbolt.MutableFst;
 import io.github.atris.thunderbolt.State;
 import io.github.atris.thunderbolt.Arc;
 import io.github.atris.thunderbolt.Fst;
-import io.github.atris.thunderbolt.IndexWeight;
 import io.github.atris.thunderbolt.MutableState;
 import io.github.atris.thunderbolt.semiring.Semiring;
-import com.google.common.collect.MinMaxPriorityQueue;
-import com.google.common.collect.Ordering;
+import com.carrotsearch.hppc.sorting.IndirectComparator;
 
-import java.util.Deque;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 /**
  * N-shortest paths operation.
@@ -43,67 +37,21 @@ import java.util.LinkedList;
 public class NShortestPaths {
 
   /**
-   * Calculates the shortest distances from each state to the final.
+   * Calculates the n-best shortest path from the initial to the final state.
    *
-   * See: M. Mohri, "Semiring Framework and Algorithms for Shortest-Distance Problems", Journal of Automata, Languages
-   * and Combinatorics, 7(3), pp. 321-350, 2002.
+   * The search runs as if the fst had a single super final state, reached from every final state by an epsilon arc
+   * that carries its final weight (see `ExtendFinal`), without building that copy: the super final state has the id
+   * `fst.getStateCount()`, no arcs, and final weight one.
    *
-   * @param fst the fst to calculate the shortest distances
-   * @return the array containing the shortest distances
-   */
-  private static double[] shortestDistance(Fst fst) {
-
-    Fst reversed = Reverse.reverse(fst);
-
-    double[] d = new double[reversed.getStateCount()];
-    double[] r = new double[reversed.getStateCount()];
-
-    Semiring semiring = reversed.getSemiring();
-
-    for (int i = 0; i < d.length; i++) {
-      d[i] = semiring.zero();
-      r[i] = semiring.zero();
-    }
-
-    IntObjectOpenHashMap<State> stateMap = new IntObjectOpenHashMap<>();
-    Deque<Integer> queue = new LinkedList<>();
-    IntOpenHashSet enqueuedStateIds = new IntOpenHashSet();
-
-    queue.addLast(reversed.getStartState().getId());
-    stateMap.put(reversed.getStartState().getId(), reversed.getStartState());
-
-    d[reversed.getStartState().getId()] = semiring.one();
-    r[reversed.getStartState().getId()] = semiring.one();
-
-    while (!queue.isEmpty()) {
-      int thisStateId = queue.removeFirst();
-      enqueuedStateIds.remove(thisStateId);
-      State thisState = stateMap.get(thisStateId);
-      double rnew = r[thisState.getId()];
-      r[thisState.getId()] = semiring.zero();
-
-      for (int i = 0; i < thisState.getArcCount(); i++) {
-        Arc arc = thisState.getArc(i);
-        State nextState = arc.getNextState();
-        double dnext = d[arc.getNextState().getId()];
-        double dnextnew = semiring.plus(dnext, semiring.times(rnew, arc.getWeight()));
-        if (dnext != dnextnew) {
-          d[arc.getNextState().getId()] = dnextnew;
-          r[arc.getNextState().getId()] = semiring.plus(r[arc.getNextState().getId()], semiring.times(rnew, arc.getWeight()));
-          int nextStateId = nextState.getId();
-          if (!enqueuedStateIds.contains(nextStateId)) {
-            queue.addLast(nextStateId);
-            enqueuedStateIds.add(nextStateId);
-            stateMap.put(nextStateId, nextState);
-          }
-        }
-      }
-    }
-    return d;
-  }
-
-  /**
-   * Calculates the n-best shortest path from the initial to the final state.
+   * It works on path ids: each partial path is the state it ends in, its weight and the id of the path it extends,
+   * all kept in parallel primitive arrays; the queue is an indexed heap of path ids ordered by the weight of the path
+   * times the shortest distance from its state to the final state. Paths with equal priorities are expanded in the
+   * order they were found.
+   *
+   * The priorities need the shortest distance from every state to the final states, so the whole reachable fst is
+   * visited no matter how few paths are asked for. A {@link LazyFst} (e.g. a {@link ComposeFst}) is therefore expanded
+   * into a MutableFst first, each of its states exactly once, and the search runs on that copy rather than expanding
+   * states again after the cache has evicted them.
    *
    * @param fst         the fst to calculate the nbest shortest paths
    * @param topk           number of best paths to return
@@ -111,85 +59,146 @@ public class NShortestPaths {
    */
   public static MutableFst apply(Fst fst, int topk) {
     fst.throwIfInvalid();
+    if (fst instanceof LazyFst) {
+      fst = expandOnce((LazyFst) fst);
+    }
     final Semiring semiring = fst.getSemiring();
-    final double[] d = shortestDistance(fst);
+    // distances to the final states, plus the super final state at the end
+    final int superFinal = fst.getStateCount();
+    final double[] d = Arrays.copyOf(ShortestDistance.backward(fst), superFinal + 1);
+    d[superFinal] = semiring.one();
+    int epsILabel = fst.getInputSymbols().get(Fst.EPS);
+    int epsOLabel = fst.getOutputSymbols().get(Fst.EPS);
 
     MutableFst res = MutableFst.emptyWithCopyOfSymbols(fst);
-    MutableFst copy = ExtendFinal.apply(fst);
 
-    int[] r = new int[copy.getStateCount()];
-    for (int i = 0; i < r.length; i++) {
-      r[i] = 0;
-    }
+    int[] r = new int[superFinal + 1];
 
-    MinMaxPriorityQueue<IndexWeight> qq = MinMaxPriorityQueue.orderedBy(new Ordering<IndexWeight>() {
+    final Paths paths = new Paths();
+    IndexedHeap queue = new IndexedHeap(new IndirectComparator() {
       @Override
-      public int compare(IndexWeight left, IndexWeight right) {
-        double dx = d[left.getIndex()];
-        double dy = d[right.getIndex()];
-        double wx = semiring.times(dx, left.getWeight());
-        double wy = semiring.times(dy, right.getWeight());
+      public int compare(int left, int right) {
+        double wx = paths.priorities[left];
+        double wy = paths.priorities[right];
         if (semiring.naturalLess(wx, wy)) {
           return -1;
         }
         if (semiring.naturalLess(wy, wx)) {
           return +1;
         }
-        return 0;
+        return Integer.compare(left, right);
       }
-    }).create();
-    HashMap<IndexWeight, IndexWeight> previous = new HashMap<>(copy.getStateCount());
-    // source -> res id
-    HashMap<IndexWeight, Integer> stateMap = new HashMap<>(copy.getStateCount());
-
-    State start = copy.getStartState();
-    IndexWeight first = new IndexWeight(start.getId(), semiring.one());
-    qq.add(first);
-    previous.put(first, null);
-
-    while (!qq.isEmpty()) {
-      IndexWeight pair = qq.removeFirst();
-      State prevOld = copy.getState(pair.getIndex());
-      double pairWeight = pair.getWeight();
-
-      MutableState resNext = new MutableState(prevOld.getFinalWeight());
+    });
+
+    int start = fst.getStartState().getId();
+    double startWeight = semiring.one();
+    queue.add(paths.add(start, startWeight, -1, semiring.times(d[start], startWeight)));
+
+    while (!queue.isEmpty()) {
+      int path = queue.removeFirst();
+      int stateIndex = paths.states[path];
+      double pairWeight = paths.weights[path];
+
+      MutableState resNext = new MutableState(stateIndex == superFinal ? semiring.one() : semiring.zero());
       res.addState(resNext);
-      stateMap.put(pair, resNext.getId());
-      IndexWeight prevEntry = previous.get(pair);
-      if (prevEntry == null) {
+      paths.resultStates[path] = resNext.getId();
+      int prevPath = paths.previous[path];
+      if (prevPath < 0) {
         // this is the start state
         res.setStart(resNext);
       } else {
         // add the incoming arc from previous to current
-        MutableState previousStateNew = res.getState(stateMap.get(prevEntry));
-        State previousOldState = copy.getState(prevEntry.getIndex());
-        int numArcs = previousOldState.getArcCount();
-        for (int j = 0; j < numArcs; j++) {
-          Arc a = previousOldState.getArc(j);
-          if (a.getNextState().getId() == prevOld.getId()) {
-            res.addArc(previousStateNew, a.getIlabel(), a.getOlabel(), resNext, a.getWeight());
+        MutableState previousStateNew = res.getState(paths.resultStates[prevPath]);
+        State previousOldState = fst.getState(paths.states[prevPath]);
+        if (stateIndex == superFinal) {
+          res.addArc(previousStateNew, epsILabel, epsOLabel, resNext, previousOldState.getFinalWeight());
+        } else {
+          int numArcs = previousOldState.getArcCount();
+          for (int j = 0; j < numArcs; j++) {
+            Arc a = previousOldState.getArc(j);
+            if (a.getNextState().getId() == stateIndex) {
+              res.addArc(previousStateNew, a.getIlabel(), a.getOlabel(), resNext, a.getWeight());
+            }
           }
         }
       }
 
-      int stateIndex = prevOld.getId();
       r[stateIndex]++;
 
-      if ((r[stateIndex] == topk) && (res.getSemiring().isNotZero(prevOld.getFinalWeight()))) {
+      if ((r[stateIndex] == topk) && stateIndex == superFinal) {
         break;
       }
 
-      if (r[stateIndex] <= topk) {
+      if (r[stateIndex] <= topk && stateIndex != superFinal) {
+        State prevOld = fst.getState(stateIndex);
         int numArcs = prevOld.getArcCount();
         for (int j = 0; j < numArcs; j++) {
           Arc a = prevOld.getArc(j);
+          int nextStateId = a.getNextState().getId();
           double cnew = semiring.times(pairWeight, a.getWeight());
-          IndexWeight next = new IndexWeight(a.getNextState().getId(), cnew);
-          previous.put(next, pair);
-          qq.add(next);
+          queue.add(paths.add(nextStateId, cnew, path, semiring.times(d[nextStateId], cnew)));
         }
+        if (semiring.isNotZero(prevOld.getFinalWeight())) {
+          double cnew = semiring.times(pairWeight, prevOld.getFinalWeight());
+          queue.add(paths.add(superFinal, cnew, path, semiring.times(d[superFinal], cnew)));
+        }
+      }
+    }
+    return res;
+  }
+
+  // states of a lazy fst are numbered as they are discovered, so walking the ids in order expands every reachable
+  // state once, right before its arcs are copied
+  private static MutableFst expandOnce(LazyFst fst) {
+    MutableFst res = MutableFst.emptyWithCopyOfSymbols(fst);
+    res.stopTrackingIncomingStates();
+    for (int i = 0; i < fst.getDiscoveredStateCount(); i++) {
+      State state = fst.getState(i);
+      MutableState resState = stateOf(res, fst, i);
+      int numArcs = state.getArcCount();
+      for (int j = 0; j < numArcs; j++) {
+        Arc a = state.getArc(j);
+        res.addArc(resState, a.getIlabel(), a.getOlabel(), stateOf(res, fst, a.getNextState().getId()), a.getWeight());
       }
     }
+    res.setStart(res.getState(fst.getStartState().getId()));
     return res;
   }
+
+  private static MutableState stateOf(MutableFst res, LazyFst fst, int id) {
+    while (res.getStateCount() <= id) {
+      res.newState(fst.getState(res.getStateCount()).getFinalWeight());
+    }
+    return res.getState(id);
+  }
+
+  /**
+   * The partial paths of the search as parallel arrays indexed by path id
+   */
+  private static final class Paths {
+
+    private int size = 0;
+    private int[] states = new int[16];
+    private int[] previous = new int[16]; // the path this one extends by one arc, or -1 for the start
+    private int[] resultStates = new int[16]; // the state of the result created when the path was dequeued
+    private double[] weights = new double[16];
+    private double[] priorities = new double[16];
+
+    int add(int state, double weight, int previousPath, double priority) {
+      if (size == states.length) {
+        int newSize = size * 2;
+        states = Arrays.copyOf(states, newSize);
+        previous = Arrays.copyOf(previous, newSize);
+        resultStates = Arrays.copyOf(resultStates, newSize);
+        weights = Arrays.copyOf(weights, newSize);
+        priorities = Arrays.copyOf(priorities, newSize);
+      }
+      states[size] = state;
+      previous[size] = previousPath;
+      resultStates[size] = -1;
+      weights[size] = weight;
+      priorities[size] = priority;
+      return size++;
+    }
+  }
 }
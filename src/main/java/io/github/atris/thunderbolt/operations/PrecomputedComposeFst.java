@@ -35,15 +35,13 @@ public class PrecomputedComposeFst {
   private final String eps2;
   private final ImmutableFst precomputed;
   private final FrozenSymbolTable inputSyms;
-  private final ImmutableFst filterFst;
 
-  PrecomputedComposeFst(String eps1, String eps2, ImmutableFst precomputed, Semiring semiring, ImmutableFst filterFst) {
+  PrecomputedComposeFst(String eps1, String eps2, ImmutableFst precomputed, Semiring semiring) {
     this.eps1 = eps1;
     this.eps2 = eps2;
     this.precomputed = precomputed;
     this.semiring = semiring;
     this.inputSyms = new FrozenSymbolTable(precomputed.getInputSymbols());
-    this.filterFst = filterFst;
   }
 
   ImmutableFst getFst() {
@@ -62,10 +60,6 @@ public class PrecomputedComposeFst {
     return semiring;
   }
 
-  ImmutableFst getFilterFst() {
-    return filterFst;
-  }
-
   /**
    * Returns the precomputed FST's input symbol table as a frozen table; for composes A o B this should be
    * used as the output symbol table of A and you should be careful not to require any symbols that the B won't have
@@ -17,7 +17,6 @@
 
 package io.github.atris.thunderbolt.operations;
 
-import io.github.atris.thunderbolt.MutableArc;
 import io.github.atris.thunderbolt.MutableFst;
 import io.github.atris.thunderbolt.MutableState;
 
@@ -43,11 +42,10 @@ public class Project {
       MutableState state = fst.getState(i);
       // Immutable fsts hold an additional (null) arc
       for (int j = 0; j < state.getArcCount(); j++) {
-        MutableArc a = state.getArc(j);
         if (pType == ProjectType.INPUT) {
-          a.setOlabel(a.getIlabel());
+          state.setOlabel(j, state.getIlabel(j));
         } else if (pType == ProjectType.OUTPUT) {
-          a.setIlabel(a.getOlabel());
+          state.setIlabel(j, state.getOlabel(j));
         }
       }
     }
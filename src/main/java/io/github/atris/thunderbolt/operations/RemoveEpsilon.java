@@ -24,11 +24,9 @@ import io.github.atris.thunderbolt.Fst;
 import io.github.atris.thunderbolt.MutableState;
 import com.google.common.base.Preconditions;
 
-import javax.annotation.Nullable;
-import java.util.HashMap;
-
 /**
- * Remove epsilon operation.
+ * Remove epsilon operation. The epsilon closures are computed by {@link EpsilonClosures}, which handles epsilon
+ * cycles and long epsilon chains without recursion.
  *
  * @author John Salatas jsalatas@users.sourceforge.net
  */
@@ -49,32 +47,25 @@ public class RemoveEpsilon {
     int iEps = fst.getInputSymbols().get(Fst.EPS);
     int oEps = fst.getOutputSymbols().get(Fst.EPS);
 
-    @SuppressWarnings("unchecked")
-    HashMap<Integer,Double>[] closure = new HashMap[fst.getStateCount()];
     MutableState[] oldToNewStateMap = new MutableState[fst.getStateCount()];
     State[] newToOldStateMap = new State[fst.getStateCount()];
     initResultStates(fst, result, oldToNewStateMap, newToOldStateMap);
-    addNonEpsilonArcs(fst, result, iEps, oEps, closure, oldToNewStateMap);
+    addNonEpsilonArcs(fst, result, iEps, oEps, oldToNewStateMap);
+    EpsilonClosures closures = new EpsilonClosures(fst, iEps, oEps);
 
     // augment fst with arcs generated from epsilon moves.
     for (int i = 0; i < result.getStateCount(); i++) {
       MutableState state = result.getState(i);
-      State oldState = newToOldStateMap[state.getId()];
-      if (closure[oldState.getId()] == null) {
-        continue;
-      }
-      for (Integer pathFinalStateIndex : closure[oldState.getId()].keySet()) {
-        State closureState = fst.getState(pathFinalStateIndex);
+      int oldStateId = newToOldStateMap[state.getId()].getId();
+      for (int k = 0; k < closures.size(oldStateId); k++) {
+        State closureState = fst.getState(closures.targetAt(oldStateId, k));
+        double pathWeight = closures.weightAt(oldStateId, k);
         if (semiring.isNotZero(closureState.getFinalWeight())) {
-          Double prevWeight = getPathWeight(oldState, closureState, closure);
-          Preconditions.checkNotNull(prevWeight, "problem with prev weight on closure from %s", oldState);
-          state.setFinalWeight(semiring.plus(state.getFinalWeight(), semiring.times(prevWeight, closureState.getFinalWeight())));
+          state.setFinalWeight(semiring.plus(state.getFinalWeight(), semiring.times(pathWeight, closureState.getFinalWeight())));
         }
         for (int j = 0; j < closureState.getArcCount(); j++) {
           Arc arc = closureState.getArc(j);
           if ((arc.getIlabel() != iEps) || (arc.getOlabel() != oEps)) {
-            Double pathWeight = getPathWeight(oldState, closureState, closure);
-            Preconditions.checkNotNull(pathWeight, "problem with prev weight on closure from %s", oldState);
             double newWeight = semiring.times(arc.getWeight(), pathWeight);
             MutableState nextState = oldToNewStateMap[arc.getNextState().getId()];
             result.addArc(state, arc.getIlabel(), arc.getOlabel(), nextState, newWeight);
@@ -89,7 +80,7 @@ public class RemoveEpsilon {
     return result;
   }
 
-  private static void addNonEpsilonArcs(Fst fst, MutableFst result, int iEps, int oEps, HashMap<Integer,Double>[] closure, MutableState[] oldToNewStateMap) {
+  private static void addNonEpsilonArcs(Fst fst, MutableFst result, int iEps, int oEps, MutableState[] oldToNewStateMap) {
     for (int i = 0; i < fst.getStateCount(); i++) {
       State state = fst.getState(i);
       // Add non-epsilon arcs
@@ -101,11 +92,6 @@ public class RemoveEpsilon {
           result.addArc(newState, arc.getIlabel(), arc.getOlabel(), resNextState, arc.getWeight());
         }
       }
-
-      // Compute epsilon closure
-      if (closure[state.getId()] == null) {
-        calculateClosure(fst, state, closure, fst.getSemiring(), iEps, oEps);
-      }
     }
   }
 
@@ -122,68 +108,4 @@ public class RemoveEpsilon {
       }
     }
   }
-
-  /**
-   * Put a new state in the epsilon closure
-   */
-  private static void put(State fromState, State toState, double weight, HashMap<Integer,Double>[] closure) {
-    HashMap<Integer,Double> maybe = closure[fromState.getId()];
-    if (maybe == null) {
-      maybe = new HashMap<Integer,Double>();
-      closure[fromState.getId()] = maybe;
-    }
-    maybe.put(toState.getId(), weight);
-  }
-
-  /**
-   * Add a state in the epsilon closure
-   */
-  private static void add(State fromState, State toState, double weight, HashMap<Integer,Double>[] closure, Semiring semiring) {
-    Double old = getPathWeight(fromState, toState, closure);
-    if (old == null) {
-      put(fromState, toState, weight, closure);
-    } else {
-      put(fromState, toState, semiring.plus(weight, old), closure);
-    }
-
-  }
-
-  /**
-   * Calculate the epsilon closure
-   */
-  private static void calculateClosure(Fst fst, State state, HashMap<Integer,Double>[] closure, Semiring semiring, int iEps, int oEps) {
-
-    for (int j = 0; j < state.getArcCount(); j++) {
-      Arc arc = state.getArc(j);
-      if ((arc.getIlabel() != iEps) || (arc.getOlabel() != oEps)) {
-        continue;
-      }
-      int nextStateId = arc.getNextState().getId();
-      if (closure[nextStateId] == null) {
-        calculateClosure(fst, arc.getNextState(), closure, semiring, iEps, oEps);
-      }
-      HashMap<Integer,Double> closureEntry = closure[nextStateId];
-      if (closureEntry != null) {
-        for (Integer pathFinalStateIndex : closureEntry.keySet()) {
-          State pathFinalState = fst.getState(pathFinalStateIndex);
-          Double prevPathWeight = getPathWeight(arc.getNextState(), pathFinalState, closure);
-          Preconditions.checkNotNull(prevPathWeight, "prev arc %s never set in closure", arc);
-          double newPathWeight = semiring.times(prevPathWeight, arc.getWeight());
-          add(state, pathFinalState, newPathWeight, closure, semiring);
-        }
-      }
-      add(state, arc.getNextState(), arc.getWeight(), closure, semiring);
-    }
-  }
-
-  /**
-   * Get an epsilon path's cost in epsilon closure
-   */
-  @Nullable
-  private static Double getPathWeight(State inState, State outState, HashMap<Integer,Double>[] closure) {
-    if (closure[inState.getId()] != null) {
-      return closure[inState.getId()].get(outState.getId());
-    }
-    return null;
-  }
 }
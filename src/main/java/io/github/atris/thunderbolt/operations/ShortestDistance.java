@@ -0,0 +1,308 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.operations;
+
+import com.carrotsearch.hppc.IntArrayDeque;
+import com.carrotsearch.hppc.sorting.IndirectComparator;
+import io.github.atris.thunderbolt.Arc;
+import io.github.atris.thunderbolt.Fst;
+import io.github.atris.thunderbolt.State;
+import io.github.atris.thunderbolt.semiring.Semiring;
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Single source shortest distance over the semiring of the fst, using the generic algorithm with a selectable queue
+ * discipline:
+ * <ul>
+ * <li>forward: the distance from the start state to each state</li>
+ * <li>backward: the distance from each state to the final states, i.e. the sum over the paths leaving the state of
+ * the path weight times the final weight it ends in</li>
+ * </ul>
+ * Distances of states that can't be reached (resp. can't reach a final state) are the semiring zero.
+ *
+ * A state is only requeued when its distance changes by more than `delta`, which is what makes the algorithm
+ * converge on cycles in non idempotent semirings such as the log semiring.
+ *
+ * See: M. Mohri, "Semiring Framework and Algorithms for Shortest-Distance Problems", Journal of Automata, Languages
+ * and Combinatorics, 7(3), pp. 321-350, 2002.
+ */
+public class ShortestDistance {
+
+  public static final double DEFAULT_DELTA = 1e-6;
+
+  public enum QueueType {
+
+    // visits the states in topological order so each state is expanded once; the fst must be acyclic
+    TOPOLOGICAL,
+
+    // always expands the state with the best distance; optimal for semirings with the path property
+    SHORTEST_FIRST,
+
+    // expands the states in the order they were (re)queued
+    FIFO,
+
+    // topological if the fst is acyclic, otherwise shortest first if the semiring has the path property and
+    // FIFO for the rest
+    AUTO
+  }
+
+  private ShortestDistance() {
+  }
+
+  public static double[] forward(Fst fst) {
+    return forward(fst, QueueType.AUTO, DEFAULT_DELTA);
+  }
+
+  public static double[] forward(Fst fst, QueueType queueType) {
+    return forward(fst, queueType, DEFAULT_DELTA);
+  }
+
+  /**
+   * Computes the distance from the start state to every state
+   * @param fst the fst
+   * @param queueType the queue discipline
+   * @param delta the convergence delta
+   * @return the distances, indexed by state id
+   */
+  public static double[] forward(Fst fst, QueueType queueType, double delta) {
+    fst.throwIfInvalid();
+    int[] order = orderFor(fst, queueType);
+    Computation computation = new Computation(fst.getSemiring(), fst.getStateCount(),
+                                              resolve(queueType, order, fst.getSemiring()), delta);
+    Semiring semiring = fst.getSemiring();
+    computation.relax(fst.getStartState().getId(), semiring.one());
+
+    if (computation.queueType == QueueType.TOPOLOGICAL) {
+      for (int state : order) {
+        expandForward(fst, computation, state);
+      }
+    } else {
+      while (!computation.isEmpty()) {
+        expandForward(fst, computation, computation.next());
+      }
+    }
+    return computation.distances;
+  }
+
+  private static void expandForward(Fst fst, Computation computation, int stateId) {
+    double rnew = computation.takeResidual(stateId);
+    if (computation.semiring.isZero(rnew)) {
+      return;
+    }
+    State state = fst.getState(stateId);
+    for (int i = 0; i < state.getArcCount(); i++) {
+      Arc arc = state.getArc(i);
+      computation.relax(arc.getNextState().getId(), computation.semiring.times(rnew, arc.getWeight()));
+    }
+  }
+
+  public static double[] backward(Fst fst) {
+    return backward(fst, QueueType.AUTO, DEFAULT_DELTA);
+  }
+
+  public static double[] backward(Fst fst, QueueType queueType) {
+    return backward(fst, queueType, DEFAULT_DELTA);
+  }
+
+  /**
+   * Computes the distance from every state to the final states; the arcs are walked backwards through an
+   * {@link IncomingArcIndex}, starting from the final states with their final weights
+   * @param fst the fst
+   * @param queueType the queue discipline
+   * @param delta the convergence delta
+   * @return the distances, indexed by state id
+   */
+  public static double[] backward(Fst fst, QueueType queueType, double delta) {
+    fst.throwIfInvalid();
+    int[] order = orderFor(fst, queueType);
+    Semiring semiring = fst.getSemiring();
+    IncomingArcIndex incoming = new IncomingArcIndex(fst);
+    Computation computation = new Computation(semiring, fst.getStateCount(), resolve(queueType, order, semiring),
+                                              delta);
+    // the final weights are the arcs into a virtual super final state whose distance is one
+    for (int s = 0; s < fst.getStateCount(); s++) {
+      double finalWeight = fst.getState(s).getFinalWeight();
+      if (semiring.isNotZero(finalWeight)) {
+        computation.relax(s, finalWeight);
+      }
+    }
+
+    if (computation.queueType == QueueType.TOPOLOGICAL) {
+      for (int i = order.length - 1; i >= 0; i--) {
+        expandBackward(incoming, computation, order[i]);
+      }
+    } else {
+      while (!computation.isEmpty()) {
+        expandBackward(incoming, computation, computation.next());
+      }
+    }
+    return computation.distances;
+  }
+
+  private static void expandBackward(IncomingArcIndex incoming, Computation computation, int stateId) {
+    double rnew = computation.takeResidual(stateId);
+    if (computation.semiring.isZero(rnew)) {
+      return;
+    }
+    for (int i = incoming.start(stateId); i < incoming.end(stateId); i++) {
+      computation.relax(incoming.sourceAt(i), computation.semiring.times(incoming.weightAt(i), rnew));
+    }
+  }
+
+  // the topological order is only worth computing when the queue type might use it
+  private static int[] orderFor(Fst fst, QueueType queueType) {
+    if (queueType == QueueType.TOPOLOGICAL || queueType == QueueType.AUTO) {
+      return topologicalOrder(fst);
+    }
+    return null;
+  }
+
+  private static QueueType resolve(QueueType queueType, int[] order, Semiring semiring) {
+    if (queueType == QueueType.TOPOLOGICAL) {
+      Preconditions.checkArgument(order != null, "the fst has cycles so it has no topological order");
+      return queueType;
+    }
+    if (queueType != QueueType.AUTO) {
+      return queueType;
+    }
+    if (order != null) {
+      return QueueType.TOPOLOGICAL;
+    }
+    return semiring.hasPathProperty() ? QueueType.SHORTEST_FIRST : QueueType.FIFO;
+  }
+
+  /**
+   * Returns the states of the fst in a topological order (Kahn's algorithm, so no recursion), or null if the fst
+   * has a cycle
+   */
+  static int[] topologicalOrder(Fst fst) {
+    int stateCount = fst.getStateCount();
+    int[] inDegrees = new int[stateCount];
+    for (int s = 0; s < stateCount; s++) {
+      State state = fst.getState(s);
+      for (int i = 0; i < state.getArcCount(); i++) {
+        inDegrees[state.getArc(i).getNextState().getId()] += 1;
+      }
+    }
+    int[] order = new int[stateCount];
+    int head = 0;
+    int tail = 0;
+    for (int s = 0; s < stateCount; s++) {
+      if (inDegrees[s] == 0) {
+        order[tail++] = s;
+      }
+    }
+    while (head < tail) {
+      State state = fst.getState(order[head++]);
+      for (int i = 0; i < state.getArcCount(); i++) {
+        int next = state.getArc(i).getNextState().getId();
+        inDegrees[next] -= 1;
+        if (inDegrees[next] == 0) {
+          order[tail++] = next;
+        }
+      }
+    }
+    return tail == stateCount ? order : null;
+  }
+
+  /**
+   * The distances, the residuals (the part of the distance not propagated yet) and the queue of one run
+   */
+  private static final class Computation {
+
+    private final Semiring semiring;
+    private final QueueType queueType;
+    private final double delta;
+    private final double[] distances;
+    private final double[] residuals;
+    private final IntArrayDeque fifo;
+    private final boolean[] enqueued;
+    private final IndexedHeap heap;
+
+    Computation(final Semiring semiring, int stateCount, QueueType queueType, double delta) {
+      this.semiring = semiring;
+      this.queueType = queueType;
+      this.delta = delta;
+      this.distances = new double[stateCount];
+      this.residuals = new double[stateCount];
+      Arrays.fill(distances, semiring.zero());
+      Arrays.fill(residuals, semiring.zero());
+      this.fifo = queueType == QueueType.FIFO ? new IntArrayDeque() : null;
+      this.enqueued = queueType == QueueType.FIFO ? new boolean[stateCount] : null;
+      this.heap = queueType == QueueType.SHORTEST_FIRST ? new IndexedHeap(new IndirectComparator() {
+        @Override
+        public int compare(int a, int b) {
+          if (semiring.naturalLess(distances[a], distances[b])) {
+            return -1;
+          }
+          if (semiring.naturalLess(distances[b], distances[a])) {
+            return 1;
+          }
+          return Integer.compare(a, b);
+        }
+      }) : null;
+    }
+
+    void relax(int state, double weight) {
+      double old = distances[state];
+      double updated = semiring.plus(old, weight);
+      if (old == updated || Math.abs(old - updated) <= delta) {
+        return;
+      }
+      distances[state] = updated;
+      residuals[state] = semiring.plus(residuals[state], weight);
+      switch (queueType) {
+        case FIFO:
+          if (!enqueued[state]) {
+            fifo.addLast(state);
+            enqueued[state] = true;
+          }
+          break;
+        case SHORTEST_FIRST:
+          if (heap.contains(state)) {
+            heap.update(state);
+          } else {
+            heap.add(state);
+          }
+          break;
+        default:
+          // topological runs don't queue anything
+      }
+    }
+
+    double takeResidual(int state) {
+      double residual = residuals[state];
+      residuals[state] = semiring.zero();
+      return residual;
+    }
+
+    boolean isEmpty() {
+      return queueType == QueueType.FIFO ? fifo.isEmpty() : heap.isEmpty();
+    }
+
+    int next() {
+      if (queueType == QueueType.FIFO) {
+        int state = fifo.removeFirst();
+        enqueued[state] = false;
+        return state;
+      }
+      return heap.removeFirst();
+    }
+  }
+}
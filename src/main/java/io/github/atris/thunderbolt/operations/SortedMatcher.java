@@ -0,0 +1,107 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.atris.thunderbolt.operations;
+
+import io.github.atris.thunderbolt.Arc;
+import io.github.atris.thunderbolt.Fst;
+import io.github.atris.thunderbolt.State;
+import com.google.common.base.Preconditions;
+
+/**
+ * Matcher that binary searches the arcs of the state; the arcs must be sorted on the matched label (see
+ * {@link ArcSort})
+ */
+public class SortedMatcher implements Matcher {
+
+  private final Fst fst;
+  private final MatchType matchType;
+  private State state;
+  private int arcCount;
+  private int label;
+  private int position;
+
+  public SortedMatcher(Fst fst, MatchType matchType) {
+    this.fst = fst;
+    this.matchType = matchType;
+  }
+
+  @Override
+  public void setState(int stateId) {
+    this.state = fst.getState(stateId);
+    this.arcCount = state.getArcCount();
+    this.position = arcCount;
+    assert isSortedByLabel() : "arcs of state " + stateId + " are not sorted by " + matchType;
+  }
+
+  private boolean isSortedByLabel() {
+    for (int i = 1; i < arcCount; i++) {
+      if (matchType.labelOf(state.getArc(i - 1)) > matchType.labelOf(state.getArc(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean find(int label) {
+    Preconditions.checkState(state != null, "setState must be called before find");
+    this.label = label;
+    // lower bound: the first arc whose label is >= the one we are looking for
+    int low = 0;
+    int high = arcCount;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (matchType.labelOf(state.getArc(mid)) < label) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    this.position = low;
+    if (!isMatch(position)) {
+      this.position = arcCount;
+      return false;
+    }
+    return true;
+  }
+
+  private boolean isMatch(int index) {
+    return index < arcCount && matchType.labelOf(state.getArc(index)) == label;
+  }
+
+  @Override
+  public boolean done() {
+    return position >= arcCount;
+  }
+
+  @Override
+  public void next() {
+    position += 1;
+    if (!isMatch(position)) {
+      position = arcCount;
+    }
+  }
+
+  @Override
+  public int getPosition() {
+    return position;
+  }
+
+  @Override
+  public Arc getArc() {
+    return state.getArc(position);
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.operations;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table that assigns dense ids (0, 1, 2, ...) to state tuples packed into a long, e.g.
+ * `(state1 << 32) | state2` for a pair of states. Nothing is boxed and nothing is allocated per lookup: the slots only
+ * hold `id + 1` and the packed keys are stored once, indexed by id, so the tuple of an id can be recovered as well.
+ */
+final class StatePairTable {
+
+  private static final int MIN_CAPACITY = 16;
+
+  private int[] slots; // id + 1 of the key hashed here, or 0 if empty
+  private long[] keys; // by id
+  private int size = 0;
+  private int mask;
+
+  StatePairTable() {
+    this(MIN_CAPACITY);
+  }
+
+  StatePairTable(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    this.slots = new int[capacity];
+    this.mask = capacity - 1;
+    this.keys = new long[Math.max(expectedSize, MIN_CAPACITY)];
+  }
+
+  static long pack(int left, int right) {
+    return ((long) left << 32) | (right & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Returns the id of the given pair, assigning the next id if it hasn't been seen before; compare `size()` before
+   * and after the call to know if the pair was new
+   */
+  int findOrAdd(int left, int right) {
+    return findOrAdd(pack(left, right));
+  }
+
+  int findOrAdd(long key) {
+    int slot = hash(key) & mask;
+    while (true) {
+      int entry = slots[slot];
+      if (entry == 0) {
+        break;
+      }
+      if (keys[entry - 1] == key) {
+        return entry - 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+    int id = size;
+    if (id == keys.length) {
+      keys = Arrays.copyOf(keys, id * 2);
+    }
+    keys[id] = key;
+    slots[slot] = id + 1;
+    size += 1;
+    if (size * 2 > slots.length) {
+      rehash(slots.length * 2);
+    }
+    return id;
+  }
+
+  /**
+   * Returns the id of the given pair or -1 if it was never added
+   */
+  int find(long key) {
+    int slot = hash(key) & mask;
+    while (true) {
+      int entry = slots[slot];
+      if (entry == 0) {
+        return -1;
+      }
+      if (keys[entry - 1] == key) {
+        return entry - 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  long getKey(int id) {
+    Preconditions.checkElementIndex(id, size);
+    return keys[id];
+  }
+
+  int getLeft(int id) {
+    return (int) (getKey(id) >>> 32);
+  }
+
+  int getRight(int id) {
+    return (int) getKey(id);
+  }
+
+  int size() {
+    return size;
+  }
+
+  private void rehash(int newCapacity) {
+    Preconditions.checkState(newCapacity > 0, "state table is too large");
+    int[] newSlots = new int[newCapacity];
+    int newMask = newCapacity - 1;
+    for (int id = 0; id < size; id++) {
+      int slot = hash(keys[id]) & newMask;
+      while (newSlots[slot] != 0) {
+        slot = (slot + 1) & newMask;
+      }
+      newSlots[slot] = id + 1;
+    }
+    this.slots = newSlots;
+    this.mask = newMask;
+  }
+
+  private static int hash(long key) {
+    // murmur3 finalizer; spreads the bits of both states over the whole int
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+}
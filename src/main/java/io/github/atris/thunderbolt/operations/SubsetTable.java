@@ -0,0 +1,142 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.atris.thunderbolt.operations;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Interns the subsets that make up the states of a determinized FST. A subset is a list of (input state, residual id)
+ * pairs sorted by input state; every distinct subset is stored once, back to back in a shared int pool, and gets the
+ * next dense id (0, 1, 2, ...). Lookups hash the pairs of the candidate subset and only compare against stored subsets
+ * with the same (cached) hash, so nothing is allocated to find a subset that is already known.
+ */
+final class SubsetTable {
+
+  private static final int MIN_CAPACITY = 16;
+
+  private int[] pool = new int[64]; // the pairs of all subsets, by id
+  private int poolSize = 0;
+  private int[] offsets = new int[MIN_CAPACITY + 1]; // start of each subset in the pool; offsets[size] == poolSize
+  private int[] hashes = new int[MIN_CAPACITY];
+  private int[] slots = new int[MIN_CAPACITY * 2]; // id + 1 of the subset hashed here, or 0 if empty
+  private int size = 0;
+
+  /**
+   * Returns the id of the given subset, assigning the next id if it hasn't been seen before; compare `size()`
+   * before and after the call to know if the subset was new
+   * @param pairs state0, residual0, state1, residual1, ... sorted by state
+   * @param length the number of ints of `pairs` to use (twice the number of elements)
+   */
+  int findOrAdd(int[] pairs, int length) {
+    Preconditions.checkArgument(length % 2 == 0, "subsets are made of (state, residual) pairs");
+    int hash = hash(pairs, length);
+    int mask = slots.length - 1;
+    int slot = hash & mask;
+    while (slots[slot] != 0) {
+      int id = slots[slot] - 1;
+      if (hashes[id] == hash && matches(id, pairs, length)) {
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+    int id = add(pairs, length, hash);
+    slots[slot] = id + 1;
+    if (size * 2 > slots.length) {
+      rehash(slots.length * 2);
+    }
+    return id;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of (state, residual) pairs in the subset
+   */
+  int elementCount(int id) {
+    Preconditions.checkElementIndex(id, size);
+    return (offsets[id + 1] - offsets[id]) / 2;
+  }
+
+  int stateOf(int id, int element) {
+    return pool[offsets[id] + element * 2];
+  }
+
+  int residualOf(int id, int element) {
+    return pool[offsets[id] + element * 2 + 1];
+  }
+
+  private boolean matches(int id, int[] pairs, int length) {
+    int start = offsets[id];
+    if (offsets[id + 1] - start != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (pool[start + i] != pairs[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int add(int[] pairs, int length, int hash) {
+    int id = size;
+    if (poolSize + length > pool.length) {
+      pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + length));
+    }
+    System.arraycopy(pairs, 0, pool, poolSize, length);
+    poolSize += length;
+    if (id == hashes.length) {
+      hashes = Arrays.copyOf(hashes, id * 2);
+      offsets = Arrays.copyOf(offsets, id * 2 + 1);
+    }
+    hashes[id] = hash;
+    offsets[id + 1] = poolSize;
+    size += 1;
+    return id;
+  }
+
+  private void rehash(int newCapacity) {
+    Preconditions.checkState(newCapacity > 0, "subset table is too large");
+    int[] newSlots = new int[newCapacity];
+    int newMask = newCapacity - 1;
+    for (int id = 0; id < size; id++) {
+      int slot = hashes[id] & newMask;
+      while (newSlots[slot] != 0) {
+        slot = (slot + 1) & newMask;
+      }
+      newSlots[slot] = id + 1;
+    }
+    this.slots = newSlots;
+  }
+
+  private static int hash(int[] pairs, int length) {
+    int h = length;
+    for (int i = 0; i < length; i++) {
+      h = 31 * h + pairs[i];
+    }
+    // murmur3 finalizer, the low bits pick the slot
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
@@ -23,8 +23,6 @@ import com.google.common.collect.Ordering;
 import com.google.common.math.DoubleMath;
 import org.apache.commons.lang3.tuple.Pair;
 
-import java.util.Objects;
-
 import static io.github.atris.thunderbolt.semiring.GallicSemiring.GallicMode.MIN_GALLIC;
 import static io.github.atris.thunderbolt.semiring.GallicSemiring.GallicMode.RESTRICT_GALLIC;
 
@@ -54,17 +52,20 @@ public class GallicSemiring implements GenericSemiring<GallicWeight> {
   public static final Ordering<GallicWeight> SHORTLEX_ORDERING = new Ordering<GallicWeight>() {
     @Override
     public int compare(final GallicWeight left, final GallicWeight right) {
-      IntArrayList s1 = left.labels;
-      IntArrayList s2 = right.labels;
+      LabelSequence s1 = left.labels;
+      LabelSequence s2 = right.labels;
       int s1Size = s1.size();
       int s2Size = s2.size();
       if (s1Size < s2Size) return -1;
       if (s1Size > s2Size) return 1;
-      for (int i = 0; i < s1Size; i++) {
-        int l1 = s1.get(i);
-        int l2 = s2.get(i);
+      // sequences are interned so we can stop as soon as the remaining tails are the same
+      while (s1 != s2) {
+        int l1 = s1.head();
+        int l2 = s2.head();
         if (l1 < l2) return -1;
         if (l1 > l2) return 1;
+        s1 = s1.tail();
+        s2 = s2.tail();
       }
       return 0;
     }
@@ -104,13 +105,13 @@ public class GallicSemiring implements GenericSemiring<GallicWeight> {
     if (isZero(a)) return b;
     if (isZero(b)) return a;
     if (mode == RESTRICT_GALLIC) {
-      if (SHORTLEX_ORDERING.compare(a, b) != 0) {
+      if (a.getLabels() != b.getLabels()) {
         throw new IllegalArgumentException("Trying to plus two different gallic weights, which isn't allowed in " +
           "this context. Did you pass a non-functional FST where a functional one was required? a = " + a +
           "; b = " + b);
       }
       double newWeight = this.weightSemiring.plus(a.getWeight(), b.getWeight());
-      return GallicWeight.create(new IntArrayList(a.getLabels()), newWeight);
+      return GallicWeight.create(a.getLabels(), newWeight);
     } else {
       Preconditions.checkState(mode == MIN_GALLIC);
       return this.weightSemiring.naturalLess(a.getWeight(), b.getWeight()) ? a : b;
@@ -133,11 +134,8 @@ public class GallicSemiring implements GenericSemiring<GallicWeight> {
     if (isZero(a) || isZero(b)) {
       return zero;
     }
-    IntArrayList newOutputLabels = new IntArrayList();
-    newOutputLabels.addAll(a.getLabels());
-    newOutputLabels.addAll(b.getLabels());
     double newWeight = this.weightSemiring.times(a.getWeight(), b.getWeight());
-    return GallicWeight.create(newOutputLabels, newWeight);
+    return GallicWeight.create(a.getLabels().concat(b.getLabels()), newWeight);
   }
 
   /**
@@ -151,10 +149,7 @@ public class GallicSemiring implements GenericSemiring<GallicWeight> {
   public GallicWeight divide(GallicWeight a, GallicWeight b) {
     if (isZero(a)) return zero;
     Preconditions.checkArgument(isNotZero(b), "cant divide by zero");
-    IntArrayList newOutputLabels = new IntArrayList();
-    for (int i = b.getLabels().size(); i < a.getLabels().size(); i++) {
-      newOutputLabels.add(a.getLabels().get(i));
-    }
+    LabelSequence newOutputLabels = a.getLabels().drop(Math.min(b.getLabels().size(), a.getLabels().size()));
     double newWeight = this.weightSemiring.divide(a.getWeight(), b.getWeight());
     return GallicWeight.create(newOutputLabels, newWeight);
   }
@@ -181,7 +176,7 @@ public class GallicSemiring implements GenericSemiring<GallicWeight> {
     if (!DoubleMath.fuzzyEquals(a.getWeight(), b.getWeight(), Semiring.DEFAULT_APPROX_EQUAL)) {
       return false;
     }
-    return a.getLabels().equals(b.getLabels());
+    return a.getLabels() == b.getLabels();
   }
 
   @Override
@@ -210,20 +205,20 @@ public class GallicSemiring implements GenericSemiring<GallicWeight> {
         return GallicWeight.create(GallicWeight.EMPTY, newWeight);
       }
       // just the first char of b
-      return GallicWeight.createSingleLabel(b.getLabels().get(0), newWeight);
+      return GallicWeight.createSingleLabel(b.getLabels().head(), newWeight);
     } else if (isZero(b)) {
       if (a.getLabels().isEmpty()) {
         return GallicWeight.create(GallicWeight.EMPTY, newWeight);
       }
       // just the first char of a
-      return GallicWeight.createSingleLabel(a.getLabels().get(0), newWeight);
+      return GallicWeight.createSingleLabel(a.getLabels().head(), newWeight);
     } else {
       // neither are zero, emit one char if they share it, otherwise empty
       if (a.getLabels().isEmpty() || b.getLabels().isEmpty()) {
         return GallicWeight.create(GallicWeight.EMPTY, newWeight);
       }
-      if (a.getLabels().get(0) == b.getLabels().get(0)) {
-        return GallicWeight.createSingleLabel(a.getLabels().get(0), newWeight);
+      if (a.getLabels().head() == b.getLabels().head()) {
+        return GallicWeight.createSingleLabel(a.getLabels().head(), newWeight);
       }
       return GallicWeight.create(GallicWeight.EMPTY, newWeight);
     }
@@ -238,20 +233,15 @@ public class GallicSemiring implements GenericSemiring<GallicWeight> {
    */
   public Pair<GallicWeight, GallicWeight> factorize(GallicWeight weight) {
     Preconditions.checkArgument(isNotZero(weight), "cannot factorize a zero weight");
-    IntArrayList labels = weight.getLabels();
+    LabelSequence labels = weight.getLabels();
     if (labels.isEmpty()) {
       return Pair.of(GallicWeight.createEmptyLabels(weight.getWeight()), one());
     }
     if (labels.size() == 1) {
-      return Pair.of(GallicWeight.createSingleLabel(labels.get(0), weight.getWeight()), one());
-    }
-    IntArrayList prefix = new IntArrayList(1);
-    IntArrayList suffix = new IntArrayList(labels.size() - 1);
-    prefix.add(labels.get(0));
-    for (int i = 1; i < labels.size(); i++) {
-      suffix.add(labels.get(i));
+      return Pair.of(weight, one());
     }
-    return Pair.of(GallicWeight.create(prefix, weight.getWeight()), GallicWeight.create(suffix, weightSemiring.one()));
+    return Pair.of(GallicWeight.createSingleLabel(labels.head(), weight.getWeight()),
+      GallicWeight.create(labels.tail(), weightSemiring.one()));
   }
 
   /**
@@ -261,7 +251,7 @@ public class GallicSemiring implements GenericSemiring<GallicWeight> {
    */
   public static class GallicWeight {
 
-    private static final IntArrayList EMPTY = new IntArrayList(); // treat as immutable
+    private static final LabelSequence EMPTY = LabelSequence.empty();
 
     /**
      * Construct a gallic weight for a specific list of labels
@@ -270,9 +260,7 @@ public class GallicSemiring implements GenericSemiring<GallicWeight> {
      * @param labels labels
      */
     public static GallicWeight createFromGiven(final double weight, int... labels) {
-      IntArrayList list = new IntArrayList(labels.length);
-      list.add(labels);
-      return new GallicWeight(list, weight);
+      return new GallicWeight(LabelSequence.of(labels), weight);
     }
 
     /**
@@ -293,9 +281,7 @@ public class GallicSemiring implements GenericSemiring<GallicWeight> {
      * @return
      */
     public static GallicWeight createSingleLabel(final int singleLabel, final double weight) {
-      IntArrayList labels = new IntArrayList(1);
-      labels.add(singleLabel);
-      return new GallicWeight(labels, weight);
+      return new GallicWeight(LabelSequence.cons(singleLabel, EMPTY), weight);
     }
 
     /**
@@ -305,15 +291,23 @@ public class GallicSemiring implements GenericSemiring<GallicWeight> {
      * @param weight
      * @return
      */
-    public static GallicWeight create(IntArrayList labels, double weight) {
-      if (labels.isEmpty()) {
-        labels = EMPTY; // help weak gen hypoth for common empty case (& maybe elide alloc after inlining)
-      }
+    public static GallicWeight create(LabelSequence labels, double weight) {
       return new GallicWeight(labels, weight);
     }
 
+    /**
+     * Create a gallic weight with a copy of the given list of output labels and weight
+     *
+     * @param labels
+     * @param weight
+     * @return
+     */
+    public static GallicWeight create(IntArrayList labels, double weight) {
+      return new GallicWeight(LabelSequence.copyOf(labels), weight);
+    }
+
     private final double weight;
-    private final IntArrayList labels; // treat as immutable
+    private final LabelSequence labels;
 
     // zero constructor; use semiring's zero method to get the singleton instance
     GallicWeight(double primitiveZero) {
@@ -321,7 +315,7 @@ public class GallicSemiring implements GenericSemiring<GallicWeight> {
       this.labels = null;
     }
 
-    private GallicWeight(final IntArrayList labels, final double weight) {
+    private GallicWeight(final LabelSequence labels, final double weight) {
       this.labels = labels;
       this.weight = weight;
     }
@@ -331,12 +325,12 @@ public class GallicSemiring implements GenericSemiring<GallicWeight> {
     }
 
     /**
-     * returns the output label list in this gallic weight; DO NOT MODIFY the returned array. Treat it as
-     * immutable
+     * returns the output label sequence in this gallic weight; sequences are interned so they can be compared by
+     * reference
      *
-     * @return output label list
+     * @return output label sequence
      */
-    public IntArrayList getLabels() {
+    public LabelSequence getLabels() {
       return labels;
     }
 
@@ -345,13 +339,12 @@ public class GallicSemiring implements GenericSemiring<GallicWeight> {
       if (this == o) return true;
       if (o == null || getClass() != o.getClass()) return false;
       GallicWeight that = (GallicWeight) o;
-      return Double.compare(that.weight, weight) == 0 &&
-        Objects.equals(labels, that.labels);
+      return Double.compare(that.weight, weight) == 0 && labels == that.labels;
     }
 
     @Override
     public int hashCode() {
-      return Objects.hash(weight, labels);
+      return 31 * Double.hashCode(weight) + (labels == null ? 0 : labels.hashCode());
     }
 
     @Override
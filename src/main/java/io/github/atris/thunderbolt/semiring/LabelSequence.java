@@ -0,0 +1,185 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.semiring;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Immutable, hash-consed sequence of labels (the string part of a gallic weight). A sequence is a cons cell of its
+ * first label and the (shared) sequence of the remaining labels, and every cell is interned: two equal sequences
+ * are always the same instance, so equality and hashing are O(1) and the tails are shared by every sequence that
+ * ends with them.
+ *
+ * Dropping a prefix (gallic divide, factorize) is a walk down the tails that allocates nothing; concatenation only
+ * creates (or finds) the cells of the left operand and reuses the right operand as is.
+ *
+ * Cells are weakly interned, so the sequences that are no longer used by any weight get garbage collected. This
+ * class is thread safe.
+ */
+public final class LabelSequence {
+
+  private static final Interner<LabelSequence> INTERNER = Interners.newWeakInterner();
+
+  private static final LabelSequence EMPTY = new LabelSequence();
+
+  private final int head;
+  private final LabelSequence tail; // null only for the empty sequence
+  private final int size;
+  private final int hash;
+
+  private LabelSequence() {
+    this.head = -1;
+    this.tail = null;
+    this.size = 0;
+    this.hash = 1;
+  }
+
+  private LabelSequence(int head, LabelSequence tail) {
+    this.head = head;
+    this.tail = tail;
+    this.size = tail.size + 1;
+    this.hash = 31 * tail.hash + head;
+  }
+
+  public static LabelSequence empty() {
+    return EMPTY;
+  }
+
+  /**
+   * The sequence with the given first label followed by the labels of `tail`
+   */
+  public static LabelSequence cons(int head, LabelSequence tail) {
+    return INTERNER.intern(new LabelSequence(head, tail));
+  }
+
+  public static LabelSequence of(int... labels) {
+    LabelSequence result = EMPTY;
+    for (int i = labels.length - 1; i >= 0; i--) {
+      result = cons(labels[i], result);
+    }
+    return result;
+  }
+
+  public static LabelSequence copyOf(IntArrayList labels) {
+    LabelSequence result = EMPTY;
+    for (int i = labels.size() - 1; i >= 0; i--) {
+      result = cons(labels.get(i), result);
+    }
+    return result;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return the first label; the sequence must not be empty
+   */
+  public int head() {
+    Preconditions.checkState(size > 0, "the empty sequence has no head");
+    return head;
+  }
+
+  /**
+   * @return the sequence without its first label; the sequence must not be empty
+   */
+  public LabelSequence tail() {
+    Preconditions.checkState(size > 0, "the empty sequence has no tail");
+    return tail;
+  }
+
+  /**
+   * Returns the label at the given index; this walks the sequence so it is O(index)
+   */
+  public int get(int index) {
+    Preconditions.checkElementIndex(index, size);
+    return drop(index).head;
+  }
+
+  /**
+   * @return the sequence without its first `count` labels
+   */
+  public LabelSequence drop(int count) {
+    Preconditions.checkArgument(count >= 0 && count <= size, "cant drop %s labels from a sequence of %s", count, size);
+    LabelSequence result = this;
+    for (int i = 0; i < count; i++) {
+      result = result.tail;
+    }
+    return result;
+  }
+
+  /**
+   * @return the labels of this sequence followed by the labels of `other`
+   */
+  public LabelSequence concat(LabelSequence other) {
+    if (other.isEmpty()) {
+      return this;
+    }
+    if (this.isEmpty()) {
+      return other;
+    }
+    int[] labels = toArray();
+    LabelSequence result = other;
+    for (int i = labels.length - 1; i >= 0; i--) {
+      result = cons(labels[i], result);
+    }
+    return result;
+  }
+
+  public int[] toArray() {
+    int[] labels = new int[size];
+    LabelSequence current = this;
+    for (int i = 0; i < size; i++) {
+      labels[i] = current.head;
+      current = current.tail;
+    }
+    return labels;
+  }
+
+  // only used by the interner: the tails are interned already, so comparing them by reference is enough
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    LabelSequence that = (LabelSequence) o;
+    return head == that.head && size == that.size && tail == that.tail;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("[");
+    for (LabelSequence current = this; current.size > 0; current = current.tail) {
+      if (current != this) {
+        sb.append(", ");
+      }
+      sb.append(current.head);
+    }
+    return sb.append(']').toString();
+  }
+}
@@ -69,6 +69,14 @@ public abstract class Semiring implements Serializable {
     return !isZero(candidate);
   }
 
+  /**
+   * True if a + b is always either a or b, i.e. the natural order is total (see `naturalLess`); false unless a
+   * subclass knows better. Shortest-first disciplines are only optimal for semirings with the path property
+   */
+  public boolean hasPathProperty() {
+    return false;
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (this == obj) {
@@ -66,6 +66,11 @@ public class TropicalSemiring extends Semiring {
     return w1 - w2;
   }
 
+  @Override
+  public boolean hasPathProperty() {
+    return true;
+  }
+
   /*
    * (non-Javadoc)
    *
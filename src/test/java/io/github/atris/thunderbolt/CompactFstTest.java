@@ -0,0 +1,105 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt;
+
+import io.github.atris.thunderbolt.io.Convert;
+import io.github.atris.thunderbolt.operations.ArcSort;
+import io.github.atris.thunderbolt.operations.Compose;
+import io.github.atris.thunderbolt.operations.Determinize;
+import io.github.atris.thunderbolt.operations.NShortestPaths;
+import io.github.atris.thunderbolt.operations.PrecomputedComposeFst;
+import io.github.atris.thunderbolt.semiring.TropicalSemiring;
+import io.github.atris.thunderbolt.utils.FstUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompactFstTest {
+
+  @Test
+  public void shouldBeEqualToTheSourceFst() throws Exception {
+    MutableFst fst = Convert.importFst("data/openfst/basic", TropicalSemiring.INSTANCE);
+    CompactFst compact = new CompactFst(fst);
+
+    assertTrue(FstUtils.fstEquals(fst, compact, FstUtils.LOG_REPORTER));
+    assertTrue(FstUtils.fstEquals(compact, new ImmutableFst(fst), FstUtils.LOG_REPORTER));
+    assertEquals(fst.getStateCount(), compact.getStateCount());
+  }
+
+  @Test
+  public void shouldStoreFloatWeights() throws Exception {
+    MutableFst fst = Convert.importFst("data/openfst/cyclic", TropicalSemiring.INSTANCE);
+    CompactFst compact = new CompactFst(fst, true);
+
+    assertTrue(compact.isUsingFloatWeights());
+    assertTrue(FstUtils.fstEquals(fst, compact, 1e-5, FstUtils.LOG_REPORTER));
+    for (int i = 0; i < fst.getStateCount(); i++) {
+      assertEquals((float) fst.getState(i).getFinalWeight(), compact.getFinalWeight(i), 0.0);
+      if (fst.getSemiring().isZero(fst.getState(i).getFinalWeight())) {
+        assertTrue(fst.getSemiring().isZero(compact.getFinalWeight(i)));
+      }
+    }
+  }
+
+  @Test
+  public void shouldExposePrimitiveArcs() throws Exception {
+    MutableFst fst = Convert.importFst("data/openfst/cyclic", TropicalSemiring.INSTANCE);
+    CompactFst compact = new CompactFst(fst);
+
+    int arcCount = 0;
+    for (int i = 0; i < fst.getStateCount(); i++) {
+      MutableState state = fst.getState(i);
+      assertEquals(state.getArcCount(), compact.getArcEnd(i) - compact.getArcStart(i));
+      assertEquals(state.getFinalWeight(), compact.getFinalWeight(i), 0.0);
+      for (int j = 0; j < state.getArcCount(); j++) {
+        MutableArc arc = state.getArc(j);
+        int index = compact.getArcStart(i) + j;
+        assertEquals(arc.getIlabel(), compact.getIlabel(index));
+        assertEquals(arc.getOlabel(), compact.getOlabel(index));
+        assertEquals(arc.getNextState().getId(), compact.getNextStateId(index));
+        assertEquals(arc.getWeight(), compact.getWeight(index), 0.0);
+      }
+      arcCount += state.getArcCount();
+    }
+    assertEquals(arcCount, compact.getArcCount());
+  }
+
+  @Test
+  public void shouldWorkWithOperations() throws Exception {
+    MutableFst fst = Convert.importFst("data/tests/algorithms/shortestpath/A", TropicalSemiring.INSTANCE);
+    MutableFst nsp = Convert.importFst("data/tests/algorithms/shortestpath/nsp", TropicalSemiring.INSTANCE);
+
+    MutableFst detFst = Determinize.apply(new CompactFst(fst));
+    Fst fstNsp = NShortestPaths.apply(new CompactFst(detFst), 6);
+    assertTrue(FstUtils.fstEquals(nsp, fstNsp, FstUtils.LOG_REPORTER));
+  }
+
+  @Test
+  public void shouldComposeWithCompactInner() throws Exception {
+    MutableFst fstA = Convert.importFst("data/tests/algorithms/compose/A", TropicalSemiring.INSTANCE);
+    MutableFst fstB = Convert.importFst("data/tests/algorithms/compose/B", TropicalSemiring.INSTANCE);
+    MutableFst expected = Convert.importFst("data/tests/algorithms/compose/expected-sorted", TropicalSemiring.INSTANCE);
+
+    ArcSort.sortByOutput(fstA);
+    ArcSort.sortByInput(fstB);
+    PrecomputedComposeFst inner = Compose.precomputeInner(new CompactFst(fstB), TropicalSemiring.INSTANCE);
+    fstA = MutableFst.copyAndTranslateSymbols(fstA, fstA.getInputSymbols(), inner.getFstInputSymbolsAsFrozen());
+    Fst composed = Compose.composeWithPrecomputed(fstA, inner, true);
+    assertTrue(FstUtils.fstEquals(expected, composed, 0.1, FstUtils.LOG_REPORTER));
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt;
+
+import com.google.common.collect.Iterables;
+import io.github.atris.thunderbolt.io.Convert;
+import io.github.atris.thunderbolt.semiring.LogSemiring;
+import io.github.atris.thunderbolt.semiring.TropicalSemiring;
+import io.github.atris.thunderbolt.utils.FstUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FstInputOutputTest {
+
+  @Test
+  public void shouldRoundTripMappedFile() throws IOException {
+    MutableFst fst = Convert.importFst("data/openfst/cyclic", TropicalSemiring.INSTANCE);
+
+    File tempFile = File.createTempFile("fst-mapped", "deleteme");
+    tempFile.deleteOnExit();
+    FstInputOutput.writeFstToMappedFile(fst, tempFile);
+
+    MappedFst mapped = FstInputOutput.readFstFromMappedFile(tempFile);
+    assertTrue(FstUtils.fstEquals(fst, mapped, FstUtils.LOG_REPORTER));
+    assertEquals(TropicalSemiring.INSTANCE, mapped.getSemiring());
+    assertTrue(FstUtils.fstEquals(new CompactFst(fst), mapped, FstUtils.LOG_REPORTER));
+  }
+
+  @Test
+  public void shouldRoundTripMappedFileWithStateSymbols() throws IOException {
+    MutableFst fst = new MutableFst(LogSemiring.INSTANCE);
+    fst.useStateSymbols();
+    fst.setStart(fst.newState("s0"));
+    fst.newState("s1").setFinalWeight(0.5);
+    fst.addArc("s0", "a", "b", "s1", 1.25);
+    fst.addArc("s1", "c", "d", "s1", 2.0);
+
+    File tempFile = File.createTempFile("fst-mapped-states", "deleteme");
+    tempFile.deleteOnExit();
+    FstInputOutput.writeFstToMappedFile(fst, tempFile);
+
+    MappedFst mapped = FstInputOutput.readFstFromMappedFile(tempFile);
+    assertTrue(FstUtils.fstEquals(fst, mapped, FstUtils.LOG_REPORTER));
+    assertEquals(1, mapped.getState("s1").getId());
+  }
+
+  @Test
+  public void shouldRoundTripMappedFileWithFloatWeights() throws IOException {
+    MutableFst fst = Convert.importFst("data/openfst/cyclic", TropicalSemiring.INSTANCE);
+    File doubleFile = File.createTempFile("fst-mapped-double", "deleteme");
+    doubleFile.deleteOnExit();
+    File floatFile = File.createTempFile("fst-mapped-float", "deleteme");
+    floatFile.deleteOnExit();
+    FstInputOutput.writeFstToMappedFile(fst, doubleFile);
+    FstInputOutput.writeFstToMappedFile(fst, floatFile, true);
+
+    MappedFst mapped = FstInputOutput.readFstFromMappedFile(floatFile);
+    assertTrue(mapped.isUsingFloatWeights());
+    assertFalse(FstInputOutput.readFstFromMappedFile(doubleFile).isUsingFloatWeights());
+    assertTrue(FstUtils.fstEquals(new CompactFst(fst, true), mapped, FstUtils.LOG_REPORTER));
+    assertTrue(floatFile.length() < doubleFile.length());
+  }
+
+  @Test
+  public void shouldRejectFilesInOtherFormats() throws IOException {
+    MutableFst fst = Convert.importFst("data/openfst/basic", TropicalSemiring.INSTANCE);
+    File tempFile = File.createTempFile("fst-binary", "deleteme");
+    tempFile.deleteOnExit();
+    FstInputOutput.writeFstToBinaryFile(fst, tempFile);
+
+    try {
+      FstInputOutput.readFstFromMappedFile(tempFile);
+      fail("shouldve thrown");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("Not a mapped fst file"));
+    }
+  }
+
+  @Test
+  public void shouldRoundTripCompactStream() throws IOException {
+    MutableFst fst = Convert.importFst("data/openfst/cyclic", TropicalSemiring.INSTANCE);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    FstInputOutput.writeFstToCompactStream(fst, new DataOutputStream(bytes));
+
+    MutableFst read = FstInputOutput.readFstFromCompactStream(
+        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(fst, read);
+    assertEquals(TropicalSemiring.INSTANCE, read.getSemiring());
+  }
+
+  @Test
+  public void shouldRoundTripCompactStreamWithFloatWeightsAndStateSymbols() throws IOException {
+    MutableFst fst = new MutableFst(LogSemiring.INSTANCE);
+    fst.useStateSymbols();
+    fst.setStart(fst.newState("s0"));
+    fst.newState("s1").setFinalWeight(0.5);
+    fst.newState("s2").setFinalWeight(LogSemiring.INSTANCE.one());
+    fst.addArc("s0", "a", "b", "s1", 1.25);
+    fst.addArc("s1", "c", "d", "s0", 0.1);
+    fst.addArc("s1", "a", "d", "s2", LogSemiring.INSTANCE.zero());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    FstInputOutput.writeFstToCompactStream(fst, new DataOutputStream(bytes), true);
+    MutableFst read = FstInputOutput.readFstFromCompactStream(
+        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertEquals(2, read.getState("s2").getId());
+    assertEquals(0.1f, read.getState("s1").getArc(0).getWeight(), 0.0);
+    assertEquals(LogSemiring.INSTANCE.zero(), read.getState("s1").getArc(1).getWeight(), 0.0);
+    assertEquals(LogSemiring.INSTANCE.one(), read.getState("s2").getFinalWeight(), 0.0);
+    assertTrue(Iterables.contains(read.getState("s0").getIncomingStates(), read.getState("s1")));
+    assertEquals(fst.getInputSymbols().get("c"), read.getInputSymbols().get("c"));
+  }
+
+  @Test
+  public void shouldWriteSmallerCompactStreams() throws IOException {
+    MutableFst fst = Convert.importFst("data/openfst/cyclic", TropicalSemiring.INSTANCE);
+    ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(legacy)) {
+      FstInputOutput.writeFstToBinaryStream(fst, oos);
+    }
+    ByteArrayOutputStream compact = new ByteArrayOutputStream();
+    FstInputOutput.writeFstToCompactStream(fst, new DataOutputStream(compact));
+    assertTrue(compact.size() < legacy.size());
+  }
+
+  @Test
+  public void shouldStillReadLegacyBinaryFiles() throws IOException {
+    MutableFst fst = Convert.importFst("data/openfst/basic", TropicalSemiring.INSTANCE);
+    File tempFile = File.createTempFile("fst-legacy", "deleteme");
+    tempFile.deleteOnExit();
+    try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(tempFile))) {
+      FstInputOutput.writeFstToBinaryStream(fst, oos);
+    }
+    assertEquals(fst, FstInputOutput.readFstFromBinaryFile(tempFile));
+
+    FstInputOutput.writeFstToBinaryFile(fst, tempFile);
+    assertEquals(fst, FstInputOutput.readFstFromBinaryFile(tempFile));
+  }
+
+  @Test
+  public void shouldSaveFstsOverUnregisteredSemirings() throws IOException {
+    MutableFst fst = new MutableFst(new CustomSemiring());
+    MutableState s0 = fst.newStartState();
+    MutableState s1 = fst.newState(0.5);
+    fst.addArc(s0, "a", "b", s1, 1.25);
+
+    File tempFile = File.createTempFile("fst-custom-semiring", "deleteme");
+    tempFile.deleteOnExit();
+    FstInputOutput.writeFstToBinaryFile(fst, tempFile);
+    MutableFst read = FstInputOutput.readFstFromBinaryFile(tempFile);
+    assertEquals(fst, read);
+    assertTrue(read.getSemiring() instanceof CustomSemiring);
+  }
+
+  private static class CustomSemiring extends TropicalSemiring {
+  }
+}
@@ -16,6 +16,7 @@
 
 package io.github.atris.thunderbolt;
 
+import com.carrotsearch.hppc.BitSet;
 import io.github.atris.thunderbolt.semiring.TropicalSemiring;
 import com.google.common.collect.Lists;
 import org.apache.commons.lang3.StringUtils;
@@ -23,9 +24,11 @@ import org.junit.Test;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Comparator;
 
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -155,6 +158,158 @@ public class MutableFstTest {
     assertEquals(204, rs2.getArc(0).getOlabel());
   }
 
+  @Test
+  public void shouldRetainStates() throws Exception {
+    MutableFst fst = createStateSymbolFst();
+    BitSet keep = new BitSet(fst.getStateCount());
+    keep.set(fst.getState("<start>").getId());
+    keep.set(fst.getState("_A").getId());
+    keep.set(fst.getState("_B").getId());
+    keep.set(fst.getState("_D").getId());
+    MutableState stateB = fst.getState("_B");
+    MutableState stateC = fst.getState("_C");
+    fst.retainStates(keep);
+
+    assertEquals(4, fst.getStateCount());
+    assertFalse(fst.getStateSymbols().contains("_C"));
+    for (int i = 0; i < fst.getStateCount(); i++) {
+      assertEquals(i, fst.getState(i).getId());
+      assertEquals(fst.getState(i), fst.getState(fst.getStateSymbols().invert().keyForId(i)));
+    }
+    assertEquals(1, stateB.getArcCount());
+    assertEquals(fst.getState("_D"), stateB.getArc(0).getNextState());
+    for (MutableState incoming : fst.getState("_D").getIncomingStates()) {
+      assertTrue(incoming != stateC);
+    }
+  }
+
+  @Test
+  public void shouldBuildWithoutIncomingStates() throws Exception {
+    MutableFst fst = new MutableFst(TropicalSemiring.INSTANCE);
+    fst.stopTrackingIncomingStates();
+    MutableState s0 = fst.newStartState();
+    MutableState s1 = fst.newState();
+    MutableState s2 = fst.newState(0.0);
+    fst.addArc(s0, "a", "A", s1, 0.0);
+    fst.addArc(s1, "b", "B", s2, 0.0);
+    fst.addArc(s0, "c", "C", s2, 0.0);
+    assertFalse(fst.isTrackingIncomingStates());
+    assertFalse(s2.getIncomingStates().iterator().hasNext());
+
+    MutableFst copy = MutableFst.copyFrom(fst);
+    assertFalse(copy.isTrackingIncomingStates());
+    assertEquals(fst, copy);
+
+    copy.trackIncomingStates();
+    int incoming = 0;
+    for (MutableState state : copy.getState(2).getIncomingStates()) {
+      incoming += 1;
+    }
+    assertEquals(2, incoming);
+
+    fst.deleteStates(Lists.newArrayList(s1));
+    assertEquals(2, fst.getStateCount());
+    assertEquals(1, s0.getArcCount());
+    assertEquals(s2, s0.getArc(0).getNextState());
+    assertEquals(1, s2.getId());
+  }
+
+  @Test
+  public void shouldTrackIncomingStatesAroundMissingStates() throws Exception {
+    MutableFst fst = new MutableFst(TropicalSemiring.INSTANCE);
+    fst.stopTrackingIncomingStates();
+    MutableState s0 = fst.setState(0, new MutableState());
+    MutableState s2 = fst.setState(2, new MutableState(0.0));
+    fst.setStart(s0);
+    fst.addArc(s0, "a", "A", s2, 0.0);
+
+    // state 1 is still missing
+    fst.trackIncomingStates();
+    assertTrue(fst.isTrackingIncomingStates());
+    assertEquals(s0, s2.getIncomingStates().iterator().next());
+  }
+
+  @Test
+  public void shouldDeleteManyStatesWithStateSymbols() throws Exception {
+    MutableFst fst = new MutableFst(TropicalSemiring.INSTANCE);
+    fst.useStateSymbols();
+    int count = 100000;
+    MutableState previous = fst.newStartState("s0");
+    ArrayList<MutableState> toDelete = Lists.newArrayList();
+    for (int i = 1; i < count; i++) {
+      MutableState next = fst.newState("s" + i);
+      fst.addArc(previous, "a", "a", next, 1.0);
+      fst.addArc(next, "b", "b", previous, 1.0);
+      if (i % 2 == 1) {
+        toDelete.add(next);
+      } else {
+        fst.addArc(fst.getStartState(), "c", "c", next, 1.0);
+      }
+      previous = next;
+    }
+    fst.deleteStates(toDelete);
+
+    assertEquals(count / 2, fst.getStateCount());
+    assertEquals(count / 2, fst.getStateSymbols().size());
+    for (int i = 0; i < fst.getStateCount(); i++) {
+      MutableState state = fst.getState(i);
+      assertEquals(i, state.getId());
+      assertEquals("s" + (2 * i), fst.getStateSymbols().invert().keyForId(i));
+      for (MutableArc arc : state.getArcs()) {
+        assertTrue(arc.getNextState() == fst.getState(arc.getNextState().getId()));
+      }
+    }
+    // only the arcs from the start state survive
+    assertEquals(count / 2 - 1, fst.getStartState().getArcCount());
+    assertEquals(0, fst.getState(1).getArcCount());
+    assertEquals(count / 2, fst.getStateSymbols().getOrAdd("new"));
+  }
+
+  @Test
+  public void shouldNotDeleteAnythingIfTheStartStateIsListed() throws Exception {
+    MutableFst fst = createStateSymbolFst();
+    try {
+      fst.deleteStates(Lists.newArrayList(fst.getState("_C"), fst.getStartState()));
+    } catch (IllegalArgumentException e) {
+      assertEquals(5, fst.getStateCount());
+      assertEquals(fst.getState("_C"), fst.getState(3));
+      return;
+    }
+    throw new AssertionError("deleting the start state should throw");
+  }
+
+  @Test
+  public void shouldKeepArcsInPrimitiveArrays() throws Exception {
+    MutableFst fst = new MutableFst(TropicalSemiring.INSTANCE);
+    MutableState s0 = fst.newStartState();
+    MutableState s1 = fst.newState();
+    for (int i = 0; i < 100; i++) {
+      fst.addArc(s0, 100 - (i % 10), i, i % 2 == 0 ? s0 : s1, i);
+    }
+    assertEquals(100, s0.getArcCount());
+    MutableArc arc = s0.getArc(3);
+    assertEquals(97, arc.getIlabel());
+    arc.setWeight(0.5);
+    assertEquals(0.5, s0.getWeight(3), 0.0);
+    s0.setOlabel(3, 42);
+    assertEquals(42, arc.getOlabel());
+    assertEquals(s1, arc.getNextState());
+
+    s0.arcSort(new Comparator<Arc>() {
+      @Override
+      public int compare(Arc o1, Arc o2) {
+        return Integer.compare(o1.getIlabel(), o2.getIlabel());
+      }
+    });
+    // stable: equal input labels keep the order they were added in
+    for (int i = 0; i < 100; i++) {
+      assertEquals(91 + i / 10, s0.getIlabel(i));
+      int added = 9 - i / 10 + 10 * (i % 10);
+      assertEquals(added == 3 ? 42 : added, s0.getOlabel(i));
+      assertEquals(added % 2 == 0 ? s0 : s1, s0.getNextState(i));
+    }
+  }
+
   private MutableFst createStateSymbolFst() {
     MutableFst fst = new MutableFst(TropicalSemiring.INSTANCE);
     fst.useStateSymbols();
@@ -0,0 +1,156 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.io;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import io.github.atris.thunderbolt.Fst;
+import io.github.atris.thunderbolt.MutableFst;
+import io.github.atris.thunderbolt.semiring.LogSemiring;
+import io.github.atris.thunderbolt.semiring.ProbabilitySemiring;
+import io.github.atris.thunderbolt.semiring.TropicalSemiring;
+import io.github.atris.thunderbolt.utils.FstUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OpenFstBinaryTest {
+
+  @Test
+  public void shouldRoundTripVectorFsts() throws IOException {
+    MutableFst fst = Convert.importFst("data/openfst/cyclic", TropicalSemiring.INSTANCE);
+    for (boolean doubleWeights : new boolean[]{false, true}) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      OpenFstBinary.writeVectorFst(fst, out, doubleWeights);
+      byte[] bytes = out.toByteArray();
+      assertArrayEquals(new byte[]{(byte) 0xd6, (byte) 0xfd, (byte) 0xb2, 0x7e}, Arrays.copyOf(bytes, 4));
+
+      MutableFst read = OpenFstBinary.readVectorFst(new ByteArrayInputStream(bytes));
+      assertTrue(FstUtils.fstEquals(fst, read, FstUtils.LOG_REPORTER));
+      assertEquals(fst.getInputSymbols(), read.getInputSymbols());
+      assertEquals(fst.getOutputSymbols(), read.getOutputSymbols());
+    }
+  }
+
+  @Test
+  public void shouldRoundTripConstFsts() throws IOException {
+    MutableFst fst = Convert.importFst("data/openfst/cyclic", LogSemiring.INSTANCE);
+    for (boolean doubleWeights : new boolean[]{false, true}) {
+      File tempFile = File.createTempFile("fst-openfst-const", "deleteme");
+      tempFile.deleteOnExit();
+      Files.asByteSink(tempFile).writeFrom(new ByteArrayInputStream(constBytes(fst, doubleWeights)));
+
+      Fst read = OpenFstBinary.read(tempFile);
+      assertTrue(read instanceof OpenFstConstFst);
+      assertEquals(doubleWeights, ((OpenFstConstFst) read).isUsingDoubleWeights());
+      assertEquals(LogSemiring.INSTANCE, read.getSemiring());
+      assertTrue(FstUtils.fstEquals(fst, read, FstUtils.LOG_REPORTER));
+    }
+  }
+
+  @Test
+  public void shouldMapAnAlignedConstFstWithoutSymbols() throws IOException {
+    // the layout fstcompile --fst_type=const writes for a two state, two arc acceptor
+    ByteBuffer buffer = ByteBuffer.allocate(160).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(OpenFstBinary.FST_MAGIC);
+    putString(buffer, "const");
+    putString(buffer, "standard");
+    buffer.putInt(2).putInt(OpenFstBinary.IS_ALIGNED).putLong(OpenFstBinary.EXPANDED);
+    buffer.putLong(0).putLong(2).putLong(2);
+    buffer.position(80);
+    buffer.putFloat(Float.POSITIVE_INFINITY).putInt(0).putInt(2).putInt(1).putInt(1);
+    buffer.putFloat(0.5f).putInt(2).putInt(0).putInt(0).putInt(0);
+    buffer.position(128);
+    buffer.putInt(3).putInt(4).putFloat(0.25f).putInt(1);
+    buffer.putInt(0).putInt(0).putFloat(1.5f).putInt(0);
+    File tempFile = File.createTempFile("fst-openfst-aligned", "deleteme");
+    tempFile.deleteOnExit();
+    Files.write(buffer.array(), tempFile);
+
+    OpenFstConstFst fst = OpenFstBinary.readConstFst(tempFile);
+    assertEquals(2, fst.getStateCount());
+    assertEquals(2, fst.getArcCount());
+    assertEquals(0, fst.getStartState().getId());
+    assertEquals(Double.POSITIVE_INFINITY, fst.getState(0).getFinalWeight(), 0.0);
+    assertEquals(0.5, fst.getState(1).getFinalWeight(), 0.0);
+    assertEquals(2, fst.getState(0).getArcCount());
+    assertEquals(0, fst.getState(1).getArcCount());
+    assertEquals(3, fst.getState(0).getArc(0).getIlabel());
+    assertEquals(4, fst.getState(0).getArc(0).getOlabel());
+    assertEquals(0.25, fst.getState(0).getArc(0).getWeight(), 0.0);
+    assertEquals(1, fst.getState(0).getArc(0).getNextState().getId());
+    assertEquals(1.5, fst.getState(0).getArc(1).getWeight(), 0.0);
+    assertEquals(1, fst.getInputSymbols().size());
+    assertEquals(0, fst.lookupInputSymbol(Fst.EPS));
+  }
+
+  @Test
+  public void shouldReadVectorFstsOfUnknownSize() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(OpenFstBinary.FST_MAGIC);
+    putString(buffer, "vector");
+    putString(buffer, "log64");
+    buffer.putInt(2).putInt(0).putLong(OpenFstBinary.EXPANDED | OpenFstBinary.MUTABLE);
+    buffer.putLong(1).putLong(-1).putLong(-1);
+    buffer.putDouble(Double.POSITIVE_INFINITY).putLong(1);
+    buffer.putInt(5).putInt(6).putDouble(0.125).putInt(1);
+    buffer.putDouble(2.5).putLong(0);
+
+    MutableFst fst = OpenFstBinary.readVectorFst(new ByteArrayInputStream(buffer.array(), 0, buffer.position()));
+    assertEquals(LogSemiring.INSTANCE, fst.getSemiring());
+    assertEquals(2, fst.getStateCount());
+    assertEquals(1, fst.getStartState().getId());
+    assertEquals(2.5, fst.getState(1).getFinalWeight(), 0.0);
+    assertEquals(5, fst.getState(0).getArc(0).getIlabel());
+    assertEquals(0.125, fst.getState(0).getArc(0).getWeight(), 0.0);
+    assertEquals(fst.getState(1), fst.getState(0).getArc(0).getNextState());
+  }
+
+  @Test
+  public void shouldRejectSemiringsWithoutAnArcType() throws IOException {
+    MutableFst fst = new MutableFst(ProbabilitySemiring.INSTANCE);
+    fst.setStart(fst.newState());
+    try {
+      OpenFstBinary.writeVectorFst(fst, new ByteArrayOutputStream());
+      fail("shouldve thrown");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static byte[] constBytes(Fst fst, boolean doubleWeights) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OpenFstBinary.writeConstFst(fst, out, doubleWeights);
+    return out.toByteArray();
+  }
+
+  private static void putString(ByteBuffer buffer, String value) {
+    byte[] bytes = value.getBytes(Charsets.UTF_8);
+    buffer.putInt(bytes.length).put(bytes);
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.io;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteSource;
+import io.github.atris.thunderbolt.MutableFst;
+import io.github.atris.thunderbolt.MutableState;
+import io.github.atris.thunderbolt.MutableSymbolTable;
+import io.github.atris.thunderbolt.operations.ComposeFst;
+import io.github.atris.thunderbolt.semiring.TropicalSemiring;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TextExportTest {
+
+  @Test
+  public void shouldWriteTheOpenFstTextFormat() throws IOException {
+    MutableFst fst = new MutableFst(TropicalSemiring.INSTANCE);
+    MutableState s0 = fst.newStartState();
+    MutableState s1 = fst.newState();
+    MutableState s2 = fst.newState();
+    s2.setFinalWeight(-2.0);
+    fst.addArc(s0, "a", "x", s1, 0.5);
+    fst.addArc(s1, "b", "y", s2, 1e-4);
+    fst.addArc(s1, "c", "z", s0, 12332.32f);
+    fst.addArc(s2, "a", "y", s2, 1e20);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Convert.exportFst(fst, Channels.newChannel(out));
+    assertEquals("0\tInfinity\n" +
+                 "2\t-2.0\n" +
+                 "0\t1\ta\tx\t0.5\n" +
+                 "1\t2\tb\ty\t0.0001\n" +
+                 "1\t0\tc\tz\t12332.3203125\n" +
+                 "2\t2\ta\ty\t1.0E20\n", new String(out.toByteArray(), Charsets.UTF_8));
+
+    ByteArrayOutputStream symbols = new ByteArrayOutputStream();
+    Convert.exportSymbols(fst.getInputSymbols(), symbols);
+    MutableSymbolTable read = new TextImport(ByteSource.wrap(symbols.toByteArray()), null, 16).importSymbols();
+    assertEquals(fst.getInputSymbols(), read);
+  }
+
+  @Test
+  public void shouldRoundTripWeightsExactlyInParallel() throws IOException {
+    Random random = new Random(3);
+    MutableFst fst = new MutableFst(TropicalSemiring.INSTANCE);
+    fst.setStart(fst.newState());
+    for (int i = 1; i < 2000; i++) {
+      fst.newState();
+    }
+    for (int i = 0; i < 2000; i++) {
+      if (i % 10 == 0) {
+        fst.getState(i).setFinalWeight(random.nextDouble());
+      }
+      for (int j = 0; j < 50; j++) {
+        double weight;
+        switch (j % 5) {
+          case 0:
+            weight = random.nextDouble();
+            break;
+          case 1:
+            weight = random.nextFloat() * 100;
+            break;
+          case 2:
+            weight = -random.nextInt(1000) / 8.0;
+            break;
+          case 3:
+            weight = random.nextDouble() * Math.pow(10, random.nextInt(60) - 30);
+            break;
+          default:
+            weight = Math.round(random.nextDouble() * 1e4) / 1e4;
+        }
+        fst.addArc(fst.getState(i), "i" + random.nextInt(500), "o" + random.nextInt(500),
+                   fst.getState(random.nextInt(2000)), weight);
+      }
+    }
+
+    ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+    Convert.exportFst(fst, sequential);
+    ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      Convert.exportFst(fst, parallel, executor);
+    } finally {
+      executor.shutdown();
+    }
+    assertArrayEquals(sequential.toByteArray(), parallel.toByteArray());
+
+    MutableSymbolTable isyms = new MutableSymbolTable(fst.getInputSymbols());
+    MutableSymbolTable osyms = new MutableSymbolTable(fst.getOutputSymbols());
+    MutableFst read = new MutableFst(TropicalSemiring.INSTANCE, isyms, osyms);
+    new TextImport(ByteSource.wrap(sequential.toByteArray()), null, TextImport.DEFAULT_CHUNK_SIZE)
+        .importFst(read, false);
+    // equality is exact, so every weight has to read back to the same double
+    assertEquals(fst, read);
+  }
+
+  @Test
+  public void shouldExportLazyFstsOnTheCallingThread() throws IOException {
+    MutableFst fstA = Convert.importFst("data/tests/algorithms/compose/A", TropicalSemiring.INSTANCE);
+    MutableFst fstB = Convert.importFst("data/tests/algorithms/compose/B", TropicalSemiring.INSTANCE);
+    ComposeFst composed = new ComposeFst(fstA, fstB, TropicalSemiring.INSTANCE);
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    Convert.exportFst(MutableFst.copyFrom(composed), expected);
+    ByteArrayOutputStream lazy = new ByteArrayOutputStream();
+    Convert.exportFst(composed, lazy, new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        throw new AssertionError("lazy fsts arent safe to read from several threads");
+      }
+    });
+    assertArrayEquals(expected.toByteArray(), lazy.toByteArray());
+  }
+}
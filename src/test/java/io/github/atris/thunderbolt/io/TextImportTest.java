@@ -0,0 +1,199 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.io;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteSource;
+import io.github.atris.thunderbolt.MutableFst;
+import io.github.atris.thunderbolt.MutableSymbolTable;
+import io.github.atris.thunderbolt.semiring.TropicalSemiring;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TextImportTest {
+
+  @Test
+  public void shouldImportLikeTheLineByLineParser() {
+    String[] basenames = {"data/openfst/basic", "data/openfst/cyclic", "data/tests/algorithms/compose/A",
+                          "data/tests/algorithms/rmepsilon/A", "data/tests/algorithms/determinize/A"};
+    for (String basename : basenames) {
+      MutableFst streamed = Convert.importFst(basename, TropicalSemiring.INSTANCE);
+      MutableFst lineByLine;
+      Convert.setRegexToSplitOn("\t");
+      try {
+        lineByLine = Convert.importFst(basename, TropicalSemiring.INSTANCE);
+      } finally {
+        Convert.setRegexToSplitOn("\\t");
+      }
+      assertEquals(basename, lineByLine, streamed);
+    }
+  }
+
+  @Test
+  public void shouldParseSmallChunksInParallel() throws Exception {
+    StringBuilder text = new StringBuilder();
+    Random random = new Random(7);
+    text.append("0\t1\ta\tb\t0.5\n");
+    for (int i = 0; i < 5000; i++) {
+      int source = random.nextInt(1000);
+      int target = random.nextInt(1000);
+      text.append(source).append('\t').append(target).append('\t').append("in").append(random.nextInt(300))
+          .append('\t').append("out").append(random.nextInt(300)).append('\t').append(random.nextDouble() * 10)
+          .append(i % 7 == 0 ? "\r\n" : "\n");
+      if (i % 100 == 0) {
+        text.append(random.nextInt(1000)).append('\t').append(random.nextInt(5)).append("\n\n");
+      }
+    }
+    for (int i = 0; i < 1000; i++) {
+      text.append(i).append('\n');
+    }
+    ByteSource source = ByteSource.wrap(text.toString().getBytes(Charsets.UTF_8));
+
+    MutableFst sequential = newFst();
+    new TextImport(source, null, TextImport.DEFAULT_CHUNK_SIZE).importFst(sequential, false);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      MutableFst parallel = newFst();
+      new TextImport(source, executor, 97).importFst(parallel, false);
+      assertEquals(sequential, parallel);
+      assertEquals(sequential.getInputSymbols(), parallel.getInputSymbols());
+      assertEquals(sequential.getOutputSymbols(), parallel.getOutputSymbols());
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(1000, sequential.getStateCount());
+    assertEquals(0, sequential.getStartState().getId());
+    assertEquals(5001, countArcs(sequential));
+  }
+
+  @Test
+  public void shouldReportTheLineOfABadLine() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      text.append(i).append('\t').append(i + 1).append("\ta\tb\t1.0\n");
+    }
+    text.append("100\t101\ta\n");
+    ByteSource source = ByteSource.wrap(text.toString().getBytes(Charsets.UTF_8));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      new TextImport(source, executor, 64).importFst(newFst(), false);
+      fail("shouldve thrown");
+    } catch (RuntimeException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("line 101 "));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void shouldImportSymbolsAndLongLines() {
+    StringBuilder text = new StringBuilder();
+    StringBuilder longSymbol = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      longSymbol.append("long");
+    }
+    text.append("<eps>\t0\n");
+    text.append(longSymbol).append(" 1\n");
+    text.append("  \n");
+    text.append("héllo   2\r\n");
+    ByteSource source = ByteSource.wrap(text.toString().getBytes(Charsets.UTF_8));
+
+    MutableSymbolTable table = new TextImport(source, null, 16).importSymbols();
+    assertEquals(3, table.size());
+    assertEquals(1, table.get(longSymbol.toString()));
+    assertEquals(2, table.get("héllo"));
+  }
+
+  @Test
+  public void shouldParseDoublesLikeTheJdk() {
+    String[] values = {"0", "-0", "0.5", ".5", "5.", "1e3", "1E-3", "-12.75e+2", "0.1", "3.14159265358979",
+                       "3.141592653589793238", "123456789012345678901234", "1e-320", "1e308", "1e400", "Infinity",
+                       "-Infinity", "NaN", "2.5f", " 7.25 ", "0.000000000000000000000000001", "9007199254740993"};
+    for (String value : values) {
+      assertParsesLikeTheJdk(value);
+    }
+    Random random = new Random(11);
+    for (int i = 0; i < 10000; i++) {
+      assertParsesLikeTheJdk(Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20)));
+      assertParsesLikeTheJdk(Float.toString(random.nextFloat() * 100));
+      assertParsesLikeTheJdk(String.format(Locale.ROOT, "%.4f", random.nextDouble() * 1000));
+    }
+    for (String value : new String[]{"", "-", ".", "1e", "1.2.3", "abc"}) {
+      try {
+        parseDouble(value);
+        fail("shouldve thrown for " + value);
+      } catch (NumberFormatException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void shouldParseInts() {
+    assertEquals(0, parseInt("0"));
+    assertEquals(-17, parseInt("-17"));
+    assertEquals(Integer.MAX_VALUE, parseInt("2147483647"));
+    assertEquals(Integer.MIN_VALUE, parseInt("-2147483648"));
+    for (String value : new String[]{"", "-", "2147483648", "1.0", "12a"}) {
+      try {
+        parseInt(value);
+        fail("shouldve thrown for " + value);
+      } catch (NumberFormatException e) {
+        // expected
+      }
+    }
+  }
+
+  private static void assertParsesLikeTheJdk(String value) {
+    assertEquals(value, Double.doubleToRawLongBits(Double.parseDouble(value)),
+                 Double.doubleToRawLongBits(parseDouble(value)));
+  }
+
+  private static double parseDouble(String value) {
+    byte[] bytes = ("x" + value + "x").getBytes(Charsets.UTF_8);
+    return TextImport.parseDouble(bytes, 1, bytes.length - 1);
+  }
+
+  private static int parseInt(String value) {
+    byte[] bytes = ("x" + value + "x").getBytes(Charsets.UTF_8);
+    return TextImport.parseInt(bytes, 1, bytes.length - 1);
+  }
+
+  private static MutableFst newFst() {
+    MutableSymbolTable isyms = new MutableSymbolTable();
+    isyms.put(MutableFst.EPS, 0);
+    MutableSymbolTable osyms = new MutableSymbolTable();
+    osyms.put(MutableFst.EPS, 0);
+    return new MutableFst(TropicalSemiring.INSTANCE, isyms, osyms);
+  }
+
+  private static int countArcs(MutableFst fst) {
+    int arcs = 0;
+    for (int i = 0; i < fst.getStateCount(); i++) {
+      arcs += fst.getState(i).getArcCount();
+    }
+    return arcs;
+  }
+}
@@ -16,13 +16,16 @@
 
 package io.github.atris.thunderbolt.operations;
 
+import io.github.atris.thunderbolt.Arc;
 import io.github.atris.thunderbolt.Fst;
 import io.github.atris.thunderbolt.MutableFst;
+import io.github.atris.thunderbolt.State;
 import io.github.atris.thunderbolt.io.Convert;
 import io.github.atris.thunderbolt.semiring.TropicalSemiring;
 import io.github.atris.thunderbolt.utils.FstUtils;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -55,4 +58,46 @@ public class ComposeEpsilonTest {
 
     assertTrue(FstUtils.fstEquals(fstC, fstComposed, FstUtils.LOG_REPORTER));
   }
+
+  @Test
+  public void shouldKeepOnePathWithEveryFilter() {
+    for (ComposeFilter filter : ComposeFilter.values()) {
+      MutableFst fstA = Convert.importFst("data/tests/algorithms/composeeps/A", TropicalSemiring.INSTANCE);
+      MutableFst fstB = Convert.importFst("data/tests/algorithms/composeeps/B", TropicalSemiring.INSTANCE);
+      MutableFst delayed = MutableFst.copyFrom(new ComposeFst(fstA, fstB, TropicalSemiring.INSTANCE, filter));
+      Connect.apply(delayed);
+
+      MutableFst fstComposed = Compose.compose(fstA, fstB, TropicalSemiring.INSTANCE, false, filter);
+      assertEquals(filter.name(), 1, countPaths(fstComposed, fstComposed.getStartState()));
+      assertEquals(filter.name(), 1, countPaths(delayed, delayed.getStartState()));
+      assertEquals(filter.name(), fstComposed.getStateCount(), delayed.getStateCount());
+    }
+  }
+
+  @Test
+  public void shouldMoveFst1EpsilonsFirstWithSequenceFilter() {
+    MutableFst fstA = Convert.importFst("data/tests/algorithms/composeeps/A", TropicalSemiring.INSTANCE);
+    MutableFst fstB = Convert.importFst("data/tests/algorithms/composeeps/B", TropicalSemiring.INSTANCE);
+
+    MutableFst fstComposed = Compose.compose(fstA, fstB, TropicalSemiring.INSTANCE, false, ComposeFilter.SEQUENCE);
+    // a:ddd, then b:<eps> and c:<eps> as fst1 moves alone, then <eps>:eee as fst2 moves alone, then d:aaa
+    assertEquals(6, fstComposed.getStateCount());
+    State state = fstComposed.getStartState();
+    String[] expected = {"a:ddd", "b:<eps>", "c:<eps>", "<eps>:eee", "d:aaa"};
+    for (String labels : expected) {
+      assertEquals(1, state.getArcCount());
+      Arc arc = state.getArc(0);
+      assertEquals(labels, fstComposed.getInputSymbols().invert().keyForId(arc.getIlabel()) + ":" +
+                           fstComposed.getOutputSymbols().invert().keyForId(arc.getOlabel()));
+      state = arc.getNextState();
+    }
+  }
+
+  private static int countPaths(Fst fst, State state) {
+    int paths = fst.getSemiring().isZero(state.getFinalWeight()) ? 0 : 1;
+    for (int i = 0; i < state.getArcCount(); i++) {
+      paths += countPaths(fst, state.getArc(i).getNextState());
+    }
+    return paths;
+  }
 }
@@ -0,0 +1,88 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.operations;
+
+import io.github.atris.thunderbolt.Fst;
+import io.github.atris.thunderbolt.MutableFst;
+import io.github.atris.thunderbolt.io.Convert;
+import io.github.atris.thunderbolt.semiring.TropicalSemiring;
+import io.github.atris.thunderbolt.utils.FstUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ComposeFstTest {
+
+  @Test
+  public void shouldMatchEagerCompose() {
+    assertMatchesEager("data/tests/algorithms/compose/A", "data/tests/algorithms/compose/B",
+                       "data/tests/algorithms/compose/expected", 0.1);
+  }
+
+  @Test
+  public void shouldMatchEagerComposeWithEpsilons() {
+    assertMatchesEager("data/tests/algorithms/composeeps/A", "data/tests/algorithms/composeeps/B",
+                       "data/tests/algorithms/composeeps/fstcomposeeps", Double.MIN_VALUE);
+  }
+
+  @Test
+  public void shouldExpandOnlyWhatIsVisited() {
+    MutableFst fstA = Convert.importFst("data/tests/algorithms/compose/A", TropicalSemiring.INSTANCE);
+    MutableFst fstB = Convert.importFst("data/tests/algorithms/compose/B", TropicalSemiring.INSTANCE);
+    MutableFst originalA = MutableFst.copyFrom(fstA);
+
+    ComposeFst composed = new ComposeFst(fstA, fstB, TropicalSemiring.INSTANCE);
+    assertEquals(1, composed.getDiscoveredStateCount());
+    assertEquals(0, composed.getExpansionCount());
+
+    composed.getStartState().getArcs();
+    assertEquals(1, composed.getExpansionCount());
+    assertTrue(composed.getDiscoveredStateCount() > 1);
+    assertTrue(FstUtils.fstEquals(originalA, fstA));
+  }
+
+  @Test
+  public void shouldRecomputeEvictedStates() {
+    MutableFst fstA = Convert.importFst("data/tests/algorithms/compose/A", TropicalSemiring.INSTANCE);
+    MutableFst fstB = Convert.importFst("data/tests/algorithms/compose/B", TropicalSemiring.INSTANCE);
+
+    ComposeFst unbounded = new ComposeFst(fstA, fstB, TropicalSemiring.INSTANCE);
+    ComposeFst bounded = new ComposeFst(fstA, fstB, TropicalSemiring.INSTANCE, 2);
+    MutableFst expected = MutableFst.copyFrom(unbounded);
+
+    assertTrue(FstUtils.fstEquals(expected, bounded, FstUtils.LOG_REPORTER));
+    assertTrue(bounded.getCachedStateCount() <= 2);
+    assertTrue(bounded.getExpansionCount() > bounded.getStateCount());
+  }
+
+  private static void assertMatchesEager(String pathA, String pathB, String pathExpected, double epsilon) {
+    MutableFst fstA = Convert.importFst(pathA, TropicalSemiring.INSTANCE);
+    MutableFst fstB = Convert.importFst(pathB, TropicalSemiring.INSTANCE);
+    MutableFst expected = Convert.importFst(pathExpected, TropicalSemiring.INSTANCE);
+
+    Fst composed = new ComposeFst(fstA, fstB, TropicalSemiring.INSTANCE);
+    MutableFst trimmed = MutableFst.copyFrom(composed);
+    Connect.apply(trimmed);
+    // the eager compose adds its internal epsilon symbols to the tables of its inputs
+    for (String eps : new String[]{"<$$compose$$eps1>", "<$$compose$$eps2>"}) {
+      trimmed.getInputSymbols().getOrAdd(eps);
+      trimmed.getOutputSymbols().getOrAdd(eps);
+    }
+    assertTrue(FstUtils.fstEquals(expected, trimmed, epsilon, FstUtils.LOG_REPORTER));
+  }
+}
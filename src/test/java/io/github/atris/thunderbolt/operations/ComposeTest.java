@@ -16,14 +16,22 @@
 
 package io.github.atris.thunderbolt.operations;
 
+import com.google.common.collect.Lists;
 import io.github.atris.thunderbolt.MutableFst;
 import io.github.atris.thunderbolt.MutableState;
+import io.github.atris.thunderbolt.MutableSymbolTable;
 import io.github.atris.thunderbolt.io.Convert;
 import io.github.atris.thunderbolt.semiring.TropicalSemiring;
 import io.github.atris.thunderbolt.utils.FstUtils;
 import io.github.atris.thunderbolt.Fst;
 import org.junit.Test;
 
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -132,4 +140,50 @@ public class ComposeTest {
 
     assertTrue(FstUtils.fstEquals(composed, fstComposed, 0.1, FstUtils.LOG_REPORTER));
   }
+
+  @Test
+  public void shouldComposeBatchWithoutMutatingOuters() {
+    MutableFst fstA = Convert.importFst("data/tests/algorithms/compose2/A", TropicalSemiring.INSTANCE);
+    MutableFst fstB = Convert.importFst("data/tests/algorithms/compose2/B", TropicalSemiring.INSTANCE);
+    MutableFst composed = Convert.importFst("data/tests/algorithms/compose2/expected",
+        TropicalSemiring.INSTANCE);
+
+    ArcSort.sortByOutput(fstA);
+    ArcSort.sortByInput(fstB);
+    PrecomputedComposeFst precomputed = Compose.precomputeInner(fstB, TropicalSemiring.INSTANCE);
+    fstA = MutableFst.copyAndTranslateSymbols(fstA, fstA.getInputSymbols(), precomputed.getFstInputSymbolsAsFrozen());
+    MutableFst original = MutableFst.copyFrom(fstA);
+    MutableFst empty = precomputed.createNewOuterFst();
+    empty.newStartState();
+
+    List<MutableFst> outers = Lists.newArrayList(fstA, empty, fstA, fstA);
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      List<MutableFst> results = Compose.composeAllWithPrecomputed(outers, precomputed, true, executor);
+      assertEquals(4, results.size());
+      assertTrue(FstUtils.fstEquals(composed, results.get(0), 0.1, FstUtils.LOG_REPORTER));
+      assertEquals(0, results.get(1).getStartState().getArcCount());
+      assertTrue(FstUtils.fstEquals(composed, results.get(2), 0.1, FstUtils.LOG_REPORTER));
+      assertTrue(FstUtils.fstEquals(composed, results.get(3), 0.1, FstUtils.LOG_REPORTER));
+    } finally {
+      executor.shutdown();
+    }
+    assertTrue(FstUtils.fstEquals(original, fstA, FstUtils.LOG_REPORTER));
+  }
+
+  @Test
+  public void shouldMapLabelsBetweenSymbolTables() {
+    MutableSymbolTable from = new MutableSymbolTable();
+    from.put("<eps>", 0);
+    from.put("a", 1);
+    from.put("b", 2);
+    from.put("c", 4);
+    MutableSymbolTable to = new MutableSymbolTable();
+    to.put("<eps>", 0);
+    to.put("b", 1);
+    to.put("a", 2);
+
+    int[] map = Compose.labelMap(from, to);
+    assertArrayEquals(new int[]{0, 2, 1, -1, -1}, map);
+  }
 }
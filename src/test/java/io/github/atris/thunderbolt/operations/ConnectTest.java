@@ -17,11 +17,15 @@
 package io.github.atris.thunderbolt.operations;
 
 import io.github.atris.thunderbolt.MutableFst;
+import io.github.atris.thunderbolt.MutableState;
 import io.github.atris.thunderbolt.io.Convert;
 import io.github.atris.thunderbolt.semiring.TropicalSemiring;
 import io.github.atris.thunderbolt.utils.FstUtils;
 import org.junit.Test;
 
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -63,4 +67,40 @@ public class ConnectTest {
     assertTrue(FstUtils.fstEquals(fst, connectSaved, FstUtils.LOG_REPORTER));
 
   }
+
+  @Test
+  public void testConnectInParallel() {
+    MutableFst fst = Convert.importFst("data/tests/algorithms/connect/A",
+                                       TropicalSemiring.INSTANCE);
+    MutableFst connectSaved = Convert.importFst("data/tests/algorithms/connect/expected",
+                                                TropicalSemiring.INSTANCE);
+    Connect.apply(fst, ForkJoinPool.commonPool());
+
+    assertTrue(FstUtils.fstEquals(fst, connectSaved, FstUtils.LOG_REPORTER));
+  }
+
+  @Test
+  public void testConnectDeepChain() {
+    // a long chain to a final state with a dead end hanging off every state; deep enough to overflow a recursive dfs
+    MutableFst fst = new MutableFst(TropicalSemiring.INSTANCE);
+    int a = fst.getInputSymbols().getOrAdd("a");
+    int length = 200000;
+    MutableState previous = fst.newStartState();
+    for (int i = 0; i < length; i++) {
+      MutableState next = fst.newState();
+      MutableState dead = fst.newState();
+      fst.addArc(previous, a, a, next, 1.0);
+      fst.addArc(previous, a, a, dead, 1.0);
+      previous = next;
+    }
+    previous.setFinalWeight(0.0);
+
+    Connect.apply(fst);
+    assertEquals(length + 1, fst.getStateCount());
+    for (int i = 0; i < length; i++) {
+      assertEquals(1, fst.getState(i).getArcCount());
+      assertEquals(i + 1, fst.getState(i).getArc(0).getNextState().getId());
+    }
+    assertEquals(0.0, fst.getState(length).getFinalWeight(), 0.0);
+  }
 }
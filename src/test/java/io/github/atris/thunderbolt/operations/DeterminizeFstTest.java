@@ -0,0 +1,115 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.operations;
+
+import com.carrotsearch.hppc.IntArrayDeque;
+import com.carrotsearch.hppc.IntIntOpenHashMap;
+import io.github.atris.thunderbolt.Arc;
+import io.github.atris.thunderbolt.Fst;
+import io.github.atris.thunderbolt.MutableFst;
+import io.github.atris.thunderbolt.MutableState;
+import io.github.atris.thunderbolt.State;
+import io.github.atris.thunderbolt.io.Convert;
+import io.github.atris.thunderbolt.semiring.TropicalSemiring;
+import io.github.atris.thunderbolt.utils.FstUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeterminizeFstTest {
+
+  @Before
+  public void setUp() throws Exception {
+    Convert.setRegexToSplitOn("\\s+");
+  }
+
+  @Test
+  public void shouldMatchEagerDeterminize() {
+    assertMatchesEager("data/tests/algorithms/determinize/A", Determinize.DeterminizeMode.FUNCTIONAL);
+    assertMatchesEager("data/tests/algorithms/determinizeWikiExample/A", Determinize.DeterminizeMode.FUNCTIONAL);
+    assertMatchesEager("data/tests/algorithms/determinizeFstNonFunctional/A",
+                       Determinize.DeterminizeMode.NON_FUNCTIONAL);
+    assertMatchesEager("data/tests/algorithms/determinizeFstNonFunctional2/A",
+                       Determinize.DeterminizeMode.NON_FUNCTIONAL);
+    assertMatchesEager("data/tests/algorithms/determinizeFstNonFunctional2/A",
+                       Determinize.DeterminizeMode.DISAMBIGUATE);
+    assertMatchesEager("data/tests/algorithms/determinizeFstDisambiguate/A",
+                       Determinize.DeterminizeMode.DISAMBIGUATE);
+  }
+
+  @Test
+  public void shouldExpandOnlyWhatIsVisited() {
+    MutableFst fstA = Convert.importFst("data/tests/algorithms/determinize/A", TropicalSemiring.INSTANCE);
+    DeterminizeFst determinized = new DeterminizeFst(fstA);
+    assertEquals(1, determinized.getDiscoveredStateCount());
+    assertEquals(0, determinized.getExpansionCount());
+
+    determinized.getStartState().getArcs();
+    assertEquals(1, determinized.getExpansionCount());
+    assertTrue(determinized.getDiscoveredStateCount() > 1);
+  }
+
+  @Test
+  public void shouldRecomputeEvictedStates() {
+    MutableFst fstA = Convert.importFst("data/tests/algorithms/determinizeFstNonFunctional2/A",
+                                        TropicalSemiring.INSTANCE);
+    MutableFst expected = MutableFst.copyFrom(
+      new DeterminizeFst(fstA, Determinize.DeterminizeMode.NON_FUNCTIONAL));
+    DeterminizeFst bounded = new DeterminizeFst(fstA, Determinize.DeterminizeMode.NON_FUNCTIONAL, 1);
+
+    assertTrue(FstUtils.fstEquals(expected, bounded, FstUtils.LOG_REPORTER));
+    assertTrue(bounded.getCachedStateCount() <= 1);
+    assertTrue(bounded.getExpansionCount() > bounded.getStateCount());
+  }
+
+  private static void assertMatchesEager(String path, Determinize.DeterminizeMode mode) {
+    MutableFst fstA = Convert.importFst(path, TropicalSemiring.INSTANCE);
+    MutableFst eager = new Determinize(mode).compute(fstA);
+    DeterminizeFst lazy = new DeterminizeFst(fstA, mode);
+    assertTrue(path + " " + mode, FstUtils.fstEquals(renumber(eager), renumber(lazy), FstUtils.LOG_REPORTER));
+  }
+
+  // numbers the states in breadth first order from the start state, following the arcs in order, so that two fsts
+  // that only differ in the numbering of their states become equal
+  private static MutableFst renumber(Fst fst) {
+    MutableFst result = MutableFst.emptyWithCopyOfSymbols(fst);
+    IntIntOpenHashMap newIds = new IntIntOpenHashMap();
+    IntArrayDeque queue = new IntArrayDeque();
+    MutableState start = result.newStartState();
+    start.setFinalWeight(fst.getStartState().getFinalWeight());
+    newIds.put(fst.getStartState().getId(), start.getId());
+    queue.addLast(fst.getStartState().getId());
+    while (!queue.isEmpty()) {
+      State state = fst.getState(queue.removeFirst());
+      MutableState from = result.getState(newIds.get(state.getId()));
+      for (int i = 0; i < state.getArcCount(); i++) {
+        Arc arc = state.getArc(i);
+        State next = arc.getNextState();
+        if (!newIds.containsKey(next.getId())) {
+          MutableState added = result.newState(next.getFinalWeight());
+          newIds.put(next.getId(), added.getId());
+          queue.addLast(next.getId());
+        }
+        result.addArc(from, arc.getIlabel(), arc.getOlabel(), result.getState(newIds.get(next.getId())),
+                      arc.getWeight());
+      }
+    }
+    return result;
+  }
+}
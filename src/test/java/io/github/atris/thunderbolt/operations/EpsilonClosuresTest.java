@@ -0,0 +1,92 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.operations;
+
+import io.github.atris.thunderbolt.Fst;
+import io.github.atris.thunderbolt.MutableFst;
+import io.github.atris.thunderbolt.MutableState;
+import io.github.atris.thunderbolt.semiring.LogSemiring;
+import io.github.atris.thunderbolt.semiring.TropicalSemiring;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class EpsilonClosuresTest {
+
+  @Test
+  public void shouldHandleLongEpsilonChains() {
+    MutableFst fst = new MutableFst(TropicalSemiring.INSTANCE);
+    int eps = fst.getInputSymbols().getOrAdd(Fst.EPS);
+    int a = fst.getInputSymbols().getOrAdd("a");
+    int length = 200000;
+    MutableState previous = fst.newStartState();
+    for (int i = 0; i < length; i++) {
+      MutableState next = fst.newState();
+      fst.addArc(previous, eps, eps, next, 1.0);
+      previous = next;
+    }
+    fst.addArc(previous, a, a, fst.getStartState(), 0.0);
+
+    EpsilonClosures closures = new EpsilonClosures(fst, eps, eps);
+    // only the last state of the chain has a non epsilon arc, so it is the only state worth listing
+    assertEquals(1, closures.size(0));
+    assertEquals(length, closures.targetAt(0, 0));
+    assertEquals(length, closures.weightAt(0, 0), 0.0);
+    assertEquals(0, closures.size(length));
+  }
+
+  @Test
+  public void shouldSumEpsilonCycles() {
+    // 0 <-> 1 on epsilons, 1 is final; in the log semiring the weight from 0 to 1 is the sum over all of the loops
+    MutableFst fst = new MutableFst(LogSemiring.INSTANCE);
+    int eps = fst.getInputSymbols().getOrAdd(Fst.EPS);
+    MutableState s0 = fst.newStartState();
+    MutableState s1 = fst.newState();
+    s1.setFinalWeight(0.0);
+    fst.addArc(s0, eps, eps, s1, Math.log(2));
+    fst.addArc(s1, eps, eps, s0, Math.log(2));
+
+    EpsilonClosures closures = new EpsilonClosures(fst, eps, eps);
+    // 1/2 + 1/8 + 1/32 + ... = 2/3
+    assertEquals(1, closures.size(0));
+    assertEquals(1, closures.targetAt(0, 0));
+    assertEquals(-Math.log(2.0 / 3.0), closures.weightAt(0, 0), 1e-5);
+    // 1/4 + 1/16 + ... = 1/3
+    assertEquals(1, closures.size(1));
+    assertEquals(-Math.log(1.0 / 3.0), closures.weightAt(1, 0), 1e-5);
+  }
+
+  @Test
+  public void shouldTakeTheBestPathThroughTropicalCycles() {
+    MutableFst fst = new MutableFst(TropicalSemiring.INSTANCE);
+    int eps = fst.getInputSymbols().getOrAdd(Fst.EPS);
+    MutableState s0 = fst.newStartState();
+    MutableState s1 = fst.newState();
+    MutableState s2 = fst.newState();
+    s2.setFinalWeight(0.0);
+    fst.addArc(s0, eps, eps, s1, 1.0);
+    fst.addArc(s1, eps, eps, s0, 1.0);
+    fst.addArc(s1, eps, eps, s2, 5.0);
+    fst.addArc(s0, eps, eps, s2, 7.0);
+
+    EpsilonClosures closures = new EpsilonClosures(fst, eps, eps);
+    assertEquals(1, closures.size(0));
+    assertEquals(2, closures.targetAt(0, 0));
+    assertEquals(6.0, closures.weightAt(0, 0), 0.0);
+    assertEquals(5.0, closures.weightAt(1, 0), 0.0);
+  }
+}
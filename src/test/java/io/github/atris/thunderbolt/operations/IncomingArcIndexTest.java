@@ -0,0 +1,66 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.operations;
+
+import io.github.atris.thunderbolt.Arc;
+import io.github.atris.thunderbolt.MutableFst;
+import io.github.atris.thunderbolt.State;
+import io.github.atris.thunderbolt.io.Convert;
+import io.github.atris.thunderbolt.semiring.TropicalSemiring;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class IncomingArcIndexTest {
+
+  @Test
+  public void shouldListEveryArcUnderItsTarget() {
+    MutableFst fst = Convert.importFst("data/tests/algorithms/shortestpath/A", TropicalSemiring.INSTANCE);
+    IncomingArcIndex index = new IncomingArcIndex(fst);
+    assertEquals(fst.getStateCount(), index.getStateCount());
+
+    // the incoming arcs of every state, ordered by source state and then by arc index
+    List<List<Integer>> expectedSources = new ArrayList<>();
+    List<List<Double>> expectedWeights = new ArrayList<>();
+    for (int s = 0; s < fst.getStateCount(); s++) {
+      expectedSources.add(new ArrayList<Integer>());
+      expectedWeights.add(new ArrayList<Double>());
+    }
+    for (int s = 0; s < fst.getStateCount(); s++) {
+      State state = fst.getState(s);
+      for (int a = 0; a < state.getArcCount(); a++) {
+        Arc arc = state.getArc(a);
+        expectedSources.get(arc.getNextState().getId()).add(s);
+        expectedWeights.get(arc.getNextState().getId()).add(arc.getWeight());
+      }
+    }
+
+    for (int s = 0; s < fst.getStateCount(); s++) {
+      List<Integer> sources = new ArrayList<>();
+      List<Double> weights = new ArrayList<>();
+      for (int i = index.start(s); i < index.end(s); i++) {
+        sources.add(index.sourceAt(i));
+        weights.add(index.weightAt(i));
+      }
+      assertEquals(expectedSources.get(s), sources);
+      assertEquals(expectedWeights.get(s), weights);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.operations;
+
+import com.carrotsearch.hppc.sorting.IndirectComparator;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IndexedHeapTest {
+
+  @Test
+  public void shouldPopInPriorityOrderBreakingTiesById() {
+    final double[] priorities = new double[500];
+    Random random = new Random(0xBEEF);
+    IndexedHeap heap = new IndexedHeap(byPriority(priorities));
+    for (int i = 0; i < priorities.length; i++) {
+      priorities[i] = random.nextInt(50);
+      heap.add(i);
+    }
+    assertEquals(priorities.length, heap.size());
+
+    Integer[] expected = new Integer[priorities.length];
+    for (int i = 0; i < expected.length; i++) {
+      expected[i] = i;
+    }
+    Arrays.sort(expected, (a, b) -> byPriority(priorities).compare(a, b));
+    for (Integer id : expected) {
+      assertEquals(id.intValue(), heap.removeFirst());
+    }
+    assertTrue(heap.isEmpty());
+  }
+
+  @Test
+  public void shouldReorderAfterUpdate() {
+    final double[] priorities = {5.0, 3.0, 4.0, 1.0, 2.0};
+    IndexedHeap heap = new IndexedHeap(byPriority(priorities));
+    for (int i = 0; i < priorities.length; i++) {
+      heap.add(i);
+    }
+    priorities[0] = 0.0;
+    heap.update(0);
+    priorities[3] = 10.0;
+    heap.update(3);
+
+    assertEquals(0, heap.removeFirst());
+    assertFalse(heap.contains(0));
+    assertTrue(heap.contains(3));
+    assertEquals(4, heap.removeFirst());
+    assertEquals(1, heap.removeFirst());
+    assertEquals(2, heap.removeFirst());
+    assertEquals(3, heap.removeFirst());
+  }
+
+  private static IndirectComparator byPriority(final double[] priorities) {
+    return new IndirectComparator() {
+      @Override
+      public int compare(int a, int b) {
+        int c = Double.compare(priorities[a], priorities[b]);
+        return c != 0 ? c : Integer.compare(a, b);
+      }
+    };
+  }
+}
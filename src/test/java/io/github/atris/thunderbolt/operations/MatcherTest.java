@@ -0,0 +1,118 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.atris.thunderbolt.operations;
+
+import com.carrotsearch.hppc.IntArrayList;
+import io.github.atris.thunderbolt.MutableFst;
+import io.github.atris.thunderbolt.MutableState;
+import io.github.atris.thunderbolt.State;
+import io.github.atris.thunderbolt.semiring.TropicalSemiring;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MatcherTest {
+
+  private static final int MAX_LABEL = 400;
+
+  @Test
+  public void shouldMatchLikeALinearScan() {
+    MutableFst fst = randomFst(new Random(42));
+    assertSameMatches(fst, new HashMatcher(fst, Matcher.MatchType.INPUT), Matcher.MatchType.INPUT);
+    assertSameMatches(fst, new DenseMatcher(fst, Matcher.MatchType.INPUT), Matcher.MatchType.INPUT);
+    assertSameMatches(fst, new AutoMatcher(fst, Matcher.MatchType.INPUT, false), Matcher.MatchType.INPUT);
+    assertSameMatches(fst, new HashMatcher(fst, Matcher.MatchType.OUTPUT), Matcher.MatchType.OUTPUT);
+    assertSameMatches(fst, new DenseMatcher(fst, Matcher.MatchType.OUTPUT), Matcher.MatchType.OUTPUT);
+
+    ArcSort.sortByInput(fst);
+    assertSameMatches(fst, new SortedMatcher(fst, Matcher.MatchType.INPUT), Matcher.MatchType.INPUT);
+    assertSameMatches(fst, new AutoMatcher(fst, Matcher.MatchType.INPUT, true), Matcher.MatchType.INPUT);
+  }
+
+  @Test
+  public void shouldPickMatcherByArcCount() {
+    MutableFst fst = randomFst(new Random(7));
+    AutoMatcher matcher = new AutoMatcher(fst, Matcher.MatchType.INPUT, false);
+    assertTrue(matcher.matcherFor(0) instanceof DenseMatcher);
+    assertTrue(matcher.matcherFor(1) instanceof HashMatcher);
+    assertTrue(matcher.matcherFor(2) instanceof LinearMatcher);
+
+    AutoMatcher sortedMatcher = new AutoMatcher(fst, Matcher.MatchType.INPUT, true);
+    assertTrue(sortedMatcher.matcherFor(1) instanceof SortedMatcher);
+    assertTrue(sortedMatcher.matcherFor(2) instanceof LinearMatcher);
+  }
+
+  @Test
+  public void shouldIndexEachStateOnce() {
+    MutableFst fst = randomFst(new Random(3));
+    HashMatcher matcher = new HashMatcher(fst, Matcher.MatchType.INPUT);
+    for (int i = 0; i < 3; i++) {
+      matcher.setState(1);
+      matcher.setState(0);
+    }
+    assertEquals(2, matcher.getIndexedStateCount());
+    assertTrue(matcher.done());
+    assertFalse(matcher.find(MAX_LABEL + 1));
+    assertTrue(matcher.done());
+  }
+
+  private static void assertSameMatches(MutableFst fst, Matcher matcher, Matcher.MatchType matchType) {
+    LinearMatcher expected = new LinearMatcher(fst, matchType);
+    for (int s = 0; s < fst.getStateCount(); s++) {
+      State state = fst.getState(s);
+      matcher.setState(s);
+      expected.setState(s);
+      for (int label = 0; label <= MAX_LABEL + 1; label++) {
+        assertEquals(expected.find(label), matcher.find(label));
+        IntArrayList expectedPositions = new IntArrayList();
+        for (; !expected.done(); expected.next()) {
+          expectedPositions.add(expected.getPosition());
+        }
+        IntArrayList positions = new IntArrayList();
+        for (; !matcher.done(); matcher.next()) {
+          positions.add(matcher.getPosition());
+          assertEquals(label, matchType.labelOf(matcher.getArc()));
+          assertEquals(state.getArc(matcher.getPosition()), matcher.getArc());
+        }
+        assertEquals(expectedPositions, positions);
+      }
+    }
+  }
+
+  // state 0 has a high fan-out over a small label range, state 1 has labels spread over the whole range and state 2
+  // only has a few arcs
+  private static MutableFst randomFst(Random random) {
+    MutableFst fst = new MutableFst(TropicalSemiring.INSTANCE);
+    MutableState s0 = fst.newStartState();
+    MutableState s1 = fst.newState();
+    MutableState s2 = fst.newState();
+    s2.setFinalWeight(0.0);
+    for (int i = 0; i < 1000; i++) {
+      fst.addArc(s0, 1 + random.nextInt(MAX_LABEL), 1 + random.nextInt(50), s1, random.nextInt(10));
+    }
+    for (int i = 0; i < 40; i++) {
+      fst.addArc(s1, random.nextInt(5) * 90, random.nextInt(MAX_LABEL), s2, random.nextInt(10));
+    }
+    for (int i = 0; i < 5; i++) {
+      fst.addArc(s2, random.nextInt(4), random.nextInt(4), s0, random.nextInt(10));
+    }
+    return fst;
+  }
+}
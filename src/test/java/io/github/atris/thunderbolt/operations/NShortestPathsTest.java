@@ -24,6 +24,7 @@ import io.github.atris.thunderbolt.Fst;
 import io.github.atris.thunderbolt.utils.FstUtils;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -42,4 +43,18 @@ public class NShortestPathsTest {
 //    Convert.export(fstNsp, "shortest-export");
     assertTrue(FstUtils.fstEquals(nsp, fstNsp, FstUtils.LOG_REPORTER));
   }
+
+  @Test
+  public void shouldExpandEachStateOfALazyFstOnce() {
+    MutableFst fstA = Convert.importFst("data/tests/algorithms/compose/A", TropicalSemiring.INSTANCE);
+    MutableFst fstB = Convert.importFst("data/tests/algorithms/compose/B", TropicalSemiring.INSTANCE);
+    MutableFst eager = MutableFst.copyFrom(new ComposeFst(fstA, fstB, TropicalSemiring.INSTANCE));
+
+    // a cache this small would evict states between the backward distances and the forward search
+    ComposeFst lazy = new ComposeFst(fstA, fstB, TropicalSemiring.INSTANCE, 2);
+    MutableFst fromLazy = NShortestPaths.apply(lazy, 3);
+    assertTrue(FstUtils.fstEquals(NShortestPaths.apply(eager, 3), fromLazy, FstUtils.LOG_REPORTER));
+    assertEquals(eager.getStateCount(), lazy.getDiscoveredStateCount());
+    assertEquals(lazy.getDiscoveredStateCount(), lazy.getExpansionCount());
+  }
 }
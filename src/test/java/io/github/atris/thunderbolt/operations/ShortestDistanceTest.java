@@ -0,0 +1,89 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.operations;
+
+import io.github.atris.thunderbolt.MutableFst;
+import io.github.atris.thunderbolt.MutableState;
+import io.github.atris.thunderbolt.io.Convert;
+import io.github.atris.thunderbolt.semiring.LogSemiring;
+import io.github.atris.thunderbolt.semiring.TropicalSemiring;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ShortestDistanceTest {
+
+  @Test
+  public void shouldAgreeForEveryQueueTypeOnCycles() {
+    MutableFst fst = Convert.importFst("data/tests/algorithms/shortestpath/A", TropicalSemiring.INSTANCE);
+    assertNull(ShortestDistance.topologicalOrder(fst));
+    double[] forward = ShortestDistance.forward(fst, ShortestDistance.QueueType.FIFO);
+    double[] backward = ShortestDistance.backward(fst, ShortestDistance.QueueType.FIFO);
+    for (ShortestDistance.QueueType queueType : new ShortestDistance.QueueType[]{
+      ShortestDistance.QueueType.SHORTEST_FIRST, ShortestDistance.QueueType.AUTO}) {
+      assertArrayEquals(queueType.name(), forward, ShortestDistance.forward(fst, queueType), 0.0);
+      assertArrayEquals(queueType.name(), backward, ShortestDistance.backward(fst, queueType), 0.0);
+    }
+    // the shortest path from the start to a final state, either way
+    int start = fst.getStartState().getId();
+    double best = TropicalSemiring.INSTANCE.zero();
+    for (int s = 0; s < fst.getStateCount(); s++) {
+      best = Math.min(best, forward[s] + fst.getState(s).getFinalWeight());
+    }
+    assertEquals(best, backward[start], 0.0);
+  }
+
+  @Test
+  public void shouldComputeChainDistances() {
+    MutableFst fst = new MutableFst(TropicalSemiring.INSTANCE);
+    fst.useStateSymbols();
+    fst.setStart(fst.newState("0"));
+    fst.newState("1");
+    fst.newState("2").setFinalWeight(1.0);
+    fst.addArc("0", "a", "a", "1", 2.0);
+    fst.addArc("1", "b", "b", "2", 3.0);
+    fst.addArc("0", "c", "c", "2", 7.0);
+
+    for (ShortestDistance.QueueType queueType : ShortestDistance.QueueType.values()) {
+      assertArrayEquals(queueType.name(), new double[]{0.0, 2.0, 5.0}, ShortestDistance.forward(fst, queueType), 0.0);
+      assertArrayEquals(queueType.name(), new double[]{6.0, 4.0, 1.0}, ShortestDistance.backward(fst, queueType), 0.0);
+    }
+  }
+
+  @Test
+  public void shouldConvergeOnLogCycles() {
+    // a single final state with a self loop of probability 1/2: the total weight is -log(1 + 1/2 + 1/4 + ...)
+    MutableFst fst = new MutableFst(LogSemiring.INSTANCE);
+    MutableState state = fst.newStartState();
+    state.setFinalWeight(0.0);
+    fst.addArc(state, fst.getInputSymbols().getOrAdd("a"), fst.getOutputSymbols().getOrAdd("a"), state, Math.log(2));
+
+    assertNull(ShortestDistance.topologicalOrder(fst));
+    double[] backward = ShortestDistance.backward(fst);
+    assertEquals(-Math.log(2), backward[0], 1e-5);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectTopologicalOrderOnCycles() {
+    MutableFst fst = new MutableFst(TropicalSemiring.INSTANCE);
+    MutableState state = fst.newStartState();
+    fst.addArc(state, fst.getInputSymbols().getOrAdd("a"), fst.getOutputSymbols().getOrAdd("a"), state, 1.0);
+    ShortestDistance.forward(fst, ShortestDistance.QueueType.TOPOLOGICAL);
+  }
+}
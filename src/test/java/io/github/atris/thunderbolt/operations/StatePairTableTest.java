@@ -0,0 +1,60 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.operations;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class StatePairTableTest {
+
+  @Test
+  public void shouldAssignDenseIdsInInsertionOrder() {
+    StatePairTable table = new StatePairTable();
+    assertEquals(0, table.findOrAdd(3, 4));
+    assertEquals(1, table.findOrAdd(4, 3));
+    assertEquals(0, table.findOrAdd(3, 4));
+    assertEquals(2, table.findOrAdd(0, -1));
+    assertEquals(3, table.size());
+
+    assertEquals(4, table.getLeft(1));
+    assertEquals(3, table.getRight(1));
+    assertEquals(-1, table.getRight(2));
+    assertEquals(-1, table.find(StatePairTable.pack(9, 9)));
+  }
+
+  @Test
+  public void shouldGrow() {
+    StatePairTable table = new StatePairTable(2);
+    int id = 0;
+    for (int i = 0; i < 300; i++) {
+      for (int j = 0; j < 300; j++) {
+        assertEquals(id++, table.findOrAdd(i, j));
+      }
+    }
+    assertEquals(90000, table.size());
+    id = 0;
+    for (int i = 0; i < 300; i++) {
+      for (int j = 0; j < 300; j++) {
+        assertEquals(id, table.find(StatePairTable.pack(i, j)));
+        assertEquals(i, table.getLeft(id));
+        assertEquals(j, table.getRight(id));
+        id++;
+      }
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.atris.thunderbolt.operations;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SubsetTableTest {
+
+  @Test
+  public void shouldInternSubsets() {
+    SubsetTable table = new SubsetTable();
+    assertEquals(0, table.findOrAdd(new int[]{1, 0}, 2));
+    assertEquals(1, table.findOrAdd(new int[]{1, 0, 2, 3}, 4));
+    assertEquals(2, table.findOrAdd(new int[]{1, 3, 2, 0}, 4));
+    assertEquals(0, table.findOrAdd(new int[]{1, 0, 9, 9}, 2));
+    assertEquals(1, table.findOrAdd(new int[]{1, 0, 2, 3}, 4));
+    assertEquals(3, table.findOrAdd(new int[0], 0));
+    assertEquals(4, table.size());
+
+    assertEquals(2, table.elementCount(2));
+    assertEquals(2, table.stateOf(2, 1));
+    assertEquals(0, table.residualOf(2, 1));
+    assertEquals(0, table.elementCount(3));
+  }
+
+  @Test
+  public void shouldGrow() {
+    SubsetTable table = new SubsetTable();
+    int id = 0;
+    for (int i = 0; i < 200; i++) {
+      for (int j = 0; j < 50; j++) {
+        assertEquals(id++, table.findOrAdd(new int[]{i, j, i + 1, j, i + 2, j}, 2 * (1 + (i + j) % 3)));
+      }
+    }
+    assertEquals(10000, table.size());
+    id = 0;
+    for (int i = 0; i < 200; i++) {
+      for (int j = 0; j < 50; j++) {
+        int length = 2 * (1 + (i + j) % 3);
+        assertEquals(id, table.findOrAdd(new int[]{i, j, i + 1, j, i + 2, j}, length));
+        assertEquals(length / 2, table.elementCount(id));
+        assertEquals(i, table.stateOf(id, 0));
+        assertEquals(j, table.residualOf(id, length / 2 - 1));
+        id++;
+      }
+    }
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.atris.thunderbolt.semiring;
+
+import com.carrotsearch.hppc.IntArrayList;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LabelSequenceTest {
+
+  @Test
+  public void shouldInternEqualSequences() {
+    IntArrayList list = new IntArrayList();
+    list.add(1, 2, 3);
+    assertSame(LabelSequence.of(1, 2, 3), LabelSequence.of(1, 2, 3));
+    assertSame(LabelSequence.of(1, 2, 3), LabelSequence.copyOf(list));
+    assertSame(LabelSequence.of(2, 3), LabelSequence.of(1, 2, 3).tail());
+    assertSame(LabelSequence.empty(), LabelSequence.of());
+  }
+
+  @Test
+  public void shouldConcatAndDrop() {
+    LabelSequence ab = LabelSequence.of(1, 2);
+    LabelSequence cd = LabelSequence.of(3, 4);
+    LabelSequence abcd = ab.concat(cd);
+
+    assertSame(LabelSequence.of(1, 2, 3, 4), abcd);
+    assertSame(ab, ab.concat(LabelSequence.empty()));
+    assertSame(cd, LabelSequence.empty().concat(cd));
+    assertSame(cd, abcd.drop(2));
+    assertTrue(abcd.drop(4).isEmpty());
+    assertEquals(4, abcd.size());
+    assertEquals(1, abcd.head());
+    assertEquals(3, abcd.get(2));
+    assertArrayEquals(new int[]{1, 2, 3, 4}, abcd.toArray());
+    assertEquals("[1, 2, 3, 4]", abcd.toString());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotHaveHeadWhenEmpty() {
+    LabelSequence.empty().head();
+  }
+}